@@ -0,0 +1,24 @@
+#!/usr/bin/env bash
+# Cold-start time-to-first-byte, measured in fresh JVMs via app.Startup's probe main.
+#   ./coldstart.sh                 # 10 runs each with priming off/on, GET /health
+#   RUNS=20 ./coldstart.sh /v1/transactions?client_id=...   # any GET path (DB paths need jdbc_url etc.)
+# init  = JVM start -> ApiHandler class initialized (priming happens here, i.e. in the Lambda init phase)
+# first = latency of the first request once the handler is ready
+# With SnapStart/CRaC the init cost is paid once at snapshot time, so "first" is what callers see.
+set -euo pipefail
+cd "$(dirname "$0")"
+RUNS="${RUNS:-10}"
+TARGET="${1:-/health}"
+JAR=../target/spending-insights-backend-0.1.0-shaded.jar
+if [[ -z "${SKIP_BUILD:-}" ]]; then (cd .. && mvn -q -e -DskipTests package); fi
+
+median() { sort -n | awk '{a[NR]=$1} END {print (NR%2 ? a[(NR+1)/2] : int((a[NR/2]+a[NR/2+1])/2))}'; }
+
+for prime in false true; do
+  out=$(for _ in $(seq "$RUNS"); do
+    prime_on_init=$prime java ${JAVA_OPTS:-} -cp "$JAR" app.Startup "$TARGET" 2>/dev/null | grep '^status='
+  done)
+  field() { grep -o "$1=[0-9]*" <<<"$out" | cut -d= -f2 | median; }
+  printf 'prime=%-5s runs=%s  init_ms=%s  first_ms=%s  ttfb_ms=%s\n' \
+    "$prime" "$RUNS" "$(field init_ms)" "$(field first_ms)" "$(field ttfb_ms)"
+done
@@ -0,0 +1,38 @@
+#!/usr/bin/env python3
+"""Compare two JMH JSON result files: ./compare.py old.json new.json [threshold_pct]"""
+import json
+import sys
+
+
+def load(path):
+    out = {}
+    for r in json.load(open(path)):
+        params = ",".join(f"{k}={v}" for k, v in sorted((r.get("params") or {}).items()))
+        key = r["benchmark"].rsplit(".", 2)[-2] + "." + r["benchmark"].rsplit(".", 1)[-1]
+        if params:
+            key += f" [{params}]"
+        m = r["primaryMetric"]
+        out[key] = (m["score"], m.get("scoreError") or 0.0, m["scoreUnit"], r.get("mode"))
+    return out
+
+
+def main():
+    old, new = load(sys.argv[1]), load(sys.argv[2])
+    threshold = float(sys.argv[3]) if len(sys.argv) > 3 else 5.0
+    regressions = 0
+    for key in sorted(set(old) & set(new)):
+        o, n = old[key], new[key]
+        # throughput: higher is better; avgt/sample/ss: lower is better
+        higher_better = o[3] == "thrpt"
+        delta = (n[0] - o[0]) / o[0] * 100.0 if o[0] else 0.0
+        worse = -delta if higher_better else delta
+        flag = "REGRESSION" if worse > threshold else ""
+        regressions += bool(flag)
+        print(f"{key:70s} {o[0]:12.3f} -> {n[0]:12.3f} {n[2]:10s} {delta:+7.1f}% {flag}")
+    for key in sorted(set(new) - set(old)):
+        print(f"{key:70s} (new) {new[key][0]:.3f} {new[key][2]}")
+    sys.exit(1 if regressions else 0)
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,19 @@
+#!/usr/bin/env bash
+# FleetRefreshJob against PlaidStub + a local Postgres (jdbc_url/db_user/db_pass; schema is reset).
+#   ./fleet-refresh.sh                       # 200 clients x 2 Items, 15s "Lambda" budget per invocation
+#   ./fleet-refresh.sh 1000 3 20000          # clients itemsPerClient budgetMs
+# Stub knobs: STUB_TX (per Item, 300), STUB_LATENCY_MS (80), STUB_RPS (50); job knobs are its env vars
+# (refresh_plaid_rps, refresh_concurrency, ...). Set refresh_plaid_rps above STUB_RPS to see 429 back-off.
+set -euo pipefail
+cd "$(dirname "$0")"
+if [[ -z "${SKIP_BUILD:-}" ]]; then
+  (cd .. && mvn -q -e -DskipTests install)
+  mvn -q -e -DskipTests package
+fi
+PORT="${STUB_PORT:-4010}"
+java -cp target/benchmarks.jar app.bench.PlaidStub "$PORT" "${STUB_TX:-300}" "${STUB_LATENCY_MS:-80}" "${STUB_RPS:-50}" &
+STUB=$!
+trap 'kill $STUB 2>/dev/null || true' EXIT
+sleep 1
+plaid_base_url="http://localhost:$PORT" refresh_min_age_minutes=0 \
+  java -cp target/benchmarks.jar app.bench.FleetRefreshLocal "$@"
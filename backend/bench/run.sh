@@ -0,0 +1,20 @@
+#!/usr/bin/env bash
+# Build the backend + benchmarks and run JMH, writing JSON results per commit.
+#   ./run.sh                      # everything except the Postgres end-to-end benches
+#   ./run.sh EndToEnd             # any JMH include regex; EndToEnd needs jdbc_url/db_user/db_pass
+#   ./run.sh TxUpsert -p rows=1000000
+# Compare two runs with: ./compare.py results/<old>.json results/<new>.json
+# Cold-start TTFB (fresh JVM per run, priming on vs off): ./coldstart.sh
+set -euo pipefail
+cd "$(dirname "$0")"
+(cd .. && mvn -q -e -DskipTests install)
+mvn -q -e -DskipTests package
+
+SHA=$(git rev-parse --short HEAD 2>/dev/null || echo local)
+mkdir -p results
+OUT="results/${SHA}.json"
+
+INCLUDE="${1:-^(?!.*EndToEnd).*}"
+shift || true
+java -jar target/benchmarks.jar "$INCLUDE" -rf json -rff "$OUT" "$@"
+echo "Wrote $OUT"
@@ -0,0 +1,34 @@
+package app;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Routing + response construction for requests that never touch the DB. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ApiHandlerRoutingBench {
+
+  ApiHandler handler;
+  APIGatewayV2HTTPEvent preflight, notFound, health, badBudgets;
+
+  @Setup
+  public void setup() {
+    handler = new ApiHandler();
+    preflight  = Events.req("OPTIONS", "/prod/v1/transactions", null);
+    notFound   = Events.req("GET", "/prod/v1/nope", null);
+    health     = Events.req("GET", "/prod/health", null);
+    badBudgets = Events.req("GET", "/prod/v1/budgets", null); // 400: client_id required
+  }
+
+  @Benchmark public APIGatewayV2HTTPResponse preflight()  { return handler.handleRequest(preflight, null); }
+  @Benchmark public APIGatewayV2HTTPResponse notFound()   { return handler.handleRequest(notFound, null); }
+  @Benchmark public APIGatewayV2HTTPResponse health()     { return handler.handleRequest(health, null); }
+  @Benchmark public APIGatewayV2HTTPResponse badRequest() { return handler.handleRequest(badBudgets, null); }
+}
@@ -0,0 +1,27 @@
+package app;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+
+import java.util.Map;
+
+/** API Gateway v2 events as the "prod" stage delivers them. */
+final class Events {
+
+  private Events() { /* no instances */ }
+
+  static APIGatewayV2HTTPEvent req(String method, String rawPath, Map<String, String> query) {
+    return req(method, rawPath, query, null);
+  }
+
+  static APIGatewayV2HTTPEvent req(String method, String rawPath, Map<String, String> query, String body) {
+    return APIGatewayV2HTTPEvent.builder()
+        .withRawPath(rawPath)
+        .withQueryStringParameters(query)
+        .withBody(body)
+        .withRequestContext(APIGatewayV2HTTPEvent.RequestContext.builder()
+            .withStage("prod")
+            .withHttp(APIGatewayV2HTTPEvent.RequestContext.Http.builder().withMethod(method).withPath(rawPath).build())
+            .build())
+        .build();
+  }
+}
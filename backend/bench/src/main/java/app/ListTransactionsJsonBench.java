@@ -0,0 +1,87 @@
+package app;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing one /v1/transactions page: the streaming writer used by ListTransactionsHandler vs the
+ * old HashMap-per-row + writeValueAsString approach (kept here as the baseline).
+ * Run with -prof gc to see allocation per page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListTransactionsJsonBench {
+
+  @Param({"50", "200", "1000"})
+  public int pageSize;
+
+  static final ObjectMapper M = app.common.Json.M;  // same tuned mapper the handlers use
+
+  record R(long id, long accountId, String accountName, String merchant, String category,
+           int amountCents, String postDate, String status) {}
+
+  R[] page;
+
+  @Setup
+  public void setup() {
+    SplittableRandom r = new SplittableRandom(7);
+    page = new R[pageSize];
+    LocalDate d = LocalDate.of(2025, 9, 30);
+    for (int i = 0; i < pageSize; i++) {
+      page[i] = new R(1_000_000L - i, 1 + r.nextInt(3), "Everyday Checking", "Trader Joe's #552",
+          "FOOD AND DRINK", r.nextInt(50_000), d.minusDays(i / 4).toString(), i % 17 == 0 ? "pending" : "posted");
+    }
+  }
+
+  @Benchmark
+  public String streaming() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(256 + pageSize * 160);
+    try (JsonGenerator g = M.getFactory().createGenerator(out)) {
+      g.writeStartObject();
+      g.writeArrayFieldStart("items");
+      for (R x : page) {
+        ListTransactionsHandler.writeItem(g, x.id(), x.accountId(), x.accountName(), x.merchant(), x.category(),
+            x.amountCents(), x.postDate(), x.status());
+      }
+      g.writeEndArray();
+      R last = page[page.length - 1];
+      ListTransactionsHandler.writeNext(g, page.length, last.postDate(), last.id());
+      g.writeEndObject();
+    }
+    return out.toString(java.nio.charset.StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public String mapsBaseline() throws Exception {
+    List<Map<String,Object>> items = new ArrayList<>();
+    for (R x : page) {
+      Map<String,Object> row = new HashMap<>();
+      row.put("id", x.id());
+      row.put("account_id", x.accountId());
+      row.put("account_name", x.accountName());
+      row.put("merchant", x.merchant());
+      row.put("category", x.category());
+      row.put("amount_cents", x.amountCents());
+      row.put("post_date", x.postDate());
+      row.put("status", x.status());
+      items.add(row);
+    }
+    Map<String,Object> last = items.get(items.size() - 1);
+    Map<String,Object> next = Map.of("beforeDate", last.get("post_date"), "beforeId", String.valueOf(last.get("id")));
+    return M.writeValueAsString(Map.of("items", items, "next", next));
+  }
+}
@@ -0,0 +1,141 @@
+package app.bench;
+
+import app.ApiHandler;
+import app.common.Db;
+import app.plaid.TxUpsertService;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import com.plaid.client.model.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Full request handling against a local Postgres (the "stand-in"): pooled connection, SQL, JSON.
+ * Needs jdbc_url/db_user/db_pass pointing at a throwaway database; the schema is dropped and
+ * recreated from bench-schema.sql + backend/db/*.sql. Refuses non-local URLs unless
+ * bench_allow_reset=1.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class EndToEndBench {
+
+  @Param({"1000", "100000"})
+  public int rows;
+
+  static final UUID CLIENT = UUID.nameUUIDFromBytes("bench-client".getBytes(StandardCharsets.UTF_8));
+
+  ApiHandler handler;
+  APIGatewayV2HTTPEvent firstPage, budgets;
+  List<Transaction> reupsert;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    requireLocalDb();
+    Db.withConn(c -> {
+      resetSchema(c);
+      seed(c);
+    });
+
+    handler = new ApiHandler();
+    String cid = CLIENT.toString();
+    firstPage = request("GET", "/prod/v1/transactions", Map.of("client_id", cid, "limit", "50"));
+    budgets   = request("GET", "/prod/v1/budgets", Map.of("client_id", cid));
+    reupsert  = TxGen.transactions(Math.min(rows, 1000), 1);
+  }
+
+  private void seed(Connection c) throws Exception {
+    Db.exec(c, "INSERT INTO client (client_id) VALUES (?)", CLIENT);
+    Db.exec(c, "INSERT INTO items (client_id, item_id, institution_id) VALUES (?, 'item_bench', 'ins_1')", CLIENT);
+    for (String acct : TxGen.ACCOUNTS) {
+      Long id = Db.one(c, """
+        INSERT INTO accounts (client_id, institution_id, current_item_id, current_plaid_account_id, name)
+        VALUES (?, 'ins_1', 'item_bench', ?, ?) RETURNING id
+      """, rs -> rs.getLong(1), CLIENT, acct, acct);
+      Db.exec(c, "INSERT INTO account_links (client_id, item_id, plaid_account_id, account_id) VALUES (?, 'item_bench', ?, ?)",
+          CLIENT, acct, id);
+    }
+    for (String cat : TxGen.CATEGORIES) {
+      Db.exec(c, "INSERT INTO budget (client_id, category, monthly_limit) VALUES (?, ?, 500)", CLIENT, cat.replace('_', ' '));
+    }
+    // Seed in 10k slices so 1M rows don't need 1M Transaction objects at once.
+    for (int off = 0; off < rows; off += 10_000) {
+      TxUpsertService.upsertAll(c, TxGen.transactions(Math.min(10_000, rows - off), 1_000 + off));
+    }
+    Db.exec(c, "ANALYZE");
+  }
+
+  @Benchmark
+  public APIGatewayV2HTTPResponse listFirstPage() { return handler.handleRequest(firstPage, null); }
+
+  @Benchmark
+  public APIGatewayV2HTTPResponse getBudgets() { return handler.handleRequest(budgets, null); }
+
+  /** Re-ingest up to 1k already-stored rows (the update path of a steady-state sync page). */
+  @Benchmark
+  public TxUpsertService.Result upsertPage() throws Exception {
+    return Db.withConn(c -> { return TxUpsertService.upsertAll(c, reupsert); });
+  }
+
+  private static APIGatewayV2HTTPEvent request(String method, String rawPath, Map<String, String> query) {
+    return APIGatewayV2HTTPEvent.builder()
+        .withRawPath(rawPath)
+        .withQueryStringParameters(query)
+        .withRequestContext(APIGatewayV2HTTPEvent.RequestContext.builder()
+            .withStage("prod")
+            .withHttp(APIGatewayV2HTTPEvent.RequestContext.Http.builder().withMethod(method).withPath(rawPath).build())
+            .build())
+        .build();
+  }
+
+  /** Only reset throwaway databases: localhost, unless bench_allow_reset=1. */
+  static void requireLocalDb() {
+    String url = System.getenv("jdbc_url");
+    if (url == null) throw new IllegalStateException("set jdbc_url/db_user/db_pass to a local Postgres");
+    if (!(url.contains("localhost") || url.contains("127.0.0.1")) && !"1".equals(System.getenv("bench_allow_reset"))) {
+      throw new IllegalStateException("refusing to reset schema on non-local " + url + " (bench_allow_reset=1 overrides)");
+    }
+  }
+
+  /** bench-schema.sql, then backend/db/*.sql in order. */
+  static void resetSchema(Connection c) throws Exception {
+    runScript(c, resource("/bench-schema.sql"));
+    Path dbDir = Paths.get(System.getProperty("bench.db.dir", "../db"));
+    try (Stream<Path> files = Files.list(dbDir)) {
+      for (Path p : files.filter(f -> f.toString().endsWith(".sql")).sorted().toList()) {
+        runScript(c, Files.readString(p));
+      }
+    }
+  }
+
+  private static String resource(String name) throws Exception {
+    try (InputStream in = EndToEndBench.class.getResourceAsStream(name)) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  /** Naive splitter: statements end with ';' at end of line (true for our DDL files). */
+  static void runScript(Connection c, String sql) throws Exception {
+    try (Statement st = c.createStatement()) {
+      for (String stmt : sql.split(";\\s*\\n")) {
+        String s = stmt.strip();
+        if (!s.isEmpty() && !s.lines().allMatch(l -> l.isBlank() || l.strip().startsWith("--"))) st.execute(s);
+      }
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package app.bench;
+
+import app.common.Db;
+import app.plaid.AccessTokens;
+import app.plaid.FleetRefreshJob;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.UUID;
+
+/**
+ * FleetRefreshJob end to end against a local Postgres and PlaidStub (see fleet-refresh.sh).
+ * Seeds clients x itemsPerClient Items, then invokes the job with a short budget until the run
+ * completes, so checkpoint/resume across "Lambda timeouts" is exercised too.
+ *
+ *   FleetRefreshLocal [clients=200] [itemsPerClient=2] [budgetMs=15000]
+ */
+public final class FleetRefreshLocal {
+
+  private FleetRefreshLocal() { /* no instances */ }
+
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int perClient = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+    long budgetMs = args.length > 2 ? Long.parseLong(args[2]) : 15_000;
+    if (System.getenv("plaid_base_url") == null) {
+      throw new IllegalStateException("set plaid_base_url to a running PlaidStub, e.g. http://localhost:4010");
+    }
+
+    EndToEndBench.requireLocalDb();
+    Db.withConn(c -> {
+      EndToEndBench.resetSchema(c);
+      seed(c, clients, perClient);
+    });
+
+    // every Item's token is the stub's convention; no Secrets Manager involved
+    AccessTokens.setStore(new AccessTokens.Store() {
+      @Override public String get(String secretId) {
+        return "access-stub-" + secretId.substring(secretId.lastIndexOf('/') + 1);
+      }
+      @Override public void put(String secretId, String value) {}
+      @Override public void delete(String secretId) {}
+    });
+
+    for (int i = 1; ; i++) {
+      FleetRefreshJob.Report r = FleetRefreshJob.run(budgetMs, s -> {});
+      System.out.println("[invocation " + i + "] " + r);
+      if (r.remaining() == 0) {
+        System.out.printf("run %d: %d items in %d ms (%.1f items/s)%n", r.runId(), r.itemsTotal(),
+            r.runLatencyMs(), r.itemsTotal() * 1000.0 / Math.max(1, r.runLatencyMs()));
+        break;
+      }
+    }
+  }
+
+  static void seed(Connection c, int clients, int perClient) throws Exception {
+    for (int i = 0; i < clients; i++) {
+      UUID client = UUID.nameUUIDFromBytes(("refresh-client-" + i).getBytes(StandardCharsets.UTF_8));
+      Db.exec(c, "INSERT INTO client (client_id) VALUES (?)", client);
+      for (int j = 0; j < perClient; j++) {
+        String itemId = "item_" + i + "_" + j;
+        Db.exec(c, "INSERT INTO items (client_id, item_id, institution_id) VALUES (?, ?, ?)",
+            client, itemId, "ins_" + j);
+        for (String acct : PlaidStub.accountIds(itemId)) {
+          Long id = Db.one(c, """
+            INSERT INTO accounts (client_id, institution_id, current_item_id, current_plaid_account_id, name)
+            VALUES (?, ?, ?, ?, ?) RETURNING id
+          """, rs -> rs.getLong(1), client, "ins_" + j, itemId, acct, acct);
+          Db.exec(c, "INSERT INTO account_links (client_id, item_id, plaid_account_id, account_id) VALUES (?, ?, ?, ?)",
+              client, itemId, acct, id);
+        }
+      }
+    }
+  }
+}
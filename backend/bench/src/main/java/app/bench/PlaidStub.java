@@ -0,0 +1,170 @@
+package app.bench;
+
+import app.common.Json;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Just enough of Plaid's /transactions/sync for local runs of the sync paths (point the backend at
+ * it with plaid_base_url). Access token "access-stub-<itemId>" yields a deterministic history of
+ * txPerItem transactions on accounts acct_<itemId>_{checking,savings,card}; the cursor is the
+ * offset, so once an Item is caught up further syncs return empty pages. Calls beyond rps in any
+ * one-second window get Plaid's 429 RATE_LIMIT_EXCEEDED.
+ *
+ *   java -cp benchmarks.jar app.bench.PlaidStub [port=4010] [txPerItem=300] [latencyMs=80] [rps=50]
+ */
+public final class PlaidStub {
+
+  static final String[] ACCOUNT_SUFFIXES = { "checking", "savings", "card" };
+
+  final int txPerItem;
+  final long latencyMs;
+  final int rps;
+  final AtomicLong calls = new AtomicLong();
+  final AtomicLong limited = new AtomicLong();
+  private long windowStart;
+  private int windowCount;
+
+  PlaidStub(int txPerItem, long latencyMs, int rps) {
+    this.txPerItem = txPerItem;
+    this.latencyMs = latencyMs;
+    this.rps = rps;
+  }
+
+  static List<String> accountIds(String itemId) {
+    List<String> ids = new ArrayList<>(ACCOUNT_SUFFIXES.length);
+    for (String s : ACCOUNT_SUFFIXES) ids.add("acct_" + itemId + "_" + s);
+    return ids;
+  }
+
+  public static HttpServer start(int port, int txPerItem, long latencyMs, int rps) throws IOException {
+    PlaidStub stub = new PlaidStub(txPerItem, latencyMs, rps);
+    HttpServer server = HttpServer.create(new InetSocketAddress(port), 256);
+    server.createContext("/transactions/sync", stub::sync);
+    server.setExecutor(Executors.newCachedThreadPool(r -> {
+      Thread t = new Thread(r, "plaid-stub");
+      t.setDaemon(true);
+      return t;
+    }));
+    server.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(() ->
+        System.out.println("[PlaidStub] calls=" + stub.calls.get() + " rate_limited=" + stub.limited.get())));
+    return server;
+  }
+
+  private synchronized boolean admit() {
+    long now = System.currentTimeMillis();
+    if (now - windowStart >= 1_000) {
+      windowStart = now;
+      windowCount = 0;
+    }
+    return ++windowCount <= rps;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void sync(HttpExchange ex) throws IOException {
+    try (ex) {
+      calls.incrementAndGet();
+      Map<String, Object> req = Json.read(new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8), Map.class);
+      if (latencyMs > 0) Thread.sleep(latencyMs);
+      if (!admit()) {
+        limited.incrementAndGet();
+        reply(ex, 429, Map.of("error_type", "RATE_LIMIT_EXCEEDED", "error_code", "TRANSACTIONS_SYNC_LIMIT",
+            "error_message", "rate limit exceeded", "display_message", "", "request_id", "stub"));
+        return;
+      }
+      String token = String.valueOf(req.get("access_token"));
+      if (!token.startsWith("access-stub-")) {
+        reply(ex, 400, Map.of("error_type", "INVALID_INPUT", "error_code", "INVALID_ACCESS_TOKEN",
+            "error_message", "unknown access token", "display_message", "", "request_id", "stub"));
+        return;
+      }
+      String itemId = token.substring("access-stub-".length());
+      Object cur = req.get("cursor");
+      int from = cur == null || String.valueOf(cur).isBlank() ? 0 : Integer.parseInt(String.valueOf(cur));
+      int count = req.get("count") instanceof Number n ? n.intValue() : 100;
+      int to = Math.min(txPerItem, from + count);
+
+      Map<String, Object> page = new LinkedHashMap<>();
+      page.put("added", transactions(itemId, from, to));
+      page.put("modified", List.of());
+      page.put("removed", List.of());
+      page.put("accounts", List.of());
+      page.put("next_cursor", String.valueOf(to));
+      page.put("has_more", to < txPerItem);
+      page.put("transactions_update_status", "HISTORICAL_UPDATE_COMPLETE");
+      page.put("request_id", "stub-" + calls.get());
+      reply(ex, 200, page);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      reply(ex, 500, Map.of("error_type", "API_ERROR", "error_code", "INTERNAL_SERVER_ERROR",
+          "error_message", String.valueOf(e), "display_message", "", "request_id", "stub"));
+    }
+  }
+
+  /** Transactions [from, to) of the Item's history; same ids and values on every call. */
+  List<Map<String, Object>> transactions(String itemId, int from, int to) {
+    List<String> accounts = accountIds(itemId);
+    LocalDate today = LocalDate.now();
+    List<Map<String, Object>> out = new ArrayList<>(Math.max(0, to - from));
+    for (int i = from; i < to; i++) {
+      SplittableRandom r = new SplittableRandom(itemId.hashCode() * 1_000_003L + i);
+      String merchant = TxGen.MERCHANTS[r.nextInt(TxGen.MERCHANTS.length)];
+      LocalDate date = today.minusDays((long) (txPerItem - i) * 730 / Math.max(1, txPerItem));
+      Map<String, Object> t = new LinkedHashMap<>();
+      t.put("transaction_id", "tx_" + itemId + "_" + i);
+      t.put("account_id", accounts.get(r.nextInt(accounts.size())));
+      t.put("amount", Math.round(r.nextDouble(-50, 400) * 100) / 100.0);
+      t.put("iso_currency_code", "USD");
+      t.put("date", date.toString());
+      t.put("authorized_date", date.minusDays(r.nextInt(3)).toString());
+      t.put("name", merchant);
+      t.put("merchant_name", merchant);
+      t.put("pending", false);
+      t.put("payment_channel", "in store");
+      t.put("location", Map.of());
+      t.put("payment_meta", Map.of());
+      t.put("personal_finance_category",
+          Map.of("primary", TxGen.CATEGORIES[r.nextInt(TxGen.CATEGORIES.length)], "detailed", "OTHER"));
+      out.add(t);
+    }
+    return out;
+  }
+
+  private static void reply(HttpExchange ex, int status, Object body) throws IOException {
+    byte[] b;
+    try {
+      b = Json.write(body).getBytes(StandardCharsets.UTF_8);
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    ex.getResponseHeaders().set("Content-Type", "application/json");
+    ex.sendResponseHeaders(status, b.length);
+    try (OutputStream out = ex.getResponseBody()) { out.write(b); }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 4010;
+    int txPerItem = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+    long latency = args.length > 2 ? Long.parseLong(args[2]) : 80;
+    int rps = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+    start(port, txPerItem, latency, rps);
+    System.out.println("[PlaidStub] http://localhost:" + port + " txPerItem=" + txPerItem
+        + " latencyMs=" + latency + " rps=" + rps);
+    Thread.currentThread().join();
+  }
+}
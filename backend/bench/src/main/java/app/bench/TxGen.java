@@ -0,0 +1,50 @@
+package app.bench;
+
+import com.plaid.client.model.PersonalFinanceCategory;
+import com.plaid.client.model.Transaction;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/** Deterministic synthetic Plaid transactions, so runs on different commits see the same data. */
+public final class TxGen {
+
+  private TxGen() { /* no instances */ }
+
+  static final String[] MERCHANTS = {
+    "STARBUCKS #1234", "Uber *Trip", "KROGER 0042", "Amazon.com*2X4Y", "Netflix.com",
+    "SHELL OIL 5744", "Trader Joe's #552", "SQ *BLUE BOTTLE", "DELTA AIR 0062", "Spotify USA",
+    "CVS/PHARMACY #0921", "Chipotle 1187", "Whole Foods Mkt", "LYFT   *RIDE", "Apple.com/Bill"
+  };
+  static final String[] CATEGORIES = {
+    "FOOD_AND_DRINK", "TRANSPORTATION", "GENERAL_MERCHANDISE", "ENTERTAINMENT", "TRAVEL",
+    "MEDICAL", "LOAN_PAYMENTS", "RENT_AND_UTILITIES"
+  };
+  public static final String[] ACCOUNTS = { "acc_checking", "acc_savings", "acc_card" };
+
+  public static List<Transaction> transactions(int n, long seed) {
+    SplittableRandom r = new SplittableRandom(seed);
+    LocalDate today = LocalDate.of(2025, 9, 30);
+    List<Transaction> out = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      String merchant = MERCHANTS[r.nextInt(MERCHANTS.length)];
+      LocalDate date = today.minusDays(r.nextInt(730));
+      Transaction t = new Transaction()
+          .transactionId("tx_" + seed + "_" + i)
+          .accountId(ACCOUNTS[r.nextInt(ACCOUNTS.length)])
+          .amount(Math.round(r.nextDouble(-50, 400) * 100) / 100.0)
+          .date(date)
+          .authorizedDate(r.nextInt(4) == 0 ? null : date.minusDays(r.nextInt(3)))
+          .pending(r.nextInt(20) == 0)
+          .name(merchant)
+          .merchantName(r.nextInt(3) == 0 ? null : merchant);
+      if (r.nextInt(10) != 0) {
+        t.personalFinanceCategory(new PersonalFinanceCategory().primary(CATEGORIES[r.nextInt(CATEGORIES.length)]));
+      }
+      out.add(t);
+    }
+    return out;
+  }
+}
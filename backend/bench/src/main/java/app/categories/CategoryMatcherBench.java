@@ -0,0 +1,94 @@
+package app.categories;
+
+import app.bench.TxGen;
+import app.categories.CategoryRules.Rule;
+import app.plaid.TxUpsertService;
+import com.plaid.client.model.Transaction;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Per-transaction cost of category rules: compiled automaton vs. checking each rule in turn. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CategoryMatcherBench {
+
+  @Param({"10", "1000", "10000"})
+  public int rules;
+
+  static final int ROWS = 10_000;
+
+  List<Rule> sorted;
+  CategoryMatcher matcher;
+  String[] merchants;
+  int[] cents;
+
+  @Setup
+  public void setup() {
+    List<Transaction> txs = TxGen.transactions(ROWS, 42);
+    merchants = new String[ROWS];
+    cents = new int[ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      Transaction t = txs.get(i);
+      merchants[i] = TxUpsertService.norm(t.getMerchantName() != null ? t.getMerchantName() : t.getName());
+      cents[i] = (int) Math.round(t.getAmount() * 100);
+    }
+    // a tenth of the rules name merchants that occur; the rest are random words that mostly don't
+    Random r = new Random(7);
+    sorted = new ArrayList<>(rules);
+    for (int i = 0; i < rules; i++) {
+      String p;
+      if (i % 10 == 0) {
+        String m = merchants[r.nextInt(ROWS)];
+        p = m == null || m.isEmpty() ? "x" : m.split(" ")[0];
+      } else {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 4 + r.nextInt(8); k > 0; k--) sb.append((char) ('a' + r.nextInt(26)));
+        p = sb.toString();
+      }
+      sorted.add(new Rule(i + 1, null, CategoryRules.KINDS.get(i % 4), p, null, null, null, "c" + i, 100));
+    }
+    sorted.sort(CategoryRules.ORDER);
+    matcher = new CategoryMatcher(sorted);
+  }
+
+  /** Average cost per row (divide by 10000). */
+  @Benchmark
+  public void compiled(Blackhole bh) {
+    for (int i = 0; i < ROWS; i++) bh.consume(matcher.match(merchants[i], 1, cents[i]));
+  }
+
+  /** Each rule tested in precedence order until one matches, for comparison. */
+  @Benchmark
+  public void linear(Blackhole bh) {
+    for (int i = 0; i < ROWS; i++) {
+      String m = merchants[i];
+      int hit = -1;
+      for (int k = 0; k < sorted.size() && m != null; k++) {
+        Rule rule = sorted.get(k);
+        String p = rule.pattern();
+        boolean ok = switch (rule.match()) {
+          case "prefix" -> m.startsWith(p);
+          case "exact" -> m.equals(p);
+          case "substring" -> m.contains(p);
+          default -> (" " + m + " ").contains(" " + p + " ");
+        };
+        if (ok) { hit = k; break; }
+      }
+      bh.consume(hit);
+    }
+  }
+
+  @Benchmark
+  public CategoryMatcher compile() {
+    return new CategoryMatcher(sorted);
+  }
+}
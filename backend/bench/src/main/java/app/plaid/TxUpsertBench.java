@@ -0,0 +1,83 @@
+package app.plaid;
+
+import app.bench.TxGen;
+import com.plaid.client.model.Transaction;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/** Per-row CPU cost of ingest: merchant normalization, natural-key hashing, category pick. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TxUpsertBench {
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int rows;
+
+  List<Transaction> txs;
+  String[] merchants;
+  String[] keys;
+
+  @Setup
+  public void setup() {
+    txs = TxGen.transactions(rows, 42);
+    merchants = new String[rows];
+    keys = new String[rows];
+    UUID client = UUID.nameUUIDFromBytes("bench".getBytes());
+    for (int i = 0; i < rows; i++) {
+      Transaction t = txs.get(i);
+      merchants[i] = t.getMerchantName() != null ? t.getMerchantName() : t.getName();
+      keys[i] = client + "|" + (i % 3) + "|" + TxUpsertService.toCents(t.getAmount()) + "|" + t.getDate() + "|" + merchants[i];
+    }
+  }
+
+  /** Average cost per row (divide by rows via the @Param). */
+  @Benchmark
+  public void norm(Blackhole bh) {
+    for (String m : merchants) bh.consume(TxUpsertService.norm(m));
+  }
+
+  @Benchmark
+  public void md5(Blackhole bh) {
+    for (String k : keys) bh.consume(TxUpsertService.md5(k));
+  }
+
+  /** Pre-optimization norm (two uncompiled replaceAll regexes), for comparison. */
+  @Benchmark
+  public void normLegacy(Blackhole bh) {
+    for (String m : merchants) {
+      bh.consume(m == null ? null : m.toLowerCase().replaceAll("[^a-z0-9 ]", " ").replaceAll("\\s+", " ").trim());
+    }
+  }
+
+  /** Pre-optimization md5 (new MessageDigest + String.format per byte), for comparison. */
+  @Benchmark
+  public void md5Legacy(Blackhole bh) throws Exception {
+    for (String k : keys) {
+      var md = java.security.MessageDigest.getInstance("MD5");
+      byte[] dig = md.digest(k.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+      StringBuilder sb = new StringBuilder(dig.length * 2);
+      for (byte b : dig) sb.append(String.format("%02x", b));
+      bh.consume(sb.toString());
+    }
+  }
+
+  @Benchmark
+  public void pickCategory(Blackhole bh) {
+    for (Transaction t : txs) bh.consume(TxUpsertService.pickCategory(t));
+  }
+
+  /** Everything toRow() does for a row except the DB round trip. */
+  @Benchmark
+  public void toRow(Blackhole bh) {
+    TxUpsertService.Link link = new TxUpsertService.Link(UUID.nameUUIDFromBytes("bench".getBytes()), 1L, "item");
+    for (Transaction t : txs) bh.consume(TxUpsertService.toRow(t, link));
+  }
+}
@@ -0,0 +1,76 @@
+-- Minimal stand-in for the production schema: only the tables/columns the handlers touch.
+-- Applied by EndToEndBench/FleetRefreshLocal before backend/db/*.sql. DESTRUCTIVE: drops and recreates everything.
+DROP VIEW  IF EXISTS v_transactions;
+DROP TABLE IF EXISTS anomaly_clients, anomaly_flags, anomaly_merchants, anomaly_baseline, recurring_clients, recurring_series, recategorize_queue, category_rules, refresh_run_items, refresh_runs, webhook_events, spend_rollup, item_sync_state, transactions, account_links,
+                     accounts, items, budget, client CASCADE;
+
+CREATE TABLE client (
+  client_id uuid PRIMARY KEY
+);
+
+CREATE TABLE budget (
+  client_id     uuid          NOT NULL REFERENCES client (client_id),
+  category      text          NOT NULL,
+  monthly_limit numeric(12,2) NOT NULL,
+  PRIMARY KEY (client_id, category)
+);
+
+CREATE TABLE items (
+  client_id      uuid        NOT NULL REFERENCES client (client_id),
+  item_id        text        NOT NULL,
+  institution_id text,
+  last_linked_at timestamptz NOT NULL DEFAULT NOW(),
+  is_active      boolean     NOT NULL DEFAULT TRUE,
+  PRIMARY KEY (client_id, item_id)
+);
+
+CREATE TABLE accounts (
+  id                       bigserial PRIMARY KEY,
+  client_id                uuid      NOT NULL REFERENCES client (client_id),
+  institution_id           text,
+  current_item_id          text,
+  current_plaid_account_id text,
+  name                     text,
+  mask                     text,
+  subtype                  text,
+  last_seen                timestamptz DEFAULT NOW(),
+  is_active                boolean     DEFAULT TRUE
+);
+
+CREATE TABLE account_links (
+  client_id        uuid   NOT NULL,
+  item_id          text   NOT NULL,
+  plaid_account_id text   NOT NULL,
+  account_id       bigint NOT NULL REFERENCES accounts (id),
+  last_seen        timestamptz DEFAULT NOW(),
+  PRIMARY KEY (client_id, item_id, plaid_account_id),
+  FOREIGN KEY (client_id, item_id) REFERENCES items (client_id, item_id) ON UPDATE CASCADE ON DELETE CASCADE
+);
+CREATE INDEX account_links_plaid_idx ON account_links (plaid_account_id, last_seen DESC);
+
+CREATE TABLE transactions (
+  id               bigserial PRIMARY KEY,
+  client_id        uuid      NOT NULL REFERENCES client (client_id),
+  account_id       bigint    REFERENCES accounts (id),
+  source_item_id   text,
+  plaid_tx_id      text,
+  amount_cents     int       NOT NULL,
+  auth_date        date,
+  post_date        date,
+  status           text,
+  merchant_norm    text,
+  merchant_raw     text,
+  natural_key_hash text      NOT NULL,
+  category         text      NOT NULL,
+  created_at       timestamptz NOT NULL DEFAULT NOW(),
+  updated_at       timestamptz NOT NULL DEFAULT NOW(),
+  UNIQUE (client_id, plaid_tx_id)
+);
+CREATE INDEX transactions_page_idx ON transactions (client_id, post_date DESC, id DESC);
+
+CREATE VIEW v_transactions AS
+SELECT t.id, t.client_id, t.account_id, a.name AS account_name,
+       COALESCE(t.merchant_raw, t.merchant_norm) AS merchant,
+       t.category, t.amount_cents, t.post_date, t.status
+  FROM transactions t
+  LEFT JOIN accounts a ON a.id = t.account_id;
@@ -1,8 +1,14 @@
 #!/usr/bin/env bash
+# ./build.sh [mvn args, e.g. -Pslim]; CDS=1 also ships build/app.jsa from ./footprint.sh
 set -euo pipefail
-mvn -q -e -DskipTests package
+mvn -q -e -DskipTests "$@" package
 mkdir -p build
 cp target/spending-insights-backend-0.1.0-shaded.jar build/app.jar
 cd build
-zip -r lambda.zip app.jar >/dev/null
+rm -f lambda.zip
+if [[ -n "${CDS:-}" ]]; then
+  zip -r lambda.zip app.jar app.jsa >/dev/null
+else
+  zip -r lambda.zip app.jar >/dev/null
+fi
 echo "Built build/lambda.zip"
@@ -0,0 +1,10 @@
+-- Per-item /transactions/sync cursor. Written in the same transaction as each applied page.
+CREATE TABLE IF NOT EXISTS item_sync_state (
+  client_id      uuid        NOT NULL,
+  item_id        text        NOT NULL,
+  cursor         text,
+  last_synced_at timestamptz,
+  PRIMARY KEY (client_id, item_id),
+  FOREIGN KEY (client_id, item_id) REFERENCES items (client_id, item_id)
+    ON UPDATE CASCADE ON DELETE CASCADE
+);
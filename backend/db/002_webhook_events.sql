@@ -0,0 +1,20 @@
+-- Durable queue for Plaid webhooks. PlaidWebhookHandler only INSERTs; WebhookDrainWorker drains.
+CREATE TABLE IF NOT EXISTS webhook_events (
+  id           bigserial   PRIMARY KEY,
+  item_id      text        NOT NULL,
+  webhook_type text        NOT NULL,
+  webhook_code text,
+  payload      jsonb       NOT NULL,
+  status       text        NOT NULL DEFAULT 'pending',  -- pending | processing | done | failed
+  attempts     int         NOT NULL DEFAULT 0,
+  available_at timestamptz NOT NULL DEFAULT NOW(),      -- retry backoff for pending rows
+  locked_until timestamptz,                              -- lease for processing rows
+  received_at  timestamptz NOT NULL DEFAULT NOW(),
+  processed_at timestamptz,
+  last_error   text
+);
+
+CREATE INDEX IF NOT EXISTS webhook_events_ready_idx
+  ON webhook_events (available_at, id) WHERE status IN ('pending', 'processing');
+CREATE INDEX IF NOT EXISTS webhook_events_item_idx
+  ON webhook_events (item_id) WHERE status = 'processing';
@@ -0,0 +1,21 @@
+-- Posted spend per (client, category, calendar month), maintained by TxUpsertService.
+-- GET /v1/budgets reads the current month from here instead of summing transactions.
+CREATE TABLE IF NOT EXISTS spend_rollup (
+  client_id   uuid   NOT NULL,
+  category    text   NOT NULL,
+  month       date   NOT NULL,              -- first day of the month
+  spend_cents bigint NOT NULL DEFAULT 0,    -- net of refunds
+  tx_count    int    NOT NULL DEFAULT 0,
+  PRIMARY KEY (client_id, category, month)
+);
+
+-- Initial fill (same as: java -cp app.jar app.budget.SpendRollup rebuild)
+INSERT INTO spend_rollup (client_id, category, month, spend_cents, tx_count)
+SELECT client_id, category, date_trunc('month', post_date)::date, SUM(amount_cents), COUNT(*)
+  FROM transactions
+ WHERE post_date IS NOT NULL
+   AND lower(COALESCE(status, '')) <> 'pending'
+ GROUP BY 1, 2, 3
+ON CONFLICT (client_id, category, month) DO UPDATE
+  SET spend_cents = EXCLUDED.spend_cents,
+      tx_count    = EXCLUDED.tx_count;
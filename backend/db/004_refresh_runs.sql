@@ -0,0 +1,29 @@
+-- Fleet-wide background refresh (FleetRefreshJob). A run snapshots the Items due for a refresh,
+-- highest priority first; each invocation claims a slice, so a run that outlives one Lambda
+-- timeout resumes where it stopped.
+CREATE TABLE IF NOT EXISTS refresh_runs (
+  id          bigserial   PRIMARY KEY,
+  status      text        NOT NULL DEFAULT 'running',   -- running | done
+  started_at  timestamptz NOT NULL DEFAULT NOW(),
+  finished_at timestamptz,
+  items_total int         NOT NULL DEFAULT 0,
+  invocations int         NOT NULL DEFAULT 0
+);
+
+CREATE TABLE IF NOT EXISTS refresh_run_items (
+  run_id       bigint      NOT NULL REFERENCES refresh_runs (id) ON DELETE CASCADE,
+  client_id    uuid        NOT NULL,
+  item_id      text        NOT NULL,
+  priority     double precision NOT NULL,            -- staleness (hours, capped) x activity weight
+  status       text        NOT NULL DEFAULT 'pending', -- pending | running | done | skipped | failed
+  attempts     int         NOT NULL DEFAULT 0,
+  locked_until timestamptz,                          -- lease for running rows
+  finished_at  timestamptz,
+  elapsed_ms   int,
+  upserted     int,
+  last_error   text,
+  PRIMARY KEY (run_id, client_id, item_id)
+);
+
+CREATE INDEX IF NOT EXISTS refresh_run_items_ready_idx
+  ON refresh_run_items (run_id, priority DESC) WHERE status IN ('pending', 'running');
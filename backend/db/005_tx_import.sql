@@ -0,0 +1,2 @@
+-- CSV import dedupes on (client_id, natural_key_hash); without this every batch scans the client's history.
+CREATE INDEX IF NOT EXISTS transactions_nkh_idx ON transactions (client_id, natural_key_hash);
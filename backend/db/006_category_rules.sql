@@ -0,0 +1,33 @@
+-- Category overrides (app.categories.CategoryRules). client_id NULL = global rule. pattern is
+-- normalized like merchant_norm; '' matches any merchant (then account_id or an amount bound is set).
+CREATE TABLE IF NOT EXISTS category_rules (
+  id          bigserial   PRIMARY KEY,
+  client_id   uuid        REFERENCES client (client_id) ON DELETE CASCADE,
+  match_kind  text        NOT NULL DEFAULT 'word'
+                          CHECK (match_kind IN ('word', 'prefix', 'exact', 'substring')),
+  pattern     text        NOT NULL DEFAULT '',
+  account_id  bigint      REFERENCES accounts (id) ON DELETE CASCADE,
+  min_cents   int,                                   -- inclusive, Plaid sign (positive = money out)
+  max_cents   int,
+  category    text        NOT NULL,
+  priority    int         NOT NULL DEFAULT 100,      -- lower wins
+  created_at  timestamptz NOT NULL DEFAULT NOW()
+);
+CREATE INDEX IF NOT EXISTS category_rules_client_idx ON category_rules (client_id);
+
+-- The category a row arrived with (Plaid's primary category, or the CSV's); rules map it to category.
+ALTER TABLE transactions ADD COLUMN IF NOT EXISTS category_raw text;
+UPDATE transactions SET category_raw = category WHERE category_raw IS NULL;
+
+-- Clients whose history needs the current rules reapplied (RecategorizeJob). A rule change bumps
+-- generation and rewinds cursor_id; a pass checkpoints cursor_id per batch and deletes the row when done.
+CREATE TABLE IF NOT EXISTS recategorize_queue (
+  client_id    uuid        PRIMARY KEY,
+  generation   bigint      NOT NULL DEFAULT 1,
+  requested_at timestamptz NOT NULL DEFAULT NOW(),
+  cursor_id    bigint      NOT NULL DEFAULT 0,       -- transactions.id done up to (keyset)
+  locked_until timestamptz,                          -- lease held by a running pass
+  rows_scanned bigint      NOT NULL DEFAULT 0,
+  rows_changed bigint      NOT NULL DEFAULT 0
+);
+CREATE INDEX IF NOT EXISTS recategorize_queue_ready_idx ON recategorize_queue (requested_at);
@@ -0,0 +1,25 @@
+-- Recurring charges / subscriptions (app.recurring.RecurringDetector), maintained on ingest.
+-- One row per run of similar charges at one merchant; recent_days is the cadence window.
+CREATE TABLE IF NOT EXISTS recurring_series (
+  id            bigserial   PRIMARY KEY,
+  client_id     uuid        NOT NULL,
+  merchant_norm text        NOT NULL,
+  category      text,
+  amount_cents  int         NOT NULL,               -- latest charge
+  avg_cents     int         NOT NULL,               -- EWMA of charges
+  occurrences   int         NOT NULL,
+  first_seen    date        NOT NULL,
+  last_seen     date        NOT NULL,
+  recent_days   int[]       NOT NULL,               -- last few charge dates (epoch days), ascending
+  cadence       text,                               -- weekly | biweekly | monthly | quarterly | annual; NULL = none
+  confidence    real        NOT NULL DEFAULT 0,     -- share of gaps in the window that fit the cadence
+  next_expected date,
+  updated_at    timestamptz NOT NULL DEFAULT NOW()
+);
+CREATE INDEX IF NOT EXISTS recurring_series_merchant_idx ON recurring_series (client_id, merchant_norm);
+
+-- Clients whose series were built from full history; the first read builds the rest.
+CREATE TABLE IF NOT EXISTS recurring_clients (
+  client_id uuid        PRIMARY KEY,
+  built_at  timestamptz NOT NULL
+);
@@ -0,0 +1,40 @@
+-- Spend anomalies (app.anomaly.AnomalyDetector), scored on ingest against streaming state.
+-- Per-charge and per-week EWMA stats per (client, category); category '*' = all of the client's spend.
+CREATE TABLE IF NOT EXISTS anomaly_baseline (
+  client_id    uuid             NOT NULL,
+  category     text             NOT NULL,
+  n            int              NOT NULL,          -- charges observed
+  mean         double precision NOT NULL,          -- EWMA of charge amounts (cents)
+  var          double precision NOT NULL,
+  week         int              NOT NULL,          -- Monday-based week index of week_cents
+  week_cents   bigint           NOT NULL,          -- spend so far in that week
+  weeks        int              NOT NULL,          -- completed weeks folded into week_mean/week_var
+  week_mean    double precision NOT NULL,
+  week_var     double precision NOT NULL,
+  flagged_week int              NOT NULL,          -- last week a category_spike was raised
+  updated_at   timestamptz      NOT NULL DEFAULT NOW(),
+  PRIMARY KEY (client_id, category)
+);
+
+-- Fixed-size Bloom filter of merchants each client has paid (MerchantSketch).
+CREATE TABLE IF NOT EXISTS anomaly_merchants (
+  client_id  uuid        PRIMARY KEY,
+  bits       bytea       NOT NULL,
+  merchants  int         NOT NULL,
+  updated_at timestamptz NOT NULL DEFAULT NOW()
+);
+
+CREATE TABLE IF NOT EXISTS anomaly_flags (
+  id            bigserial   PRIMARY KEY,
+  client_id     uuid        NOT NULL,
+  kind          text        NOT NULL,              -- large_charge | new_merchant | category_spike
+  plaid_tx_id   text,                              -- NULL for CSV imports
+  post_date     date        NOT NULL,
+  merchant_norm text,
+  category      text,
+  amount_cents  int         NOT NULL,
+  score         real        NOT NULL,              -- deviations above the baseline
+  detail        text        NOT NULL,
+  created_at    timestamptz NOT NULL DEFAULT NOW()
+);
+CREATE INDEX IF NOT EXISTS anomaly_flags_client_idx ON anomaly_flags (client_id, created_at DESC);
@@ -0,0 +1,6 @@
+-- Clients whose anomaly state (app.anomaly.AnomalyDetector) was trained on their history; the first
+-- ingest chunk or read trains the rest. State rows written before this table existed are retrained.
+CREATE TABLE IF NOT EXISTS anomaly_clients (
+  client_id uuid        PRIMARY KEY,
+  built_at  timestamptz NOT NULL
+);
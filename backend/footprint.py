@@ -0,0 +1,96 @@
+#!/usr/bin/env python3
+"""Per-dependency footprint of the shaded jar.
+
+./footprint.py <classpath.txt> <shaded.jar> <classload.log> [out.json]
+
+classpath.txt  output of dependency:build-classpath (path-separated dependency jars)
+classload.log  -Xlog:class+load output of a training run against the shaded jar
+
+For each dependency: bytes it contributes to the shaded jar (compressed), classes shipped, and
+classes the training run actually loaded. Classes from no dependency jar are attributed to "app"
+(our own sources) or "other".
+"""
+import json
+import os
+import re
+import sys
+import zipfile
+
+LOADED = re.compile(r"\[class,load\s*\]\s+(\S+)\s+source:\s+(.*)$")
+
+
+def artifact(jar_path):
+    # ~/.m2/repository/<group path>/<artifact>/<version>/<artifact>-<version>.jar
+    parts = jar_path.split(os.sep)
+    if "repository" in parts and len(parts) >= 4:
+        i = parts.index("repository")
+        group = ".".join(parts[i + 1:-3])
+        return f"{group}:{parts[-3]}:{parts[-2]}"
+    return os.path.basename(jar_path)
+
+
+def owners(classpath_file):
+    owner = {}
+    for jar in open(classpath_file).read().strip().split(os.pathsep):
+        if not jar.endswith(".jar") or not os.path.exists(jar):
+            continue
+        name = artifact(jar)
+        with zipfile.ZipFile(jar) as z:
+            for e in z.namelist():
+                if e.endswith(".class"):
+                    owner.setdefault(e, name)
+    return owner
+
+
+def loaded_classes(log_file):
+    jdk, ours = 0, set()
+    for line in open(log_file, errors="replace"):
+        m = LOADED.search(line)
+        if not m:
+            continue
+        cls, source = m.group(1), m.group(2)
+        if source.startswith("jrt:") or "shared objects file" in source and "top" not in source:
+            # JDK classes; app classes served from a dynamic CDS archive are logged as
+            # "shared objects file (top)"
+            jdk += 1
+        else:
+            ours.add(cls.replace(".", "/") + ".class")
+    return jdk, ours
+
+
+def main():
+    cp, jar, log = sys.argv[1:4]
+    out_json = sys.argv[4] if len(sys.argv) > 4 else None
+    owner = owners(cp)
+    jdk_loaded, loaded = loaded_classes(log)
+
+    rows = {}
+    with zipfile.ZipFile(jar) as z:
+        for info in z.infolist():
+            if info.is_dir():
+                continue
+            name = info.filename
+            dep = owner.get(name) or ("app" if name.startswith("app/") else "other (resources, relocated)")
+            r = rows.setdefault(dep, {"bytes": 0, "classes": 0, "loaded": 0})
+            r["bytes"] += info.compress_size
+            if name.endswith(".class"):
+                r["classes"] += 1
+                if name in loaded:
+                    r["loaded"] += 1
+
+    total = {k: sum(r[k] for r in rows.values()) for k in ("bytes", "classes", "loaded")}
+    print(f"{'dependency':<60} {'KiB':>8} {'classes':>8} {'loaded':>7} {'%':>5}")
+    for dep, r in sorted(rows.items(), key=lambda kv: -kv[1]["bytes"]):
+        pct = 100.0 * r["loaded"] / r["classes"] if r["classes"] else 0.0
+        print(f"{dep:<60} {r['bytes'] / 1024:>8.0f} {r['classes']:>8} {r['loaded']:>7} {pct:>5.1f}")
+    print(f"{'TOTAL':<60} {total['bytes'] / 1024:>8.0f} {total['classes']:>8} {total['loaded']:>7}")
+    print(f"jar size: {os.path.getsize(jar) / 1024:.0f} KiB, JDK classes loaded: {jdk_loaded}")
+
+    if out_json:
+        with open(out_json, "w") as f:
+            json.dump({"jar_bytes": os.path.getsize(jar), "jdk_classes_loaded": jdk_loaded,
+                       "total": total, "dependencies": rows}, f, indent=2, sort_keys=True)
+
+
+if __name__ == "__main__":
+    main()
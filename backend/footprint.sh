@@ -0,0 +1,44 @@
+#!/usr/bin/env bash
+# Startup footprint of the Lambda jar: per-dependency size, classes a training run loads, and an
+# AppCDS archive from that run.
+#   ./footprint.sh               # default shaded jar
+#   ./footprint.sh -Pslim        # minimized jar (see the slim profile in pom.xml)
+# Writes build/app.jsa, build/classload.log, build/footprint.txt and build/footprint.json.
+#
+# A CDS archive only maps into the exact JVM build that wrote it, so for Lambda run the training
+# inside the runtime image and ship the archive with ./build.sh (CDS=1):
+#   CDS_IMAGE=public.ecr.aws/lambda/java:17 ./footprint.sh -Pslim
+# then set JAVA_TOOL_OPTIONS="-XX:SharedArchiveFile=/var/task/app.jsa -Xshare:auto" on the function.
+# The JVM also checks the classpath matches the training run; on any mismatch -Xshare:auto just
+# starts without the archive, so a stale one costs nothing but the win.
+set -euo pipefail
+cd "$(dirname "$0")"
+mvn -q -e -DskipTests "$@" package dependency:build-classpath \
+  -Dmdep.outputFile=target/classpath.txt -Dmdep.includeScope=runtime
+mkdir -p build
+JAR=target/spending-insights-backend-0.1.0-shaded.jar
+cp "$JAR" build/app.jar
+
+# Training run: priming plus every route that answers without a DB or Plaid round trip.
+TRAIN=(/health /v1/budgets /v1/transactions "DELETE:/v1/budgets"
+       "POST:/api/plaid/link-token/create" "POST:/api/plaid/transactions/sync"
+       "POST:/api/plaid/item/public_token/exchange" "POST:/webhooks/plaid" /nope)
+
+run_java() {
+  if [[ -n "${CDS_IMAGE:-}" ]]; then
+    docker run --rm -v "$PWD/build":/var/task -w /var/task --entrypoint java "$CDS_IMAGE" "$@"
+  else
+    (cd build && java "$@")
+  fi
+}
+
+rm -f build/app.jsa
+run_java -XX:ArchiveClassesAtExit=app.jsa -Xlog:class+load=info:file=classload.log \
+  -cp app.jar app.Startup "${TRAIN[@]}"
+
+echo "--- first request without / with the archive"
+run_java -Xshare:auto -cp app.jar app.Startup /health
+run_java -XX:SharedArchiveFile=app.jsa -Xshare:auto -cp app.jar app.Startup /health
+
+./footprint.py target/classpath.txt build/app.jar build/classload.log build/footprint.json | tee build/footprint.txt
+ls -l build/app.jsa | awk '{printf "CDS archive: %d KiB\n", $5/1024}'
@@ -5,32 +5,62 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import app.plaid.CreateLinkTokenHandler;
 import app.plaid.ExchangePublicTokenHandler;
 import app.plaid.PlaidWebhookHandler;
 import app.plaid.SyncTransactionsHandler;
+import app.plaid.TxImportService;
+
+import app.common.ConnectionPool;
+import app.common.Db;
+import app.common.Json;
+import app.common.Metrics;
+import app.common.Responses;
+import app.categories.CategoryRules;
+import app.categories.RecategorizeJob;
+import app.export.TxExport;
+import app.anomaly.AnomalyDetector;
+import app.recurring.RecurringDetector;
+import app.insights.InsightsEngine;
 
-import org.postgresql.ds.PGSimpleDataSource;
-
-import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.time.LocalDate;
 import java.util.*;
 
 public class ApiHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIGatewayV2HTTPResponse> {
-  private static final ObjectMapper M = new ObjectMapper();
-  private static final DataSource DS = initDS();
-  private static final String ALLOWED_ORIGINS = Optional.ofNullable(System.getenv("ALLOWED_ORIGINS")).orElse("*");
-
-  private static DataSource initDS() {
-    PGSimpleDataSource ds = new PGSimpleDataSource();
-    ds.setURL(System.getenv("jdbc_url")); // jdbc:postgresql://.../db?sslmode=require
-    ds.setUser(System.getenv("db_user"));
-    ds.setPassword(System.getenv("db_pass"));
-    return ds;
+
+  // Sub-handlers are stateless; one instance each for the life of the container.
+  private static final CreateLinkTokenHandler LINK_TOKEN = new CreateLinkTokenHandler();
+  private static final ExchangePublicTokenHandler EXCHANGE = new ExchangePublicTokenHandler();
+  private static final SyncTransactionsHandler SYNC = new SyncTransactionsHandler();
+  private static final PlaidWebhookHandler WEBHOOK = new PlaidWebhookHandler();
+  private static final ListTransactionsHandler LIST_TRANSACTIONS = new ListTransactionsHandler();
+
+  private static final Router ROUTES = new Router()
+      .get("/health", ApiHandler::health)
+      .get("/v1/budgets", ApiHandler::getBudgets)
+      .post("/v1/budgets", ApiHandler::upsertBudgets)
+      .delete("/v1/budgets", ApiHandler::deleteBudget)
+      .get("/v1/transactions", ApiHandler::listTransactions)
+      .post("/v1/transactions/import", ApiHandler::importTransactions)
+      .post("/v1/transactions/export", ApiHandler::exportTransactions)
+      .get("/v1/insights", ApiHandler::getInsights)
+      .get("/v1/recurring", ApiHandler::getRecurring)
+      .get("/v1/anomalies", ApiHandler::getAnomalies)
+      .get("/v1/category-rules", ApiHandler::listCategoryRules)
+      .post("/v1/category-rules", ApiHandler::addCategoryRule)
+      .delete("/v1/category-rules/{ruleId}", ApiHandler::deleteCategoryRule)
+      .post("/api/plaid/link-token/create", c -> adapt(LINK_TOKEN.handleRequest(Map.of("body", c.body()), c.ctx())))
+      .post("/api/plaid/item/public_token/exchange", c -> logged(c, adapt(EXCHANGE.handleRequest(Map.of("body", c.body()), c.ctx()))))
+      .post("/api/plaid/transactions/sync", c -> logged(c, adapt(SYNC.handleRequest(Map.of("body", c.body()), c.ctx()))))
+      .post("/webhooks/plaid", c -> logged(c, adapt(WEBHOOK.handleRequest(Map.of("body", c.body()), c.ctx()))));
+
+  // Last static initializer: everything above must exist before priming dispatches through it.
+  static {
+    Startup.init();
   }
 
   @Override
@@ -54,181 +84,304 @@ public class ApiHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIGate
         return cors(200, "{}");
       }
 
-      // Health
-      if ("GET".equalsIgnoreCase(method) && "/health".equals(path)) {
-        Map<String, Object> out = new HashMap<>();
-        out.put("status", "ok");
-        out.put("time", new Date().toString());
-        return corsJson(200, out);
-      }
+      Router.Match m = ROUTES.match(method, path);
+      if (m == null) return corsError(404, "not found");
+      return m.route().invoke(new Router.Call(req, ctx, path, m.pathParams()));
+    } catch (Exception e) {
+      return corsError(500, e.getMessage());
+    }
+  }
 
-      if (method.equalsIgnoreCase("GET") && "/v1/budgets".equals(path)) {
-        Map<String, String> q = req.getQueryStringParameters() == null ? Map.of() : req.getQueryStringParameters();
-        String clientId = q.get("client_id");
-        if (clientId == null || clientId.isBlank()) {
-          return corsJson(400, Map.of("error", "client_id required"));
-        }
-        List<Map<String, Object>> rows = new ArrayList<>();
-
-        // MTD spend per category (posted only). Assumes expenses are stored as positive cents.
-        // If your expenses are negative, change the CASE to "WHEN t.amount_cents < 0 THEN -t.amount_cents ELSE 0".
-        String sql =
-          "WITH bounds AS (\n" +
-          "  SELECT date_trunc('month', CURRENT_DATE)::date AS start_date,\n" +
-          "         CURRENT_DATE::date AS end_date\n" +
-          ")\n" +
-          "SELECT b.category,\n" +
-          "       b.monthly_limit,\n" +
-          "       (GREATEST(COALESCE(SUM(t.amount_cents), 0), 0) / 100.0) AS current_spend\n" +  // net of refunds, floored at 0
-          "FROM budget b\n" +
-          "LEFT JOIN transactions t\n" +
-          "  ON t.client_id = b.client_id\n" +
-          " AND t.category  = b.category\n" +
-          " AND t.post_date BETWEEN (SELECT start_date FROM bounds) AND (SELECT end_date FROM bounds)\n" +
-          " AND COALESCE(t.status,'') <> 'PENDING'\n" +
-          "WHERE b.client_id = ?::uuid\n" +
-          "GROUP BY b.category, b.monthly_limit\n" +
-          "ORDER BY b.category";
-
-        try (Connection conn = DS.getConnection();
-            PreparedStatement ps = conn.prepareStatement(sql)) {
-          ps.setObject(1, java.util.UUID.fromString(clientId));
-          try (ResultSet rs = ps.executeQuery()) {
-            while (rs.next()) {
-              rows.add(Map.of(
-                "category",      rs.getString("category"),
-                "monthly_limit", rs.getBigDecimal("monthly_limit"), // dollars
-                "current_spend", rs.getBigDecimal("current_spend")  // dollars (MTD)
-              ));
-            }
-          }
-        } catch (Exception e) {
-          return corsJson(500, Map.of("error", e.getMessage()));
-        }
+  // ---------- routes ----------
 
-        return corsJson(200, rows);
-      }
+  private static APIGatewayV2HTTPResponse health(Router.Call c) {
+    Map<String, Object> out = new HashMap<>();
+    out.put("status", "ok");
+    out.put("time", new Date().toString());
+    out.put("db_pool", ConnectionPool.stats());
+    out.put("metrics", Metrics.snapshot());
+    return corsJson(200, out);
+  }
 
-      if (method.equalsIgnoreCase("POST") && "/v1/budgets".equals(path)) {
-        Models.BudgetUpsert payload = M.readValue(req.getBody(), Models.BudgetUpsert.class);
-        if (payload.client_id == null || payload.client_id.isBlank()) {
-          return corsJson(400, Map.of("error", "client_id required"));
-        }
-        UUID cid;
-        try {
-          cid = UUID.fromString(payload.client_id);
-        } catch (Exception ex) {
-          return corsJson(400, Map.of("error", "client_id must be a UUID v4"));
+  private static APIGatewayV2HTTPResponse getBudgets(Router.Call c) {
+    Map<String, String> q = c.query();
+    String clientId = q.get("client_id");
+    if (clientId == null || clientId.isBlank()) {
+      return corsError(400, "client_id required");
+    }
+    List<Map<String, Object>> rows = new ArrayList<>();
+
+    // MTD spend per category (posted only), read from the spend_rollup maintained on ingest.
+    // Assumes expenses are stored as positive cents.
+    String sql =
+      "SELECT b.category,\n" +
+      "       b.monthly_limit,\n" +
+      "       (GREATEST(COALESCE(r.spend_cents, 0), 0) / 100.0) AS current_spend\n" +  // net of refunds, floored at 0
+      "FROM budget b\n" +
+      "LEFT JOIN spend_rollup r\n" +
+      "  ON r.client_id = b.client_id\n" +
+      " AND r.category  = b.category\n" +
+      " AND r.month     = date_trunc('month', CURRENT_DATE)::date\n" +
+      "WHERE b.client_id = ?::uuid\n" +
+      "ORDER BY b.category";
+
+    try (Connection conn = Db.connect();
+        PreparedStatement ps = conn.prepareStatement(sql)) {
+      ps.setObject(1, java.util.UUID.fromString(clientId));
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          rows.add(Map.of(
+            "category",      rs.getString("category"),
+            "monthly_limit", rs.getBigDecimal("monthly_limit"), // dollars
+            "current_spend", rs.getBigDecimal("current_spend")  // dollars (MTD)
+          ));
         }
+      }
+    } catch (Exception e) {
+      return corsError(500, e.getMessage());
+    }
 
-        try (Connection conn = DS.getConnection()) {
-          conn.setAutoCommit(false);
-
-          // 1) ensure client row exists
-          try (PreparedStatement psClient = conn.prepareStatement(
-            "insert into client(client_id) values (?) on conflict (client_id) do nothing")) {
-            psClient.setObject(1, cid);
-            psClient.executeUpdate();
-          }
-
-          // 2) upsert budgets
-          try (PreparedStatement ps = conn.prepareStatement(
-            "insert into budget(client_id, category, monthly_limit) values (?, ?, ?) " +
-            "on conflict (client_id, category) do update set monthly_limit = excluded.monthly_limit")) {
-            for (Models.BudgetUpsert.Item it : payload.items) {
-              ps.setObject(1, cid);
-              ps.setString(2, it.category);
-              ps.setBigDecimal(3, it.monthly_limit);
-              ps.addBatch();
-            }
-            ps.executeBatch();
-          }
-
-          conn.commit();
-        }
-        return corsJson(200, Map.of("status", "ok"));
+    return corsJson(200, rows);
+  }
+
+  private static APIGatewayV2HTTPResponse upsertBudgets(Router.Call c) throws Exception {
+    Models.BudgetUpsert payload = Json.read(c.body(), Models.BudgetUpsert.class);
+    if (payload.client_id == null || payload.client_id.isBlank()) {
+      return corsError(400, "client_id required");
+    }
+    UUID cid;
+    try {
+      cid = UUID.fromString(payload.client_id);
+    } catch (Exception ex) {
+      return corsError(400, "client_id must be a UUID v4");
+    }
 
+    try (Connection conn = Db.connect()) {
+      conn.setAutoCommit(false);
+
+      // 1) ensure client row exists
+      try (PreparedStatement psClient = conn.prepareStatement(
+        "insert into client(client_id) values (?) on conflict (client_id) do nothing")) {
+        psClient.setObject(1, cid);
+        psClient.executeUpdate();
       }
 
-      // DELETE /v1/budgets?client_id=...&category=...
-      if ("DELETE".equalsIgnoreCase(method) && "/v1/budgets".equals(path)) {
-        Map<String,String> q = req.getQueryStringParameters()==null ? Map.of() : req.getQueryStringParameters();
-        String clientId = q.get("client_id"), category = q.get("category");
-        if (clientId==null || clientId.isBlank()) return corsJson(400, Map.of("error","client_id required"));
-        if (category==null || category.isBlank()) return corsJson(400, Map.of("error","category required"));
-
-        int deleted = 0;
-        try (Connection conn = DS.getConnection();
-            PreparedStatement ps = conn.prepareStatement(
-              "DELETE FROM budget WHERE client_id = ?::uuid AND category = ?")) {
-          ps.setObject(1, java.util.UUID.fromString(clientId));
-          ps.setString(2, category);
-          deleted = ps.executeUpdate();
-        } catch (Exception e) {
-          return corsJson(500, Map.of("error", e.getMessage()));
+      // 2) upsert budgets
+      try (PreparedStatement ps = conn.prepareStatement(
+        "insert into budget(client_id, category, monthly_limit) values (?, ?, ?) " +
+        "on conflict (client_id, category) do update set monthly_limit = excluded.monthly_limit")) {
+        for (Models.BudgetUpsert.Item it : payload.items) {
+          ps.setObject(1, cid);
+          ps.setString(2, it.category);
+          ps.setBigDecimal(3, it.monthly_limit);
+          ps.addBatch();
         }
-        return corsJson(200, Map.of("status","ok","deleted",deleted));
+        ps.executeBatch();
       }
 
-      // POST /api/plaid/link-token/create
-      if ("POST".equalsIgnoreCase(method) && "/api/plaid/link-token/create".equals(path)) {
-        Map<String,Object> in = Map.of("body", req.getBody() == null ? "{}" : req.getBody());
-        APIGatewayProxyResponseEvent r = new CreateLinkTokenHandler().handleRequest(in, ctx);
-        APIGatewayV2HTTPResponse resp = adapt(r);
-        return resp;
-      }
+      conn.commit();
+    }
+    return corsJson(200, Map.of("status", "ok"));
+  }
 
-      // POST /api/plaid/item/public_token/exchange
-      if ("POST".equalsIgnoreCase(method) && "/api/plaid/item/public_token/exchange".equals(path)) {
-        Map<String,Object> in = Map.of("body", req.getBody() == null ? "{}" : req.getBody());
-        APIGatewayProxyResponseEvent r = new ExchangePublicTokenHandler().handleRequest(in, ctx);
-        APIGatewayV2HTTPResponse resp = adapt(r);
-        ctx.getLogger().log("[DBG] /api/plaid/item/public_token/exchange resp headers: " + resp.getHeaders() + "\n");
-        return resp;
-      }
+  // DELETE /v1/budgets?client_id=...&category=...
+  private static APIGatewayV2HTTPResponse deleteBudget(Router.Call c) {
+    Map<String,String> q = c.query();
+    String clientId = q.get("client_id"), category = q.get("category");
+    if (clientId==null || clientId.isBlank()) return corsError(400, "client_id required");
+    if (category==null || category.isBlank()) return corsError(400, "category required");
+
+    int deleted = 0;
+    try (Connection conn = Db.connect();
+        PreparedStatement ps = conn.prepareStatement(
+          "DELETE FROM budget WHERE client_id = ?::uuid AND category = ?")) {
+      ps.setObject(1, java.util.UUID.fromString(clientId));
+      ps.setString(2, category);
+      deleted = ps.executeUpdate();
+    } catch (Exception e) {
+      return corsError(500, e.getMessage());
+    }
+    return corsJson(200, Map.of("status","ok","deleted",deleted));
+  }
 
-      // POST /api/plaid/transactions/sync
-      if ("POST".equalsIgnoreCase(method) && "/api/plaid/transactions/sync".equals(path)) {
-        Map<String,Object> in = Map.of("body", req.getBody() == null ? "{}" : req.getBody());
-        APIGatewayProxyResponseEvent r = new SyncTransactionsHandler().handleRequest(in, ctx);
-        APIGatewayV2HTTPResponse resp = adapt(r);
-        ctx.getLogger().log("[DBG] /api/plaid/transactions/sync resp headers: " + resp.getHeaders() + "\n");
-        return resp;
-      }
+  private static APIGatewayV2HTTPResponse listTransactions(Router.Call c) {
+    Map<String, String> q = c.query();
+    String clientId = q.get("client_id");
+    if (clientId == null || clientId.isBlank()) {
+      return corsError(400, "client_id required");
+    }
+    // Forward query params to the sub-handler (v1-style input)
+    Map<String,Object> forward = new HashMap<>();
+    forward.put("queryStringParameters", q);
 
-      // POST /webhooks/plaid
-      if ("POST".equalsIgnoreCase(method) && "/webhooks/plaid".equals(path)) {
-        Map<String,Object> in = Map.of("body", req.getBody() == null ? "{}" : req.getBody());
-        APIGatewayProxyResponseEvent r = new PlaidWebhookHandler().handleRequest(in, ctx);
-        APIGatewayV2HTTPResponse resp = adapt(r);
-        ctx.getLogger().log("[DBG] /webhooks/plaid resp headers: " + resp.getHeaders() + "\n");
-        return resp;
-      }
+    APIGatewayProxyResponseEvent r = LIST_TRANSACTIONS.handleRequest(forward, c.ctx());
+    return adapt(r);
+  }
 
-      if ("GET".equalsIgnoreCase(method) && "/v1/transactions".equals(path)) {
-        Map<String, String> q = req.getQueryStringParameters() == null ? Map.of() : req.getQueryStringParameters();
-        String clientId = q.get("client_id");
-        if (clientId == null || clientId.isBlank()) {
-          return corsJson(400, Map.of("error", "client_id required"));
-        }
-        // Forward query params to the sub-handler (v1-style input)
-        Map<String,Object> forward = new HashMap<>();
-        forward.put("queryStringParameters", q);
+  // POST /v1/transactions/import?client_id=...[&account_id=...], body = CSV (date,merchant,amount[,category])
+  private static APIGatewayV2HTTPResponse importTransactions(Router.Call c) throws Exception {
+    Map<String, String> q = c.query();
+    String clientId = q.get("client_id");
+    if (clientId == null || clientId.isBlank()) return corsError(400, "client_id required");
+    UUID cid;
+    Long accountId;
+    try {
+      cid = UUID.fromString(clientId);
+      accountId = q.get("account_id") == null ? null : Long.valueOf(q.get("account_id"));
+    } catch (Exception e) {
+      return corsError(400, "bad client_id or account_id");
+    }
+    String body = c.req().getBody();
+    if (body == null || body.isEmpty()) return corsError(400, "csv body required");
 
-        APIGatewayProxyResponseEvent r = new ListTransactionsHandler().handleRequest(forward, ctx);
-        return adapt(r);
-      }
+    try {
+      TxImportService.Report r = TxImportService.importCsv(cid,
+          accountId, TxImportService.reader(body, c.req().getIsBase64Encoded()),
+          c.ctx() == null ? s -> {} : s -> c.ctx().getLogger().log(s + "\n"));
+      return corsJson(200, r);
+    } catch (TxImportService.ImportException e) {
+      return corsError(400, e.getMessage());
+    }
+  }
 
-      return corsJson(404, Map.of("error", "not found"));
+  // POST /v1/transactions/export?client_id=...&format=csv|txc -> handle (path, or s3:// + presigned url)
+  private static APIGatewayV2HTTPResponse exportTransactions(Router.Call c) throws Exception {
+    Map<String, String> q = c.query();
+    String clientId = q.get("client_id");
+    if (clientId == null || clientId.isBlank()) return corsError(400, "client_id required");
+    UUID cid;
+    try {
+      cid = UUID.fromString(clientId);
     } catch (Exception e) {
-      return corsJson(500, Map.of("error", e.getMessage()));
+      return corsError(400, "client_id must be a UUID");
     }
+    TxExport.Format format = TxExport.Format.parse(q.get("format"));
+    if (format == null) return corsError(400, "format must be csv or txc");
+    return corsJson(200, TxExport.export(cid, format));
+  }
+
+  // GET /v1/insights?client_id=...&from=YYYY-MM-DD&to=YYYY-MM-DD&top=20 (default: the last 90 days)
+  private static APIGatewayV2HTTPResponse getInsights(Router.Call c) throws Exception {
+    Map<String, String> q = c.query();
+    String clientId = q.get("client_id");
+    if (clientId == null || clientId.isBlank()) return corsError(400, "client_id required");
+    UUID cid;
+    LocalDate from, to;
+    int top;
+    try {
+      cid = UUID.fromString(clientId);
+      to = q.get("to") == null ? LocalDate.now() : LocalDate.parse(q.get("to"));
+      from = q.get("from") == null ? to.minusDays(89) : LocalDate.parse(q.get("from"));
+      top = Math.min(Math.max(Integer.parseInt(q.getOrDefault("top", "20")), 1), 500);
+    } catch (Exception e) {
+      return corsError(400, "bad client_id, from, to or top");
+    }
+    if (to.isBefore(from)) return corsError(400, "to is before from");
+    if (to.toEpochDay() - from.toEpochDay() >= InsightsEngine.MAX_DAYS) {
+      return corsError(400, "range longer than " + InsightsEngine.MAX_DAYS + " days");
+    }
+    InsightsEngine.Result r = InsightsEngine.query(cid, from, to, top);
+    return cors(200, r.insights().toJson(r.snapshotAgeMs()));
+  }
+
+  // GET /v1/recurring?client_id=...[&all=true] -> detected subscriptions and charges due in the next 30 days
+  private static APIGatewayV2HTTPResponse getRecurring(Router.Call c) throws Exception {
+    Map<String, String> q = c.query();
+    String clientId = q.get("client_id");
+    if (clientId == null || clientId.isBlank()) return corsError(400, "client_id required");
+    UUID cid;
+    try {
+      cid = UUID.fromString(clientId);
+    } catch (Exception e) {
+      return corsError(400, "client_id must be a UUID");
+    }
+    return corsJson(200, RecurringDetector.list(cid, Boolean.parseBoolean(q.get("all"))));
+  }
+
+  // GET /v1/anomalies?client_id=...&days=30&limit=100 -> spend anomalies flagged on ingest, newest first
+  private static APIGatewayV2HTTPResponse getAnomalies(Router.Call c) throws Exception {
+    Map<String, String> q = c.query();
+    String clientId = q.get("client_id");
+    if (clientId == null || clientId.isBlank()) return corsError(400, "client_id required");
+    UUID cid;
+    int days, limit;
+    try {
+      cid = UUID.fromString(clientId);
+      days = Math.min(Math.max(Integer.parseInt(q.getOrDefault("days", "30")), 1), 366);
+      limit = Math.min(Math.max(Integer.parseInt(q.getOrDefault("limit", "100")), 1), 1000);
+    } catch (Exception e) {
+      return corsError(400, "bad client_id, days or limit");
+    }
+    return corsJson(200, Map.of("anomalies", AnomalyDetector.list(cid, days, limit)));
+  }
+
+  // GET /v1/category-rules?client_id=... -> the client's rules in precedence order, then the global ones
+  private static APIGatewayV2HTTPResponse listCategoryRules(Router.Call c) throws Exception {
+    String clientId = c.query().get("client_id");
+    if (clientId == null || clientId.isBlank()) return corsError(400, "client_id required");
+    UUID cid;
+    try {
+      cid = UUID.fromString(clientId);
+    } catch (Exception e) {
+      return corsError(400, "client_id must be a UUID");
+    }
+    return corsJson(200, CategoryRules.list(cid));
+  }
+
+  // POST /v1/category-rules, body = Models.CategoryRuleUpsert; re-categorizes history (inline up to a budget)
+  private static APIGatewayV2HTTPResponse addCategoryRule(Router.Call c) throws Exception {
+    Models.CategoryRuleUpsert in = Json.read(c.body(), Models.CategoryRuleUpsert.class);
+    if (in.client_id == null || in.client_id.isBlank()) return corsError(400, "client_id required");
+    UUID cid;
+    try {
+      cid = UUID.fromString(in.client_id);
+    } catch (Exception e) {
+      return corsError(400, "client_id must be a UUID");
+    }
+    CategoryRules.Rule rule;
+    try {
+      rule = CategoryRules.add(cid, in.match, in.pattern, in.account_id, in.min_cents, in.max_cents,
+          in.category, in.priority);
+    } catch (CategoryRules.RuleException e) {
+      return corsError(400, e.getMessage());
+    }
+    return corsJson(200, Map.of("rule", rule, "recategorize", recategorize(c, cid)));
+  }
+
+  // DELETE /v1/category-rules/{ruleId}?client_id=...
+  private static APIGatewayV2HTTPResponse deleteCategoryRule(Router.Call c) throws Exception {
+    String clientId = c.query().get("client_id");
+    if (clientId == null || clientId.isBlank()) return corsError(400, "client_id required");
+    UUID cid;
+    long ruleId;
+    try {
+      cid = UUID.fromString(clientId);
+      ruleId = Long.parseLong(c.param("ruleId"));
+    } catch (Exception e) {
+      return corsError(400, "bad client_id or rule id");
+    }
+    if (!CategoryRules.delete(cid, ruleId)) return corsError(404, "rule not found");
+    return corsJson(200, Map.of("deleted", 1, "recategorize", recategorize(c, cid)));
+  }
+
+  /** Spend up to recategorize_inline_ms applying a rule change; RecategorizeJob finishes the rest. */
+  private static RecategorizeJob.Report recategorize(Router.Call c, UUID cid) throws Exception {
+    return RecategorizeJob.drain(cid, RecategorizeJob.INLINE_MS,
+        c.ctx() == null ? s -> {} : s -> c.ctx().getLogger().log(s + "\n"));
+  }
+
+  private static APIGatewayV2HTTPResponse logged(Router.Call c, APIGatewayV2HTTPResponse resp) {
+    if (c.ctx() != null) c.ctx().getLogger().log("[DBG] " + c.path() + " resp headers: " + resp.getHeaders() + "\n");
+    return resp;
   }
 
   private static APIGatewayV2HTTPResponse adapt(APIGatewayProxyResponseEvent v1) {
-    Map<String, String> h = new HashMap<>(corsHeaders());
-    if (v1.getHeaders() != null) {
-        h.putAll(v1.getHeaders());
+    Map<String, String> h = v1.getHeaders();
+    if (h == null || h == Responses.HEADERS) {
+      h = Responses.HEADERS;                      // the common case: nothing to merge
+    } else {
+      h = new HashMap<>(Responses.HEADERS);
+      h.putAll(v1.getHeaders());
     }
     return APIGatewayV2HTTPResponse.builder()
         .withStatusCode(v1.getStatusCode() == null ? 200 : v1.getStatusCode())
@@ -237,33 +390,22 @@ public class ApiHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIGate
         .build();
   }
 
-  private static Map<String,String> corsHeaders() {
-    Map<String,String> h = new HashMap<>();
-    h.put("Content-Type","application/json");
-    h.put("Access-Control-Allow-Origin", ALLOWED_ORIGINS);
-    h.put("Access-Control-Allow-Headers","Content-Type, Authorization");
-    h.put("Access-Control-Allow-Methods","GET,POST,DELETE,OPTIONS");
-    return h;
-  }
-
   private static APIGatewayV2HTTPResponse corsJson(int code, Object obj) {
     try {
-      String body = new ObjectMapper().writeValueAsString(obj);
-      return cors(code, body);
+      return cors(code, Json.write(obj));
     } catch (Exception e) {
-      return cors(500, "{\"error\":\"serialize\"}");
+      return cors(500, "{\"ok\":false,\"error\":\"serialize\"}");
     }
   }
 
+  private static APIGatewayV2HTTPResponse corsError(int code, String error) {
+    return corsJson(code, Responses.envelope(error, Map.of()));
+  }
+
   private static APIGatewayV2HTTPResponse cors(int code, String body) {
-    Map<String, String> headers = new HashMap<>();
-    headers.put("Content-Type", "application/json");
-    headers.put("Access-Control-Allow-Origin", ALLOWED_ORIGINS);
-    headers.put("Access-Control-Allow-Headers", "Content-Type, Authorization");
-    headers.put("Access-Control-Allow-Methods", "GET,POST,DELETE,OPTIONS");
     return APIGatewayV2HTTPResponse.builder()
         .withStatusCode(code)
-        .withHeaders(headers)
+        .withHeaders(Responses.HEADERS)
         .withBody(body)
         .build();
   }
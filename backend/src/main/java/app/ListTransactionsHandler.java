@@ -2,14 +2,29 @@ package app;
 
 import com.amazonaws.services.lambda.runtime.*;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.*;
 import java.time.LocalDate;
 import app.common.Db; // uses your DB helper
+import app.common.Env;
+import app.common.Json;
+import app.common.Metrics;
+
+import static app.common.Responses.error;
+import static app.common.Responses.raw;
 
 public class ListTransactionsHandler implements RequestHandler<Map<String,Object>, APIGatewayProxyResponseEvent> {
-  private static final ObjectMapper M = new ObjectMapper();
+  /** Server-side cap on ?limit= (env transactions_max_limit). */
+  static final int MAX_LIMIT = Math.max(1, Env.intOr("transactions_max_limit", 200));
+
+  // HotSpot extension; null on JVMs without per-thread allocation counters
+  private static final com.sun.management.ThreadMXBean TMX =
+      ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean t
+          && t.isThreadAllocatedMemorySupported() ? t : null;
 
   @Override
   public APIGatewayProxyResponseEvent handleRequest(Map<String,Object> in, Context ctx) {
@@ -17,11 +32,11 @@ public class ListTransactionsHandler implements RequestHandler<Map<String,Object
     Map<String,String> q = (Map<String,String>) in.getOrDefault("queryStringParameters", Map.of());
 
     String clientId   = q.get("client_id");
-    int    limit      = parseInt(q.getOrDefault("limit", "50"), 50);
+    int    limit      = Math.min(Math.max(parseInt(q.getOrDefault("limit", "50"), 50), 1), MAX_LIMIT);
     String beforeDate = q.get("beforeDate");                 // YYYY-MM-DD
     Long   beforeId   = parseLong(q.get("beforeId"), null);  // bigint
 
-    if (clientId == null || clientId.isBlank()) return json(400, Map.of("error","client_id required"));
+    if (clientId == null || clientId.isBlank()) return error(400, "client_id required");
 
     String sql = (beforeDate == null || beforeId == null)
         ? "SELECT id, account_id, account_name, merchant, category, amount_cents, post_date, status " +
@@ -32,7 +47,10 @@ public class ListTransactionsHandler implements RequestHandler<Map<String,Object
           "AND (post_date, id) < (?::date, ?) " +
           "ORDER BY post_date DESC, id DESC LIMIT ?";
 
-    List<Map<String,Object>> items = new ArrayList<>();
+    long alloc0 = allocatedBytes();
+    long t0 = System.nanoTime();
+    // ~160 bytes per serialized row
+    ByteArrayOutputStream out = new ByteArrayOutputStream(256 + limit * 160);
 
     try (Connection conn = Db.connect();
          PreparedStatement ps = conn.prepareStatement(sql)) {
@@ -45,54 +63,69 @@ public class ListTransactionsHandler implements RequestHandler<Map<String,Object
       }
       ps.setInt(i, limit);
 
-      try (ResultSet rs = ps.executeQuery()) {
+      // Stream rows straight from the ResultSet into JSON: no per-row maps, no item list.
+      try (ResultSet rs = ps.executeQuery();
+           JsonGenerator g = Json.factory().createGenerator(out)) {
+        g.writeStartObject();
+        g.writeArrayFieldStart("items");
+        long lastId = 0;
+        String lastDate = null;
+        int rows = 0;
         while (rs.next()) {
-          Map<String,Object> row = new HashMap<>();
-          row.put("id",           rs.getLong("id"));
-          row.put("account_id",   rs.getLong("account_id"));
-          row.put("account_name", rs.getString("account_name"));
-          row.put("merchant",     rs.getString("merchant"));
-          row.put("category",     rs.getString("category"));
-          row.put("amount_cents", rs.getInt("amount_cents"));
-          LocalDate d = rs.getObject("post_date", LocalDate.class);
-          row.put("post_date", d == null ? null : d.toString());
-          row.put("status",       rs.getString("status"));
-          items.add(row);
+          long id = rs.getLong(1);
+          LocalDate d = rs.getObject(7, LocalDate.class);
+          lastId = id;
+          lastDate = d == null ? null : d.toString();
+          rows++;
+
+          writeItem(g, id, rs.getLong(2), rs.getString(3), rs.getString(4), rs.getString(5),
+              rs.getInt(6), lastDate, rs.getString(8));
         }
+        g.writeEndArray();
+        writeNext(g, rows, lastDate, lastId);
+        g.writeEndObject();
+        Metrics.sample("transactions.page.rows", rows);
       }
     } catch (Exception e) {
-      return json(500, Map.of("error", e.getMessage()));
+      return error(500, e.getMessage());
     }
 
-    Map<String,Object> next = null;
-    if (!items.isEmpty()) {
-      Map<String,Object> last = items.get(items.size()-1);
-      next = Map.of(
-        "beforeDate", Objects.toString(last.get("post_date"), ""),
-        "beforeId",   String.valueOf(last.get("id"))
-      );
+    String body = out.toString(StandardCharsets.UTF_8);
+    Metrics.since("transactions.page", t0);
+    Metrics.sample("transactions.page.bytes", out.size());
+    if (alloc0 >= 0) Metrics.sample("transactions.page.alloc_bytes", allocatedBytes() - alloc0);
+    return raw(200, body);
+  }
+
+  /** One element of "items". */
+  static void writeItem(JsonGenerator g, long id, long accountId, String accountName, String merchant,
+                        String category, int amountCents, String postDate, String status) throws java.io.IOException {
+    g.writeStartObject();
+    g.writeNumberField("id",           id);
+    g.writeNumberField("account_id",   accountId);
+    g.writeStringField("account_name", accountName);
+    g.writeStringField("merchant",     merchant);
+    g.writeStringField("category",     category);
+    g.writeNumberField("amount_cents", amountCents);
+    g.writeStringField("post_date",    postDate);
+    g.writeStringField("status",       status);
+    g.writeEndObject();
+  }
+
+  /** Keyset cursor for the next page; null when the page was empty. */
+  static void writeNext(JsonGenerator g, int rows, String lastDate, long lastId) throws java.io.IOException {
+    if (rows == 0) {
+      g.writeNullField("next");
+      return;
     }
-    return json(200, Map.of("items", items, "next", next));
+    g.writeObjectFieldStart("next");
+    g.writeStringField("beforeDate", lastDate == null ? "" : lastDate);
+    g.writeStringField("beforeId",   String.valueOf(lastId));
+    g.writeEndObject();
   }
 
   // --- helpers ---
+  private static long allocatedBytes() { return TMX == null ? -1 : TMX.getCurrentThreadAllocatedBytes(); }
   private static int parseInt(String s, int def) { try { return Integer.parseInt(s); } catch (Exception e) { return def; } }
   private static Long parseLong(String s, Long def) { try { return (s==null)?def:Long.parseLong(s); } catch (Exception e) { return def; } }
-  private static APIGatewayProxyResponseEvent json(int status, Object payload) {
-    String body;
-    try {
-      body = M.writeValueAsString(payload);
-    } catch (Exception e) {
-      body = "{\"ok\":false}";
-    }
-    return new APIGatewayProxyResponseEvent()
-        .withStatusCode(status)
-        .withHeaders(Map.of(
-            "Content-Type","application/json",
-            "Access-Control-Allow-Origin","*",
-            "Access-Control-Allow-Headers","Content-Type, Authorization",
-            "Access-Control-Allow-Methods","GET,POST,OPTIONS"
-        ))
-        .withBody(body);
-  }
-}
\ No newline at end of file
+}
@@ -0,0 +1,169 @@
+package app;
+
+import app.common.ConnectionPool;
+import app.common.Env;
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs ApiHandler as a plain HTTP server (JDK com.sun.net.httpserver) for containers, VMs and
+ * local load tests. Each request is adapted into the same APIGatewayV2HTTPEvent API Gateway
+ * would send, so routing and handlers are shared with the Lambda.
+ *
+ * On Java 21+ every request gets its own virtual thread; on 17 (the Lambda runtime) it falls back
+ * to a bounded platform pool. Concurrency past db_pool_max queues on the JDBC pool, not on threads.
+ *
+ * Usage: java -jar app.jar   (or java -cp app.jar app.LocalServer)
+ *
+ * Env vars (optional):
+ *   http_port      (default 8080)
+ *   http_threads   (default 64; platform-thread fallback only)
+ */
+public final class LocalServer {
+
+  private LocalServer() { /* no instances */ }
+
+  private static final ApiHandler API = new ApiHandler();
+
+  private static boolean virtual;
+
+  public static void main(String[] args) throws Exception {
+    int port = Env.intOr("http_port", 8080);
+    ExecutorService exec = executor();
+    HttpServer server = HttpServer.create(new InetSocketAddress(port), 1024);
+    server.createContext("/", LocalServer::serve);
+    server.setExecutor(exec);
+    server.start();
+
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      server.stop(1);
+      exec.shutdown();
+      ConnectionPool.shutdown();
+    }, "local-server-shutdown"));
+    System.out.println("[LocalServer] listening on :" + port + " (" + (virtual ? "virtual threads" : "platform threads") + ")");
+  }
+
+  /** Executors.newVirtualThreadPerTaskExecutor() when the JVM has it; we still compile for 17. */
+  static ExecutorService executor() {
+    try {
+      ExecutorService vt = (ExecutorService) Executors.class
+          .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      virtual = true;
+      return vt;
+    } catch (ReflectiveOperationException e) {
+      return Executors.newFixedThreadPool(Math.max(1, Env.intOr("http_threads", 64)));
+    }
+  }
+
+  static void serve(HttpExchange ex) throws IOException {
+    try (ex) {
+      APIGatewayV2HTTPResponse r;
+      try {
+        r = API.handleRequest(toEvent(ex), new LocalContext());
+      } catch (Exception e) {
+        r = APIGatewayV2HTTPResponse.builder().withStatusCode(500)
+            .withBody("{\"ok\":false,\"error\":\"internal\"}").build();
+      }
+      byte[] body = r.getBody() == null ? new byte[0] : r.getBody().getBytes(StandardCharsets.UTF_8);
+      if (r.getHeaders() != null) r.getHeaders().forEach((k, v) -> ex.getResponseHeaders().set(k, v));
+      ex.sendResponseHeaders(r.getStatusCode(), body.length == 0 ? -1 : body.length);
+      if (body.length > 0) {
+        try (OutputStream out = ex.getResponseBody()) { out.write(body); }
+      }
+    }
+  }
+
+  /** Same shape API Gateway HTTP APIs deliver with payload format 2.0 on the $default stage. */
+  static APIGatewayV2HTTPEvent toEvent(HttpExchange ex) throws IOException {
+    String rawPath = ex.getRequestURI().getRawPath();
+    String rawQuery = ex.getRequestURI().getRawQuery();
+
+    Map<String, String> headers = new HashMap<>();
+    for (Map.Entry<String, List<String>> h : ex.getRequestHeaders().entrySet()) {
+      headers.put(h.getKey().toLowerCase(java.util.Locale.ROOT), String.join(",", h.getValue()));
+    }
+
+    String body;
+    try (InputStream in = ex.getRequestBody()) {
+      byte[] b = in.readAllBytes();
+      body = b.length == 0 ? null : new String(b, StandardCharsets.UTF_8);
+    }
+
+    return APIGatewayV2HTTPEvent.builder()
+        .withVersion("2.0")
+        .withRouteKey("$default")
+        .withRawPath(rawPath)
+        .withRawQueryString(rawQuery == null ? "" : rawQuery)
+        .withQueryStringParameters(query(rawQuery))
+        .withHeaders(headers)
+        .withBody(body)
+        .withIsBase64Encoded(false)
+        .withRequestContext(APIGatewayV2HTTPEvent.RequestContext.builder()
+            .withStage("$default")
+            .withRequestId(UUID.randomUUID().toString())
+            .withTimeEpoch(System.currentTimeMillis())
+            .withHttp(APIGatewayV2HTTPEvent.RequestContext.Http.builder()
+                .withMethod(ex.getRequestMethod())
+                .withPath(rawPath)
+                .withProtocol(ex.getProtocol())
+                .withSourceIp(ex.getRemoteAddress().getAddress().getHostAddress())
+                .withUserAgent(headers.get("user-agent"))
+                .build())
+            .build())
+        .build();
+  }
+
+  /** Repeated keys are comma-joined, as API Gateway does; null when there is no query string. */
+  static Map<String, String> query(String rawQuery) {
+    if (rawQuery == null || rawQuery.isEmpty()) return null;
+    Map<String, String> q = new HashMap<>();
+    for (String kv : rawQuery.split("&")) {
+      if (kv.isEmpty()) continue;
+      int eq = kv.indexOf('=');
+      String k = URLDecoder.decode(eq < 0 ? kv : kv.substring(0, eq), StandardCharsets.UTF_8);
+      String v = eq < 0 ? "" : URLDecoder.decode(kv.substring(eq + 1), StandardCharsets.UTF_8);
+      q.merge(k, v, (a, b) -> a + "," + b);
+    }
+    return q;
+  }
+
+  /** Enough of the Lambda Context for handlers that log; there is no invocation deadline locally. */
+  static final class LocalContext implements Context {
+    private static final LambdaLogger LOG = new LambdaLogger() {
+      @Override public void log(String message) { System.out.print(message); }
+      @Override public void log(byte[] message) { System.out.print(new String(message, StandardCharsets.UTF_8)); }
+    };
+    private final String requestId = UUID.randomUUID().toString();
+
+    @Override public String getAwsRequestId() { return requestId; }
+    @Override public String getLogGroupName() { return "local"; }
+    @Override public String getLogStreamName() { return "local"; }
+    @Override public String getFunctionName() { return "local-server"; }
+    @Override public String getFunctionVersion() { return "$LATEST"; }
+    @Override public String getInvokedFunctionArn() { return "local"; }
+    @Override public CognitoIdentity getIdentity() { return null; }
+    @Override public ClientContext getClientContext() { return null; }
+    @Override public int getRemainingTimeInMillis() { return Integer.MAX_VALUE; }
+    @Override public int getMemoryLimitInMB() { return (int) (Runtime.getRuntime().maxMemory() >> 20); }
+    @Override public LambdaLogger getLogger() { return LOG; }
+  }
+}
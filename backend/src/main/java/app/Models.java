@@ -12,4 +12,15 @@ public class Models {
       public BigDecimal monthly_limit;
     }
   }
+
+  public static class CategoryRuleUpsert {
+    public String client_id;
+    public String match;          // word (default) | prefix | exact | substring
+    public String pattern;        // compared with merchant_norm; empty = any merchant
+    public Long account_id;
+    public Integer min_cents;
+    public Integer max_cents;
+    public String category;
+    public Integer priority;      // lower wins (default 100)
+  }
 }
@@ -0,0 +1,125 @@
+package app;
+
+import app.common.Metrics;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Route table for ApiHandler, built once at class init.
+ * Literal paths resolve with two hash lookups (method, then path); templates such as
+ * "/v1/items/{itemId}" are only scanned when no literal route matches. Each route records its
+ * latency as "route.<METHOD> <template>" and counts 5xx/exceptions as "...error".
+ */
+final class Router {
+
+  @FunctionalInterface
+  interface Handler {
+    APIGatewayV2HTTPResponse handle(Call call) throws Exception;
+  }
+
+  /** One request as a route sees it: stage-stripped path plus any {param} values. */
+  record Call(APIGatewayV2HTTPEvent req, Context ctx, String path, Map<String, String> pathParams) {
+    Map<String, String> query() {
+      return req.getQueryStringParameters() == null ? Map.of() : req.getQueryStringParameters();
+    }
+    String body() {
+      return req.getBody() == null ? "{}" : req.getBody();
+    }
+    String param(String name) {
+      return pathParams.get(name);
+    }
+  }
+
+  static final class Route {
+    final String method;
+    final String template;
+    final Handler handler;
+    final String[] segments;     // null for literal routes
+    final String metric;
+    final String errorMetric;
+
+    Route(String method, String template, Handler handler) {
+      this.method = method;
+      this.template = template;
+      this.handler = handler;
+      this.segments = template.contains("{") ? template.substring(1).split("/", -1) : null;
+      this.metric = "route." + method + " " + template;
+      this.errorMetric = metric + ".error";
+    }
+
+    /** Path params if this template matches, else null. */
+    Map<String, String> match(String path) {
+      if (path == null || !path.startsWith("/")) return null;
+      String[] parts = path.substring(1).split("/", -1);
+      if (parts.length != segments.length) return null;
+      Map<String, String> params = null;
+      for (int i = 0; i < parts.length; i++) {
+        String seg = segments[i];
+        if (seg.startsWith("{") && seg.endsWith("}")) {
+          if (parts[i].isEmpty()) return null;
+          if (params == null) params = new HashMap<>(4);
+          params.put(seg.substring(1, seg.length() - 1), parts[i]);
+        } else if (!seg.equals(parts[i])) {
+          return null;
+        }
+      }
+      return params == null ? Map.of() : params;
+    }
+
+    APIGatewayV2HTTPResponse invoke(Call call) throws Exception {
+      long t0 = System.nanoTime();
+      try {
+        APIGatewayV2HTTPResponse r = handler.handle(call);
+        if (r.getStatusCode() >= 500) Metrics.count(errorMetric, 1);
+        return r;
+      } catch (Exception e) {
+        Metrics.count(errorMetric, 1);
+        throw e;
+      } finally {
+        Metrics.since(metric, t0);
+      }
+    }
+  }
+
+  record Match(Route route, Map<String, String> pathParams) {}
+
+  private final Map<String, Map<String, Route>> literal = new HashMap<>();
+  private final Map<String, List<Route>> templated = new HashMap<>();
+
+  Router add(String method, String template, Handler handler) {
+    Route r = new Route(method.toUpperCase(Locale.ROOT), template, handler);
+    if (r.segments == null) {
+      Route prev = literal.computeIfAbsent(r.method, k -> new HashMap<>()).put(template, r);
+      if (prev != null) throw new IllegalStateException("duplicate route " + r.method + " " + template);
+    } else {
+      templated.computeIfAbsent(r.method, k -> new ArrayList<>()).add(r);
+    }
+    return this;
+  }
+
+  Router get(String template, Handler h)    { return add("GET", template, h); }
+  Router post(String template, Handler h)   { return add("POST", template, h); }
+  Router delete(String template, Handler h) { return add("DELETE", template, h); }
+
+  /** Route for (method, path), or null. */
+  Match match(String method, String path) {
+    String m = method.toUpperCase(Locale.ROOT);  // returns the same instance when already upper-case
+    Map<String, Route> byPath = literal.get(m);
+    Route r = byPath == null ? null : byPath.get(path);
+    if (r != null) return new Match(r, Map.of());
+    List<Route> candidates = templated.get(m);
+    if (candidates == null) return null;
+    for (Route t : candidates) {
+      Map<String, String> params = t.match(path);
+      if (params != null) return new Match(t, params);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,187 @@
+package app;
+
+import app.common.AwsClients;
+import app.common.ConnectionPool;
+import app.common.Env;
+import app.common.Json;
+import app.common.Metrics;
+import app.common.Responses;
+import app.plaid.AccessTokens;
+import app.plaid.PlaidClientFactory;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.crac.Core;
+import org.crac.Resource;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cold-start work that would otherwise land on the first request: class loading and JIT-less
+ * first passes through Jackson, the router, the Postgres driver and the Plaid/AWS clients.
+ * Runs once from ApiHandler's static init, i.e. inside the Lambda init phase (or before a
+ * SnapStart/CRaC snapshot is taken).
+ *
+ * The checkpoint hooks close anything holding a socket before the snapshot and reopen it on
+ * restore, so a restored process never hands out a connection the server dropped long ago.
+ *
+ * Env vars (optional):
+ *   prime_on_init  (default true)
+ *   prime_db       (default false; also opens the first pooled DB connection during init)
+ */
+final class Startup implements Resource {
+
+  static final boolean PRIME    = !"false".equalsIgnoreCase(Env.str("prime_on_init", "true"));
+  static final boolean PRIME_DB = "true".equalsIgnoreCase(Env.str("prime_db", "false"));
+
+  // CRaC only keeps weak references to registered resources
+  private static final Startup HOOKS = new Startup();
+
+  private static boolean done;
+
+  private Startup() {}
+
+  /** Prime (unless disabled) and register the checkpoint hooks; idempotent. */
+  static synchronized void init() {
+    if (done) return;
+    done = true;
+    if (PRIME) prime();
+    Core.getGlobalContext().register(HOOKS);
+  }
+
+  static void prime() {
+    long t0 = System.nanoTime();
+    step("json", Startup::primeJson);
+    step("routes", Startup::primeRoutes);
+    step("jdbc", () -> {
+      Class.forName("org.postgresql.Driver");
+      if (PRIME_DB) ConnectionPool.warm();
+    });
+    step("plaid", PlaidClientFactory::client);
+    step("aws", AwsClients::secretsManager);
+    Metrics.since("startup.prime", t0);
+  }
+
+  private static void primeJson() throws Exception {
+    Json.write(Responses.envelope("prime", Map.of("itemId", "x")));
+    Json.write(Map.of("status", "ok", "db_pool", ConnectionPool.stats(), "metrics", Metrics.snapshot()));
+    Json.read("{\"client_id\":\"00000000-0000-0000-0000-000000000000\",\"items\":[{\"category\":\"x\",\"monthly_limit\":1.5}]}",
+        Models.BudgetUpsert.class);
+    Json.read("{\"webhook_type\":\"TRANSACTIONS\",\"item_id\":\"x\"}", Map.class);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+    try (JsonGenerator g = Json.factory().createGenerator(out)) {
+      g.writeStartObject();
+      g.writeArrayFieldStart("items");
+      ListTransactionsHandler.writeItem(g, 1, 1, "Checking", "Coffee", "Food", 450, "2024-01-01", "posted");
+      g.writeEndArray();
+      ListTransactionsHandler.writeNext(g, 1, "2024-01-01", 1);
+      g.writeEndObject();
+    }
+  }
+
+  /** Dispatches requests that touch no backend: CORS preflight and a 404, so no route metrics move. */
+  private static void primeRoutes() {
+    ApiHandler h = new ApiHandler();
+    for (String method : List.of("OPTIONS", "GET")) {
+      h.handleRequest(event(method, "/prod/__prime"), null);
+    }
+  }
+
+  private interface Step { void run() throws Exception; }
+
+  private static void step(String name, Step s) {
+    long t0 = System.nanoTime();
+    try {
+      s.run();
+      Metrics.since("startup.prime." + name, t0);
+    } catch (Throwable t) {
+      // priming is best-effort; the real request will surface any real problem
+      Metrics.since("startup.prime." + name + ".error", t0);
+    }
+  }
+
+  // ---------- checkpoint / restore ----------
+
+  private volatile boolean dbWasOpen;
+  private volatile boolean awsWasOpen;
+
+  @Override
+  public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+    dbWasOpen = ConnectionPool.isOpen();
+    awsWasOpen = AwsClients.isOpen();
+    ConnectionPool.shutdown();
+    AwsClients.reset();
+    PlaidClientFactory.evictConnections();
+    AccessTokens.clear();  // keep secrets out of the snapshot
+  }
+
+  @Override
+  public void afterRestore(org.crac.Context<? extends Resource> context) {
+    long t0 = System.nanoTime();
+    if (awsWasOpen) step("restore.aws", AwsClients::secretsManager);
+    if (dbWasOpen || PRIME_DB) step("restore.jdbc", ConnectionPool::warm);
+    Metrics.since("startup.restore", t0);
+  }
+
+  // ---------- local cold-start probe (bench/coldstart.sh, footprint.sh) ----------
+
+  /** rawPath may carry a query string ("/v1/budgets?client_id=..."); it is split out like API Gateway does. */
+  static APIGatewayV2HTTPEvent event(String method, String rawPath) {
+    return event(method, rawPath, null);
+  }
+
+  static APIGatewayV2HTTPEvent event(String method, String rawPath, String body) {
+    Map<String, String> query = null;
+    int q = rawPath.indexOf('?');
+    if (q >= 0) {
+      query = new java.util.HashMap<>();
+      for (String kv : rawPath.substring(q + 1).split("&")) {
+        int eq = kv.indexOf('=');
+        if (eq > 0) query.put(kv.substring(0, eq), kv.substring(eq + 1));
+      }
+      rawPath = rawPath.substring(0, q);
+    }
+    return APIGatewayV2HTTPEvent.builder()
+        .withRawPath(rawPath)
+        .withQueryStringParameters(query)
+        .withBody(body)
+        .withRequestContext(APIGatewayV2HTTPEvent.RequestContext.builder()
+            .withStage("prod")
+            .withHttp(APIGatewayV2HTTPEvent.RequestContext.Http.builder().withMethod(method).withPath(rawPath).build())
+            .build())
+        .build();
+  }
+
+  /**
+   * Fresh-JVM probe: java -cp app.jar app.Startup [path | METHOD:path ...]
+   * Prints JVM start -> handler ready (init) and the first request's latency (first) in ms, then
+   * runs any further requests (POSTs send "{}"), e.g. as an AppCDS training run.
+   */
+  public static void main(String[] args) {
+    List<String> calls = args.length > 0 ? List.of(args) : List.of("/health");
+    long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+    long ready0 = System.currentTimeMillis();
+    ApiHandler h = new ApiHandler();                 // runs static init, i.e. priming
+    long ready = System.currentTimeMillis();
+    for (int i = 0; i < calls.size(); i++) {
+      String call = calls.get(i);
+      int colon = call.indexOf(':');
+      String method = colon > 0 ? call.substring(0, colon) : "GET";
+      String path = colon > 0 ? call.substring(colon + 1) : call;
+      long t0 = System.nanoTime();
+      APIGatewayV2HTTPResponse r = h.handleRequest(
+          event(method, "/prod" + path, "GET".equals(method) ? null : "{}"), null);
+      long ms = (System.nanoTime() - t0) / 1_000_000;
+      if (i == 0) {
+        System.out.printf("status=%d jvm_ms=%d init_ms=%d first_ms=%d ttfb_ms=%d prime=%s%n",
+            r.getStatusCode(), ready0 - jvmStart, ready - ready0, ms, ready - jvmStart + ms, PRIME);
+      } else {
+        System.out.printf("call=%s %s status=%d ms=%d%n", method, path, r.getStatusCode(), ms);
+      }
+    }
+  }
+}
@@ -0,0 +1,375 @@
+package app.anomaly;
+
+import app.common.Env;
+import app.common.Metrics;
+import app.plaid.TxUpsertService;
+import app.plaid.TxUpsertService.Change;
+import app.plaid.TxUpsertService.Image;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static app.common.Db.*;
+
+/**
+ * Spend anomalies flagged on ingest (GET /v1/anomalies). Each newly posted outflow is scored against
+ * streaming state before it is folded in:
+ *   large_charge    well above the usual charge for its category (or for the client, while the
+ *                   category is still new): anomaly_z deviations and at least twice the mean
+ *   new_merchant    first payment to a merchant, per the client's MerchantSketch
+ *   category_spike  the category's spend this week is anomaly_z deviations above its weekly norm;
+ *                   at most once per category per week
+ * State is a few numbers per (client, category) in anomaly_baseline (see Baseline) plus a fixed-size
+ * sketch per client in anomaly_merchants; apply() reads and writes only the rows a chunk touches,
+ * in the chunk's transaction, so ingest never aggregates history. Only charges posted within
+ * anomaly_recent_days raise flags; older ones (initial syncs, CSV backfills) just train the state.
+ *
+ * A client without a trained state (anomaly_clients) gets one from a single streaming pass over its
+ * history, without flags, on its first chunk or first read, so merchants and amounts from before the
+ * detector existed count as known. The same pass, from the command line:
+ *   java -cp app.jar app.anomaly.AnomalyDetector rebuild [client_id]
+ *
+ * Env vars (optional):
+ *   anomaly_z           = deviations above the baseline that count as unusual (default 4)
+ *   anomaly_min_cents   = smallest charge or weekly overspend worth a flag (default 5000)
+ *   anomaly_recent_days = how recent a charge must be to raise a flag (default 7)
+ *   anomaly_alpha       = EWMA weight of each charge (default 0.05)
+ *   anomaly_week_alpha  = EWMA weight of each week (default 0.2)
+ */
+public final class AnomalyDetector {
+
+  private AnomalyDetector() { /* no instances */ }
+
+  static final double Z          = Double.parseDouble(Env.str("anomaly_z", "4"));
+  static final int MIN_CENTS     = Math.max(0, Env.intOr("anomaly_min_cents", 5_000));
+  static final int RECENT_DAYS   = Math.max(0, Env.intOr("anomaly_recent_days", 7));
+  static final double ALPHA      = Double.parseDouble(Env.str("anomaly_alpha", "0.05"));
+  static final double WEEK_ALPHA = Double.parseDouble(Env.str("anomaly_week_alpha", "0.2"));
+  static final int MIN_CHARGES   = 10;   // per baseline, before large_charge can fire
+  static final int MIN_WEEKS     = 4;    // per category, before category_spike can fire
+  static final int MIN_MERCHANTS = 20;   // per client, before new_merchant can fire
+  static final String ALL = "*";
+
+  public record Flag(long id, String kind, String plaidTxId, String postDate, String merchant, String category,
+                     int amountCents, double score, String detail, String createdAt) {}
+
+  private record Pending(UUID clientId, String kind, Image tx, double score, String detail) {}
+
+  // ---------- ingest ----------
+
+  /** Score and fold in this chunk's newly posted outflows (caller's transaction). */
+  public static void apply(Connection c, List<Change> changes) throws Exception {
+    Map<UUID, List<Image>> byClient = null;
+    for (Change ch : changes) {
+      Image a = ch.after();
+      if (!counts(a)) continue;
+      if (counts(ch.before())) continue;  // already seen when it first posted
+      if (byClient == null) byClient = new HashMap<>();
+      byClient.computeIfAbsent(a.clientId(), k -> new ArrayList<>()).add(a);
+    }
+    if (byClient == null) return;
+
+    long t0 = System.nanoTime();
+    int recentFrom = (int) LocalDate.now().minusDays(RECENT_DAYS).toEpochDay();
+    List<Pending> flags = new ArrayList<>();
+    for (var e : byClient.entrySet()) {
+      UUID clientId = e.getKey();
+      List<Image> txs = e.getValue();
+      txs.sort(Comparator.comparing(Image::post));
+      lock(c, clientId);
+
+      State st;
+      if (isBuilt(c, clientId)) {
+        Set<String> cats = new LinkedHashSet<>();
+        cats.add(ALL);
+        for (Image im : txs) cats.add(im.category());
+        st = new State(clientId, loadBaselines(c, clientId, cats), loadSketch(c, clientId));
+      } else {
+        // first chunk since the client's state was (re)created: train on the history before this transaction
+        st = train(c, clientId, true);
+      }
+      for (Image im : txs) st.add(im, (int) im.post().toEpochDay() >= recentFrom, flags);
+      st.save(c);
+    }
+    if (!flags.isEmpty()) saveFlags(c, flags);
+    Metrics.since("anomaly.apply", t0);
+    if (!flags.isEmpty()) Metrics.count("anomaly.flags", flags.size());
+  }
+
+  /** One client's baselines and sketch while a chunk (or its history) is folded in. */
+  private static final class State {
+    final UUID clientId;
+    final Map<String, Baseline> base;
+    final MerchantSketch sketch;
+    final Baseline all;
+
+    State(UUID clientId, Map<String, Baseline> base, MerchantSketch sketch) {
+      this.clientId = clientId;
+      this.base = base;
+      this.sketch = sketch;
+      this.all = base.computeIfAbsent(ALL, Baseline::new);
+    }
+
+    /** Score im against the state so far (into flags, when mayFlag), then fold it in. */
+    void add(Image im, boolean mayFlag, List<Pending> flags) {
+      int cents = im.amountCents();
+      int day = (int) im.post().toEpochDay();
+      Baseline cat = base.computeIfAbsent(im.category(), Baseline::new);
+
+      Baseline ref = cat.n >= MIN_CHARGES ? cat : all.n >= MIN_CHARGES ? all : null;
+      if (mayFlag && ref != null && cents >= MIN_CENTS && cents >= 2 * ref.mean) {
+        double z = ref.z(cents);
+        if (z >= Z) {
+          flags.add(new Pending(clientId, "large_charge", im, z, dollars(cents) + " vs a usual "
+              + dollars(ref.mean) + (ref == cat ? " in " + im.category() : "")));
+        }
+      }
+
+      boolean knownClient = sketch.merchants >= MIN_MERCHANTS;
+      if (sketch.add(im.merchantNorm()) && mayFlag && knownClient) {
+        flags.add(new Pending(clientId, "new_merchant", im, all.n > 0 ? all.z(cents) : 0,
+            "first payment to " + im.merchantNorm()));
+      }
+
+      cat.observe(cents, ALPHA, Z);
+      if (cat != all) all.observe(cents, ALPHA, Z);
+
+      if (cat != all && cat.addToWeek(day, cents, WEEK_ALPHA) && mayFlag
+          && cat.weeks >= MIN_WEEKS && cat.flaggedWeek != cat.week
+          && cat.weekCents >= MIN_CENTS && cat.weekCents >= 1.5 * cat.weekMean) {
+        double z = (cat.weekCents - cat.weekMean) / Math.max(cat.weekSd(), Math.max(cat.weekMean * 0.1, 100));
+        if (z >= Z) {
+          cat.flaggedWeek = cat.week;
+          flags.add(new Pending(clientId, "category_spike", im, z, im.category() + " at "
+              + dollars(cat.weekCents) + " this week vs a usual " + dollars(cat.weekMean)));
+        }
+      }
+    }
+
+    void save(Connection c) throws Exception {
+      saveBaselines(c, clientId, base.values());
+      if (sketch.dirty) {
+        exec(c, """
+          INSERT INTO anomaly_merchants (client_id, bits, merchants, updated_at) VALUES (?::uuid, ?, ?, NOW())
+          ON CONFLICT (client_id) DO UPDATE
+            SET bits = EXCLUDED.bits, merchants = EXCLUDED.merchants, updated_at = NOW()
+          """, clientId, sketch.bits, sketch.merchants);
+      }
+    }
+  }
+
+  // ---------- bootstrap ----------
+
+  /** Clients known to have a trained state (set after commit); saves the marker lookup per chunk. */
+  private static final Set<UUID> BUILT = ConcurrentHashMap.newKeySet();
+
+  /** Serialize apply() and rebuild() for one client, including first-time inserts of its state rows. */
+  private static void lock(Connection c, UUID clientId) throws Exception {
+    one(c, "SELECT pg_advisory_xact_lock(hashtext('anomaly:' || ?))", rs -> 1, clientId.toString());
+  }
+
+  private static boolean isBuilt(Connection c, UUID clientId) throws Exception {
+    if (BUILT.contains(clientId)) return true;
+    boolean built = one(c, "SELECT 1 FROM anomaly_clients WHERE client_id = ?::uuid", rs -> 1, clientId) != null;
+    if (built) BUILT.add(clientId);
+    return built;
+  }
+
+  /**
+   * Replace clientId's state with one trained on its posted outflows in date order, raising no flags.
+   * During ingest (ownWritesExcluded) rows this transaction wrote are left out, since the caller
+   * scores and folds them in next; every upsert sets updated_at = NOW(), the transaction's start.
+   */
+  private static State train(Connection c, UUID clientId, boolean ownWritesExcluded) throws Exception {
+    long t0 = System.nanoTime();
+    exec(c, "DELETE FROM anomaly_baseline WHERE client_id = ?::uuid", clientId);
+    State st = new State(clientId, new HashMap<>(), new MerchantSketch());
+    int rows = 0;
+    try (PreparedStatement ps = c.prepareStatement("SELECT " + TxUpsertService.IMAGE_COLS + """
+           FROM transactions
+          WHERE client_id = ?::uuid
+            AND post_date IS NOT NULL
+            AND lower(COALESCE(status, '')) <> 'pending'
+            AND amount_cents > 0
+            AND category IS NOT NULL
+            AND COALESCE(merchant_norm, '') <> ''
+        """ + (ownWritesExcluded ? "  AND updated_at < NOW()\n" : "") + """
+          ORDER BY post_date, id
+        """)) {
+      ps.setFetchSize(5_000);
+      ps.setObject(1, clientId);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          st.add(TxUpsertService.image(rs), false, null);
+          rows++;
+        }
+      }
+    }
+    st.sketch.dirty = true;
+    st.all.dirty = true;
+    st.save(c);
+    exec(c, """
+      INSERT INTO anomaly_clients (client_id, built_at) VALUES (?::uuid, NOW())
+      ON CONFLICT (client_id) DO UPDATE SET built_at = NOW()
+      """, clientId);
+    afterCommit(c, () -> BUILT.add(clientId));
+    Metrics.since("anomaly.rebuild", t0);
+    Metrics.sample("anomaly.rebuild.rows", rows);
+    return st;
+  }
+
+  /** Retrain clientId's state from its full history (no flags); returns the baselines written. */
+  public static int rebuild(UUID clientId) throws Exception {
+    return withTx(c -> {
+      lock(c, clientId);
+      return train(c, clientId, false).base.size();
+    });
+  }
+
+  /** Posted outflow with a date, a category and a merchant. */
+  private static boolean counts(Image im) {
+    return im != null && !im.pending() && im.post() != null && im.amountCents() > 0 && im.category() != null
+        && im.merchantNorm() != null && !im.merchantNorm().isEmpty();
+  }
+
+  private static String dollars(double cents) {
+    return String.format("$%,.2f", cents / 100.0);
+  }
+
+  // ---------- state ----------
+
+  private static Map<String, Baseline> loadBaselines(Connection c, UUID clientId, Set<String> cats) throws Exception {
+    Map<String, Baseline> out = new HashMap<>();
+    Array arr = c.createArrayOf("text", cats.toArray());
+    try {
+      many(c, """
+        SELECT category, n, mean, var, week, week_cents, weeks, week_mean, week_var, flagged_week
+          FROM anomaly_baseline
+         WHERE client_id = ?::uuid AND category = ANY(?)
+        """, rs -> out.put(rs.getString(1), baseline(rs)), clientId, arr);
+    } finally {
+      arr.free();
+    }
+    return out;
+  }
+
+  private static Baseline baseline(ResultSet rs) throws SQLException {
+    Baseline b = new Baseline(rs.getString(1));
+    b.n = rs.getInt(2);
+    b.mean = rs.getDouble(3);
+    b.var = rs.getDouble(4);
+    b.week = rs.getInt(5);
+    b.weekCents = rs.getLong(6);
+    b.weeks = rs.getInt(7);
+    b.weekMean = rs.getDouble(8);
+    b.weekVar = rs.getDouble(9);
+    b.flaggedWeek = rs.getInt(10);
+    return b;
+  }
+
+  private static MerchantSketch loadSketch(Connection c, UUID clientId) throws Exception {
+    MerchantSketch s = one(c, "SELECT bits, merchants FROM anomaly_merchants WHERE client_id = ?::uuid",
+        rs -> new MerchantSketch(rs.getBytes(1), rs.getInt(2)), clientId);
+    return s != null ? s : new MerchantSketch();
+  }
+
+  private static void saveBaselines(Connection c, UUID clientId, Iterable<Baseline> base) throws Exception {
+    try (PreparedStatement ps = c.prepareStatement("""
+          INSERT INTO anomaly_baseline
+            (client_id, category, n, mean, var, week, week_cents, weeks, week_mean, week_var, flagged_week, updated_at)
+          VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, NOW())
+          ON CONFLICT (client_id, category) DO UPDATE
+            SET n = EXCLUDED.n, mean = EXCLUDED.mean, var = EXCLUDED.var, week = EXCLUDED.week,
+                week_cents = EXCLUDED.week_cents, weeks = EXCLUDED.weeks, week_mean = EXCLUDED.week_mean,
+                week_var = EXCLUDED.week_var, flagged_week = EXCLUDED.flagged_week, updated_at = NOW()
+          """)) {
+      int rows = 0;
+      for (Baseline b : base) {
+        if (!b.dirty) continue;
+        ps.setObject(1, clientId);
+        ps.setString(2, b.category);
+        ps.setInt(3, b.n);
+        ps.setDouble(4, b.mean);
+        ps.setDouble(5, b.var);
+        ps.setInt(6, b.week);
+        ps.setLong(7, b.weekCents);
+        ps.setInt(8, b.weeks);
+        ps.setDouble(9, b.weekMean);
+        ps.setDouble(10, b.weekVar);
+        ps.setInt(11, b.flaggedWeek);
+        ps.addBatch();
+        rows++;
+      }
+      if (rows > 0) ps.executeBatch();
+    }
+  }
+
+  private static void saveFlags(Connection c, List<Pending> flags) throws Exception {
+    try (PreparedStatement ps = c.prepareStatement("""
+          INSERT INTO anomaly_flags (client_id, kind, plaid_tx_id, post_date, merchant_norm, category, amount_cents,
+                                     score, detail)
+          VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+          """)) {
+      for (Pending f : flags) {
+        ps.setObject(1, f.clientId());
+        ps.setString(2, f.kind());
+        ps.setString(3, f.tx().plaidTxId());
+        ps.setObject(4, f.tx().post());
+        ps.setString(5, f.tx().merchantNorm());
+        ps.setString(6, f.tx().category());
+        ps.setInt(7, f.tx().amountCents());
+        ps.setDouble(8, Math.round(f.score() * 100) / 100.0);
+        ps.setString(9, f.detail());
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    }
+  }
+
+  // ---------- reads ----------
+
+  /** Flags raised for clientId in the last `days` days, newest first (training its state on first use). */
+  public static List<Flag> list(UUID clientId, int days, int limit) throws Exception {
+    if (!BUILT.contains(clientId)) {
+      withTx(c -> {
+        lock(c, clientId);
+        if (!isBuilt(c, clientId)) train(c, clientId, false);
+      });
+    }
+    return withConn(c -> {
+      return many(c, """
+        SELECT id, kind, plaid_tx_id, post_date, merchant_norm, category, amount_cents, score, detail, created_at
+          FROM anomaly_flags
+         WHERE client_id = ?::uuid
+           AND created_at >= NOW() - make_interval(days => ?)
+         ORDER BY created_at DESC, id DESC
+         LIMIT ?
+        """, rs -> new Flag(rs.getLong(1), rs.getString(2), rs.getString(3), String.valueOf(rs.getObject(4, LocalDate.class)),
+          rs.getString(5), rs.getString(6), rs.getInt(7), rs.getDouble(8), rs.getString(9),
+          rs.getTimestamp(10).toInstant().toString()), clientId, days, limit);
+    });
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0 || !"rebuild".equals(args[0])) {
+      System.err.println("usage: AnomalyDetector rebuild [client_id]");
+      return;
+    }
+    List<UUID> clients = args.length > 1 ? List.of(UUID.fromString(args[1]))
+        : withConn(c -> { return many(c, "SELECT client_id FROM client", rs -> rs.getObject(1, UUID.class)); });
+    for (UUID cid : clients) System.out.println(cid + " baselines=" + rebuild(cid));
+  }
+}
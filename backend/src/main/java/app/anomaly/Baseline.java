@@ -0,0 +1,88 @@
+package app.anomaly;
+
+/**
+ * Streaming spend statistics for one (client, category) — category "*" is the client as a whole —
+ * in a fixed handful of numbers (a row of anomaly_baseline):
+ *   - exponentially weighted mean/variance of single outflows, fed winsorized so one huge charge
+ *     doesn't widen the band enough to hide the next one;
+ *   - spend in the current week (Monday start) and an EW mean/variance of completed weeks, rolled
+ *     forward (with zero weeks for gaps) when a later week shows up.
+ * Charges from weeks before the current one update the per-charge stats only.
+ */
+final class Baseline {
+
+  static final int MAX_EMPTY_WEEKS = 8;   // zero weeks folded in per roll; older gaps are ignored
+  static final int NO_WEEK = Integer.MIN_VALUE;
+
+  final String category;
+  int n;
+  double mean, var;
+  int week = NO_WEEK;  // Monday-based week index of weekCents
+  long weekCents;
+  int weeks;           // completed weeks folded into weekMean/weekVar
+  double weekMean, weekVar;
+  int flaggedWeek = NO_WEEK;
+  boolean dirty;
+
+  Baseline(String category) {
+    this.category = category;
+  }
+
+  static int weekOf(int epochDay) {
+    return Math.floorDiv(epochDay + 3, 7);   // 1970-01-01 was a Thursday
+  }
+
+  double sd() { return Math.sqrt(Math.max(var, 0)); }
+  double weekSd() { return Math.sqrt(Math.max(weekVar, 0)); }
+
+  /** How far cents sits above the usual charge, in (floored) standard deviations. */
+  double z(int cents) {
+    double scale = Math.max(sd(), Math.max(mean * 0.1, 100));
+    return (cents - mean) / scale;
+  }
+
+  void observe(int cents, double alpha, double clipZ) {
+    double x = cents;
+    if (n >= 10) x = Math.min(x, mean + clipZ * Math.max(sd(), 100));
+    if (n == 0) {
+      mean = x;
+      var = 0;
+    } else {
+      double diff = x - mean;
+      double incr = alpha * diff;
+      mean += incr;
+      var = (1 - alpha) * (var + diff * incr);
+    }
+    n++;
+    dirty = true;
+  }
+
+  /** Add to the week's spend; returns false for a charge from an already closed week. */
+  boolean addToWeek(int epochDay, int cents, double alpha) {
+    int w = weekOf(epochDay);
+    if (week == NO_WEEK) week = w;
+    if (w < week) return false;
+    if (w > week) {
+      roll(weekCents, alpha);
+      for (int k = 1; k < Math.min(w - week, MAX_EMPTY_WEEKS + 1); k++) roll(0, alpha);
+      week = w;
+      weekCents = 0;
+    }
+    weekCents += cents;
+    dirty = true;
+    return true;
+  }
+
+  private void roll(long cents, double alpha) {
+    if (weeks == 0) {
+      weekMean = cents;
+      weekVar = 0;
+    } else {
+      double diff = cents - weekMean;
+      double incr = alpha * diff;
+      weekMean += incr;
+      weekVar = (1 - alpha) * (weekVar + diff * incr);
+    }
+    weeks++;
+  }
+}
@@ -0,0 +1,133 @@
+package app.budget;
+
+import app.plaid.TxUpsertService.Change;
+import app.plaid.TxUpsertService.Image;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static app.common.Db.*;
+
+/**
+ * spend_rollup: posted spend per (client_id, category, month).
+ * Kept current by applying each write's before/after images as deltas (in the writer's transaction),
+ * with a full rebuild/reconcile for backfills or drift. Pending rows and rows without a post_date
+ * don't count, matching the "posted only" rule the budgets endpoint always intended.
+ *
+ * Command line: java -cp app.jar app.budget.SpendRollup rebuild|reconcile [clientId]
+ */
+public final class SpendRollup {
+
+  private SpendRollup() { /* no instances */ }
+
+  private record Key(UUID clientId, String category, LocalDate month) {}
+
+  private static final class Delta { long cents; int count; }
+
+  /** Apply the net effect of these changes; caller owns the transaction. */
+  public static void apply(Connection c, List<Change> changes) throws Exception {
+    if (changes.isEmpty()) return;
+    Map<Key, Delta> deltas = new HashMap<>();
+    for (Change ch : changes) {
+      add(deltas, ch.before(), -1);
+      add(deltas, ch.after(), +1);
+    }
+    deltas.values().removeIf(d -> d.cents == 0 && d.count == 0);
+    if (deltas.isEmpty()) return;
+
+    try (PreparedStatement ps = c.prepareStatement("""
+      INSERT INTO spend_rollup (client_id, category, month, spend_cents, tx_count)
+      VALUES (?, ?, ?, ?, ?)
+      ON CONFLICT (client_id, category, month) DO UPDATE
+        SET spend_cents = spend_rollup.spend_cents + EXCLUDED.spend_cents,
+            tx_count    = spend_rollup.tx_count + EXCLUDED.tx_count
+    """)) {
+      for (var e : deltas.entrySet()) {
+        ps.setObject(1, e.getKey().clientId());
+        ps.setString(2, e.getKey().category());
+        ps.setObject(3, e.getKey().month());
+        ps.setLong(4, e.getValue().cents);
+        ps.setInt(5, e.getValue().count);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    }
+  }
+
+  private static void add(Map<Key, Delta> deltas, Image im, int sign) {
+    if (im == null || im.pending() || im.post() == null || im.category() == null) return;
+    Delta d = deltas.computeIfAbsent(new Key(im.clientId(), im.category(), im.post().withDayOfMonth(1)), k -> new Delta());
+    d.cents += sign * (long) im.amountCents();
+    d.count += sign;
+  }
+
+  /** Recompute the rollup from transactions for one client (or everyone if clientId is null). */
+  public static int rebuild(Connection c, UUID clientId) throws Exception {
+    return inTx(c, () -> {
+      // Block incremental writers so the recomputed totals can't miss an in-flight delta.
+      exec(c, "LOCK TABLE spend_rollup IN SHARE ROW EXCLUSIVE MODE");
+      exec(c, "DELETE FROM spend_rollup WHERE (?::uuid IS NULL OR client_id = ?::uuid)", clientId, clientId);
+      return exec(c, """
+        INSERT INTO spend_rollup (client_id, category, month, spend_cents, tx_count)
+        SELECT client_id, category, date_trunc('month', post_date)::date, SUM(amount_cents), COUNT(*)
+          FROM transactions
+         WHERE (?::uuid IS NULL OR client_id = ?::uuid)
+           AND post_date IS NOT NULL
+           AND lower(COALESCE(status, '')) <> 'pending'
+         GROUP BY 1, 2, 3
+      """, clientId, clientId);
+    });
+  }
+
+  /** Fix rollup rows that disagree with transactions; returns how many (client, category, month) keys drifted. */
+  public static int reconcile(Connection c, UUID clientId) throws Exception {
+    return inTx(c, () -> {
+      exec(c, "LOCK TABLE spend_rollup IN SHARE ROW EXCLUSIVE MODE");
+      exec(c, """
+        CREATE TEMP TABLE rollup_truth ON COMMIT DROP AS
+        SELECT client_id, category, date_trunc('month', post_date)::date AS month,
+               SUM(amount_cents)::bigint AS spend_cents, COUNT(*)::int AS tx_count
+          FROM transactions
+         WHERE (?::uuid IS NULL OR client_id = ?::uuid)
+           AND post_date IS NOT NULL
+           AND lower(COALESCE(status, '')) <> 'pending'
+         GROUP BY 1, 2, 3
+      """, clientId, clientId);
+      int stale = exec(c, """
+        DELETE FROM spend_rollup r
+         WHERE (?::uuid IS NULL OR r.client_id = ?::uuid)
+           AND NOT EXISTS (SELECT 1 FROM rollup_truth t
+                            WHERE t.client_id = r.client_id AND t.category = r.category AND t.month = r.month)
+      """, clientId, clientId);
+      int fixed = exec(c, """
+        INSERT INTO spend_rollup (client_id, category, month, spend_cents, tx_count)
+        SELECT t.client_id, t.category, t.month, t.spend_cents, t.tx_count
+          FROM rollup_truth t
+          LEFT JOIN spend_rollup r
+            ON r.client_id = t.client_id AND r.category = t.category AND r.month = t.month
+         WHERE r.client_id IS NULL OR r.spend_cents <> t.spend_cents OR r.tx_count <> t.tx_count
+        ON CONFLICT (client_id, category, month) DO UPDATE
+          SET spend_cents = EXCLUDED.spend_cents,
+              tx_count    = EXCLUDED.tx_count
+      """);
+      return stale + fixed;
+    });
+  }
+
+  public static void main(String[] args) throws Exception {
+    String cmd = args.length > 0 ? args[0] : "";
+    UUID clientId = args.length > 1 ? UUID.fromString(args[1]) : null;
+    withConn(c -> {
+      switch (cmd) {
+        case "rebuild"   -> System.out.println("rebuilt rows: " + rebuild(c, clientId));
+        case "reconcile" -> System.out.println("drifted keys: " + reconcile(c, clientId));
+        default          -> System.err.println("usage: SpendRollup rebuild|reconcile [clientId]");
+      }
+    });
+  }
+}
@@ -0,0 +1,181 @@
+package app.categories;
+
+import app.categories.CategoryRules.Rule;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One rule set compiled into an Aho–Corasick automaton over merchant_norm's alphabet ([a-z0-9 ],
+ * see TxUpsertService.norm), with every goto/failure step folded into a dense transition table.
+ * Classifying a merchant is one table lookup per character plus a visit to each pattern that
+ * actually occurs in it, however many rules there are.
+ *
+ * Rules must arrive in precedence order (CategoryRules.ORDER); that index is a rule's rank, and the
+ * first rank whose account/amount filters pass wins. Rules with an empty pattern match any merchant.
+ */
+final class CategoryMatcher {
+
+  static final int SIGMA = 37;
+  private static final byte[] CODE = new byte[0x80];
+  static {
+    Arrays.fill(CODE, (byte) -1);
+    for (char c = 'a'; c <= 'z'; c++) CODE[c] = (byte) (c - 'a');
+    for (char c = '0'; c <= '9'; c++) CODE[c] = (byte) (26 + c - '0');
+    CODE[' '] = 36;
+  }
+
+  static final CategoryMatcher EMPTY = new CategoryMatcher(List.of());
+
+  // per rule, by rank
+  private final long[] ids;
+  private final String[] categories;
+  private final byte[] kinds;
+  private final int[] lens;
+  private final long[] accounts;      // 0 = any account
+  private final int[] minCents, maxCents;
+  private final int[] always;         // ranks of empty-pattern rules, ascending
+
+  // automaton
+  private final int[] next;           // state * SIGMA + code -> state
+  private final int[] dict;           // nearest proper-suffix state that ends a pattern (0 = none)
+  private final int[] outStart;       // outRules[outStart[s] .. outStart[s + 1]) end at state s
+  private final int[] outRules;
+  private final int states;
+
+  CategoryMatcher(List<Rule> rules) {
+    int n = rules.size();
+    ids = new long[n];
+    categories = new String[n];
+    kinds = new byte[n];
+    lens = new int[n];
+    accounts = new long[n];
+    minCents = new int[n];
+    maxCents = new int[n];
+    int[] terminal = new int[n];
+    int[] alwaysBuf = new int[n];
+    int nAlways = 0;
+
+    int chars = 0;
+    for (Rule r : rules) chars += r.pattern().length();
+    int[] trie = new int[(chars + 1) * SIGMA];
+    int count = 1;
+
+    for (int i = 0; i < n; i++) {
+      Rule r = rules.get(i);
+      ids[i] = r.id();
+      categories[i] = r.category();
+      kinds[i] = CategoryRules.kind(r.match());
+      accounts[i] = r.accountId() == null ? 0 : r.accountId();
+      minCents[i] = r.minCents() == null ? Integer.MIN_VALUE : r.minCents();
+      maxCents[i] = r.maxCents() == null ? Integer.MAX_VALUE : r.maxCents();
+      String p = r.pattern();
+      lens[i] = p.length();
+      if (p.isEmpty()) {
+        alwaysBuf[nAlways++] = i;
+        terminal[i] = -1;
+        continue;
+      }
+      int s = 0;
+      for (int k = 0; k < p.length(); k++) {
+        int code = code(p.charAt(k));
+        if (code < 0) throw new IllegalArgumentException("pattern not normalized: " + p);
+        int t = trie[s * SIGMA + code];
+        if (t == 0) {
+          t = count++;
+          trie[s * SIGMA + code] = t;
+        }
+        s = t;
+      }
+      terminal[i] = s;
+    }
+    always = Arrays.copyOf(alwaysBuf, nAlways);
+    states = count;
+    next = count * SIGMA == trie.length ? trie : Arrays.copyOf(trie, count * SIGMA);
+
+    // outputs per state in rank order (CSR)
+    outStart = new int[count + 1];
+    for (int t : terminal) if (t > 0) outStart[t + 1]++;
+    for (int s = 0; s < count; s++) outStart[s + 1] += outStart[s];
+    outRules = new int[outStart[count]];
+    int[] fill = Arrays.copyOf(outStart, count);
+    for (int i = 0; i < n; i++) if (terminal[i] > 0) outRules[fill[terminal[i]]++] = i;
+
+    // BFS: failure links, then fold them into next[] so matching never backtracks
+    int[] fail = new int[count];
+    dict = new int[count];
+    int[] queue = new int[count];
+    int head = 0, tail = 0;
+    for (int c = 0; c < SIGMA; c++) {
+      int t = next[c];
+      if (t != 0) queue[tail++] = t;   // depth 1: fail = root
+    }
+    while (head < tail) {
+      int s = queue[head++];
+      int f = fail[s];
+      dict[s] = ends(f) ? f : dict[f];
+      for (int c = 0; c < SIGMA; c++) {
+        int t = next[s * SIGMA + c];
+        if (t != 0) {
+          fail[t] = next[f * SIGMA + c];
+          queue[tail++] = t;
+        } else {
+          next[s * SIGMA + c] = next[f * SIGMA + c];
+        }
+      }
+    }
+  }
+
+  int rules() { return ids.length; }
+  int states() { return states; }
+
+  long ruleId(int rank) { return ids[rank]; }
+  String category(int rank) { return categories[rank]; }
+
+  /** Rank of the winning rule for this transaction, or -1. merchantNorm may be null. */
+  int match(String merchantNorm, long accountId, int amountCents) {
+    int best = -1;
+    for (int r : always) {
+      if (passes(r, accountId, amountCents)) { best = r; break; }
+    }
+    if (merchantNorm == null || outRules.length == 0) return best;
+
+    int n = merchantNorm.length();
+    int s = 0;
+    for (int i = 0; i < n; i++) {
+      int code = code(merchantNorm.charAt(i));
+      if (code < 0) { s = 0; continue; }
+      s = next[s * SIGMA + code];
+      for (int o = ends(s) ? s : dict[s]; o != 0; o = dict[o]) {
+        for (int k = outStart[o]; k < outStart[o + 1]; k++) {
+          int r = outRules[k];
+          if (best >= 0 && r >= best) break;   // rank-ordered: nothing better at this state
+          if (placed(r, merchantNorm, i, n) && passes(r, accountId, amountCents)) { best = r; break; }
+        }
+      }
+    }
+    return best;
+  }
+
+  private boolean ends(int s) { return outStart[s + 1] > outStart[s]; }
+
+  private boolean passes(int r, long accountId, int amountCents) {
+    return (accounts[r] == 0 || accounts[r] == accountId)
+        && amountCents >= minCents[r] && amountCents <= maxCents[r];
+  }
+
+  /** Does the occurrence ending at index end satisfy the rule's match kind? */
+  private boolean placed(int r, String m, int end, int n) {
+    int start = end - lens[r] + 1;
+    return switch (kinds[r]) {
+      case CategoryRules.PREFIX -> start == 0;
+      case CategoryRules.EXACT  -> start == 0 && end == n - 1;
+      case CategoryRules.WORD   -> (start == 0 || m.charAt(start - 1) == ' ') && (end == n - 1 || m.charAt(end + 1) == ' ');
+      default                   -> true;   // substring
+    };
+  }
+
+  private static int code(char ch) {
+    return ch < 0x80 ? CODE[ch] : -1;
+  }
+}
@@ -0,0 +1,244 @@
+package app.categories;
+
+import app.common.Env;
+import app.common.Metrics;
+import app.plaid.TxUpsertService;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static app.common.Db.*;
+
+/**
+ * Category overrides on top of the category a transaction arrives with (Plaid's primary category,
+ * or the CSV's), kept in category_rules; client_id NULL marks a global rule. A rule matches
+ * merchant_norm (word, prefix, exact or substring), optionally narrowed to one account and an
+ * amount_cents range, and sets category. A client's own rules are consulted before the global
+ * ones; within a set the lower priority wins, then the longer pattern, then the older rule.
+ *
+ * Ingest (TxUpsertService, TxImportService) classifies through forClient(), which reuses each
+ * compiled CategoryMatcher for category_rules_ttl_ms. Adding or deleting a rule queues the client
+ * (every client, for a global rule) for RecategorizeJob, which reapplies the rules to history and
+ * re-checks it once the TTL has passed, for rows other containers ingested with the old rules.
+ *
+ * Global rules are managed from the command line:
+ *   java -cp app.jar app.categories.CategoryRules list-global
+ *   java -cp app.jar app.categories.CategoryRules add-global <match> <pattern> <category> [priority]
+ *   java -cp app.jar app.categories.CategoryRules delete-global <id>
+ *
+ * Env vars (optional):
+ *   category_rules_ttl_ms      = how long a compiled rule set is reused (default 60000)
+ *   category_rules_max_clients = client rule sets kept compiled (default 1024)
+ */
+public final class CategoryRules {
+
+  private CategoryRules() { /* no instances */ }
+
+  static final long TTL_MS      = Math.max(0, Env.longOr("category_rules_ttl_ms", 60_000));
+  static final int MAX_CLIENTS  = Math.max(1, Env.intOr("category_rules_max_clients", 1024));
+  static final int DEFAULT_PRIORITY = 100;
+
+  static final byte WORD = 0, PREFIX = 1, EXACT = 2, SUBSTRING = 3;
+  static final List<String> KINDS = List.of("word", "prefix", "exact", "substring");
+
+  /** accountId, minCents and maxCents are optional filters; an empty pattern matches any merchant. */
+  public record Rule(long id, UUID clientId, String match, String pattern, Long accountId,
+                     Integer minCents, Integer maxCents, String category, int priority) {}
+
+  /** Bad rule input the caller should see as a 400. */
+  public static class RuleException extends Exception {
+    RuleException(String msg) { super(msg); }
+  }
+
+  /** Precedence within one rule set; CategoryMatcher ranks rules in this order. */
+  static final Comparator<Rule> ORDER = Comparator.comparingInt(Rule::priority)
+      .thenComparingInt(r -> -r.pattern().length())
+      .thenComparingLong(Rule::id);
+
+  static byte kind(String match) {
+    int k = KINDS.indexOf(match);
+    return k < 0 ? WORD : (byte) k;
+  }
+
+  /** One client's rules followed by the global ones. Cheap to hold for a whole ingest run. */
+  public static final class Classifier {
+    public static final Classifier NONE = new Classifier(CategoryMatcher.EMPTY, CategoryMatcher.EMPTY);
+
+    private final CategoryMatcher client;
+    private final CategoryMatcher global;
+
+    Classifier(CategoryMatcher client, CategoryMatcher global) {
+      this.client = client;
+      this.global = global;
+    }
+
+    /** Category for one transaction (accountId 0 = no account), or fallback when no rule matches. */
+    public String categorize(long accountId, int amountCents, String merchantNorm, String fallback) {
+      int r = client.match(merchantNorm, accountId, amountCents);
+      if (r >= 0) return client.category(r);
+      r = global.match(merchantNorm, accountId, amountCents);
+      return r >= 0 ? global.category(r) : fallback;
+    }
+
+    int rules() { return client.rules() + global.rules(); }
+  }
+
+  private record Cached(CategoryMatcher matcher, long loadedAt) {}
+
+  private static volatile Cached global;
+  private static final Map<UUID, Cached> CLIENTS = new ConcurrentHashMap<>();
+
+  /** Compiled rules for clientId, reloading whichever set is older than category_rules_ttl_ms. */
+  public static Classifier forClient(Connection c, UUID clientId) throws Exception {
+    long now = System.currentTimeMillis();
+    Cached g = global;
+    if (g == null || now - g.loadedAt() > TTL_MS) global = g = new Cached(compile(c, null), now);
+    Cached m = CLIENTS.get(clientId);
+    if (m == null || now - m.loadedAt() > TTL_MS) {
+      m = new Cached(compile(c, clientId), now);
+      if (CLIENTS.size() >= MAX_CLIENTS) CLIENTS.clear();
+      CLIENTS.put(clientId, m);
+    }
+    return new Classifier(m.matcher(), g.matcher());
+  }
+
+  /** Read and compile straight from category_rules, bypassing the cache. */
+  static Classifier fresh(Connection c, UUID clientId) throws Exception {
+    return new Classifier(compile(c, clientId), compile(c, null));
+  }
+
+  /** Drop one client's compiled rules, or everything (global set included) with null. */
+  public static void invalidate(UUID clientId) {
+    if (clientId == null) {
+      CLIENTS.clear();
+      global = null;
+    } else {
+      CLIENTS.remove(clientId);
+    }
+  }
+
+  private static CategoryMatcher compile(Connection c, UUID clientId) throws Exception {
+    long t0 = System.nanoTime();
+    List<Rule> rules = load(c, clientId);
+    if (rules.isEmpty()) return CategoryMatcher.EMPTY;
+    rules.sort(ORDER);
+    CategoryMatcher m = new CategoryMatcher(rules);
+    Metrics.since("category_rules.compile", t0);
+    Metrics.sample("category_rules.states", m.states());
+    return m;
+  }
+
+  private static final String COLS =
+      "id, client_id, match_kind, pattern, account_id, min_cents, max_cents, category, priority";
+
+  private static List<Rule> load(Connection c, UUID clientId) throws Exception {
+    return clientId == null
+        ? many(c, "SELECT " + COLS + " FROM category_rules WHERE client_id IS NULL", CategoryRules::rule)
+        : many(c, "SELECT " + COLS + " FROM category_rules WHERE client_id = ?::uuid", CategoryRules::rule, clientId);
+  }
+
+  private static Rule rule(ResultSet rs) throws SQLException {
+    return new Rule(rs.getLong(1), rs.getObject(2, UUID.class), rs.getString(3), rs.getString(4),
+        rs.getObject(5, Long.class), rs.getObject(6, Integer.class), rs.getObject(7, Integer.class),
+        rs.getString(8), rs.getInt(9));
+  }
+
+  // ---------- management ----------
+
+  /** The client's rules in precedence order, then the global ones. */
+  public static List<Rule> list(UUID clientId) throws Exception {
+    return withConn(c -> {
+      List<Rule> own = load(c, clientId);
+      List<Rule> shared = load(c, null);
+      own.sort(ORDER);
+      shared.sort(ORDER);
+      List<Rule> out = new ArrayList<>(own.size() + shared.size());
+      out.addAll(own);
+      out.addAll(shared);
+      return out;
+    });
+  }
+
+  /**
+   * Validate, normalize and store a rule for clientId (null = global), and queue the affected
+   * clients for re-categorization in the same transaction. Returns the stored rule.
+   */
+  public static Rule add(UUID clientId, String match, String pattern, Long accountId, Integer minCents,
+                         Integer maxCents, String category, Integer priority) throws Exception {
+    String kind = match == null || match.isBlank() ? "word" : match.strip().toLowerCase(Locale.ROOT);
+    if (!KINDS.contains(kind)) throw new RuleException("match must be one of " + KINDS);
+    String p = pattern == null ? "" : TxUpsertService.norm(pattern);
+    String cat = category == null ? "" : category.strip();
+    if (cat.isEmpty()) throw new RuleException("category required");
+    if (p.isEmpty() && accountId == null && minCents == null && maxCents == null) {
+      throw new RuleException("a rule without a pattern needs account_id or an amount range");
+    }
+    if (minCents != null && maxCents != null && minCents > maxCents) {
+      throw new RuleException("min_cents is greater than max_cents");
+    }
+    if (clientId == null && accountId != null) throw new RuleException("global rules can't name an account");
+    int prio = priority == null ? DEFAULT_PRIORITY : priority;
+
+    Rule stored = withTx(c -> {
+      if (clientId != null) {
+        if (accountId != null && one(c, "SELECT 1 FROM accounts WHERE id = ? AND client_id = ?::uuid",
+            rs -> 1, accountId, clientId) == null) {
+          throw new RuleException("account_id " + accountId + " not found for client");
+        }
+        exec(c, "INSERT INTO client (client_id) VALUES (?::uuid) ON CONFLICT (client_id) DO NOTHING", clientId);
+      }
+      Rule r = one(c, """
+        INSERT INTO category_rules (client_id, match_kind, pattern, account_id, min_cents, max_cents, category, priority)
+        VALUES (?::uuid, ?, ?, ?, ?, ?, ?, ?)
+        RETURNING\s""" + COLS,
+          CategoryRules::rule, clientId, kind, p, accountId, minCents, maxCents, cat, prio);
+      RecategorizeJob.enqueue(c, clientId);
+      return r;
+    });
+    invalidate(clientId);
+    return stored;
+  }
+
+  /** Delete one of clientId's rules (null = a global rule); true if it existed. */
+  public static boolean delete(UUID clientId, long ruleId) throws Exception {
+    boolean deleted = withTx(c -> {
+      int n = clientId == null
+          ? exec(c, "DELETE FROM category_rules WHERE id = ? AND client_id IS NULL", ruleId)
+          : exec(c, "DELETE FROM category_rules WHERE id = ? AND client_id = ?::uuid", ruleId, clientId);
+      if (n > 0) RecategorizeJob.enqueue(c, clientId);
+      return n > 0;
+    });
+    if (deleted) invalidate(clientId);
+    return deleted;
+  }
+
+  public static void main(String[] args) throws Exception {
+    String cmd = args.length == 0 ? "" : args[0];
+    switch (cmd) {
+      case "list-global" -> {
+        List<Rule> rules = withConn(c -> { return load(c, null); });
+        rules.sort(ORDER);
+        rules.forEach(System.out::println);
+      }
+      case "add-global" -> {
+        if (args.length < 4) throw new IllegalArgumentException("add-global <match> <pattern> <category> [priority]");
+        System.out.println(add(null, args[1], args[2], null, null, null, args[3],
+            args.length > 4 ? Integer.valueOf(args[4]) : null));
+      }
+      case "delete-global" -> {
+        if (args.length < 2) throw new IllegalArgumentException("delete-global <id>");
+        System.out.println(delete(null, Long.parseLong(args[1])) ? "deleted" : "not found");
+      }
+      default -> System.err.println("usage: CategoryRules list-global | add-global <match> <pattern> <category> [priority]"
+          + " | delete-global <id>");
+    }
+  }
+}
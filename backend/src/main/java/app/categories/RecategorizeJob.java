@@ -0,0 +1,265 @@
+package app.categories;
+
+import app.budget.SpendRollup;
+import app.common.Env;
+import app.common.Metrics;
+import app.insights.InsightsEngine;
+import app.plaid.TxUpsertService;
+import app.plaid.TxUpsertService.Change;
+import app.plaid.TxUpsertService.Image;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static app.common.Db.*;
+
+/**
+ * Reapplies category rules to stored history after they change. A rule edit queues the client in
+ * recategorize_queue, which bumps its generation and rewinds its cursor. The job claims queued
+ * clients and walks their transactions in id order, recategorize_batch_rows at a time. Each batch
+ * is one transaction: it rewrites the categories that changed, applies the deltas to spend_rollup
+ * and checkpoints the cursor. The input is category_raw (the category as ingested), so deleting a
+ * rule restores what Plaid or the CSV said. If the rules change mid-pass, the checkpoint sees the
+ * new generation and the client starts over with the new rules.
+ *
+ * Other containers keep the old compiled rules for up to category_rules_ttl_ms and may ingest rows
+ * with them meanwhile. A pass that finishes inside that window (plus SETTLE_SLACK_MS for ingest
+ * transactions still open) keeps the queue row, rewound and leased until the window closes. A second
+ * pass then catches those rows.
+ *
+ * Runs as a scheduled Lambda (handler app.categories.RecategorizeJob::handleRequest) or via main().
+ * The rules API also drains the edited client inline for up to recategorize_inline_ms, so small
+ * histories are done before it responds.
+ *
+ * Env vars (optional):
+ *   recategorize_batch_rows = transactions per batch (default 5000)
+ *   recategorize_inline_ms  = time the rules API spends re-categorizing before it returns (default 3000)
+ */
+public class RecategorizeJob implements RequestHandler<Map<String,Object>, Map<String,Object>> {
+
+  static final int BATCH_ROWS     = Math.max(1, Env.intOr("recategorize_batch_rows", 5_000));
+  public static final long INLINE_MS = Math.max(0, Env.longOr("recategorize_inline_ms", 3_000));
+  static final int LEASE_SECS     = 120;   // extended by every checkpoint
+  static final long SAFETY_MS     = 5_000;
+  static final long SETTLE_SLACK_MS = 60_000;
+  /** How long after a rule change rows may still be ingested with the old rules. */
+  static final long SETTLE_MS     = CategoryRules.TTL_MS + SETTLE_SLACK_MS;
+
+  /** One invocation's work; pending = clients still queued when it stopped. */
+  public record Report(int clients, int finished, long scanned, long changed, int batches, int pending,
+                       long elapsedMs, long rowsPerSec) {}
+
+  private record Claimed(UUID clientId, long generation, long cursor) {}
+
+  /**
+   * current = false when a newer generation superseded the pass (or finished = true ended it);
+   * recheck = the pass ended inside the settle window and is queued again for after it.
+   */
+  private record Batch(int rows, int changed, long lastId, boolean current, boolean finished, boolean recheck) {}
+
+  @Override
+  public Map<String,Object> handleRequest(Map<String,Object> in, Context ctx) {
+    long budget = ctx == null ? 600_000 : ctx.getRemainingTimeInMillis() - SAFETY_MS;
+    Consumer<String> log = ctx == null ? System.out::println : s -> ctx.getLogger().log(s + "\n");
+    try {
+      Report r = run(budget, log);
+      log.accept("[Recategorize] " + r);
+      Map<String,Object> out = new LinkedHashMap<>();
+      out.put("ok", true);
+      out.put("report", r);
+      return out;
+    } catch (Exception e) {
+      log.accept("[Recategorize] fatal error: " + e);
+      return Map.of("ok", false, "error", String.valueOf(e.getMessage()));
+    }
+  }
+
+  /** Work through queued clients, oldest request first, until the queue is empty or budgetMs is spent. */
+  public static Report run(long budgetMs, Consumer<String> log) throws Exception {
+    return drain(null, budgetMs, log);
+  }
+
+  /** Like run(), limited to one client (null = any). */
+  public static Report drain(UUID only, long budgetMs, Consumer<String> log) throws Exception {
+    long t0 = System.currentTimeMillis();
+    long deadline = t0 + Math.max(0, budgetMs);
+    int clients = 0, finished = 0, batches = 0;
+    long scanned = 0, changed = 0;
+
+    while (System.currentTimeMillis() < deadline) {
+      Claimed q = claim(only);
+      if (q == null) break;
+      clients++;
+      CategoryRules.Classifier rules = withConn(c -> { return CategoryRules.fresh(c, q.clientId()); });
+      long cursor = q.cursor(), clientChanged = 0;
+      Batch b = null;
+      while (System.currentTimeMillis() < deadline) {
+        b = batch(q, cursor, rules);
+        batches++;
+        scanned += b.rows();
+        changed += b.changed();
+        clientChanged += b.changed();
+        cursor = b.lastId();
+        if (b.finished() || b.recheck() || !b.current()) break;
+      }
+      if (clientChanged > 0) InsightsEngine.invalidate(q.clientId());
+      String state;
+      if (b != null && b.finished()) {
+        finished++;
+        state = "done";
+      } else if (b != null && b.recheck()) {
+        state = "recheck";   // leased until the settle window closes; don't release
+      } else {
+        // out of time, or rules changed mid-pass: either way the next claim should not wait out the lease
+        release(q.clientId());
+        state = b != null && !b.current() ? "superseded" : "paused";
+      }
+      log.accept("[Recategorize] client=" + q.clientId() + " rules=" + rules.rules() + " cursor=" + cursor
+          + " changed=" + clientChanged + " " + state);
+    }
+
+    int pending = withConn(c -> {
+      return only == null
+          ? one(c, "SELECT count(*)::int FROM recategorize_queue", rs -> rs.getInt(1))
+          : one(c, "SELECT count(*)::int FROM recategorize_queue WHERE client_id = ?::uuid", rs -> rs.getInt(1), only);
+    });
+    long elapsed = System.currentTimeMillis() - t0;
+    Metrics.timing("recategorize.invocation", elapsed * 1_000_000);
+    Metrics.count("recategorize.changed", changed);
+    return new Report(clients, finished, scanned, changed, batches, pending, elapsed,
+        elapsed == 0 ? scanned : scanned * 1000 / elapsed);
+  }
+
+  /** Queue clientId (null = every client) for a pass with the current rules, restarting any pass in flight. */
+  static void enqueue(Connection c, UUID clientId) throws Exception {
+    String upsert = """
+      ON CONFLICT (client_id) DO UPDATE
+        SET generation   = recategorize_queue.generation + 1,
+            requested_at = NOW(),
+            cursor_id    = 0,
+            rows_scanned = 0,
+            rows_changed = 0
+      """;
+    if (clientId == null) {
+      exec(c, "INSERT INTO recategorize_queue (client_id) SELECT client_id FROM client " + upsert);
+    } else {
+      exec(c, "INSERT INTO recategorize_queue (client_id) VALUES (?::uuid) " + upsert, clientId);
+    }
+  }
+
+  /** Lease the oldest unleased queued client (or only that one); expired leases count as unleased. */
+  private static Claimed claim(UUID only) throws Exception {
+    return withConn(c -> {
+      return one(c, """
+        UPDATE recategorize_queue
+           SET locked_until = NOW() + make_interval(secs => ?)
+         WHERE client_id = (SELECT client_id FROM recategorize_queue
+                             WHERE (locked_until IS NULL OR locked_until < NOW())
+                               AND client_id = COALESCE(?::uuid, client_id)
+                             ORDER BY requested_at
+                             LIMIT 1
+                             FOR UPDATE SKIP LOCKED)
+        RETURNING client_id, generation, cursor_id
+        """, rs -> new Claimed(rs.getObject(1, UUID.class), rs.getLong(2), rs.getLong(3)), LEASE_SECS, only);
+    });
+  }
+
+  /** Give up the lease so the client can be claimed again right away (we hold it, so no one else has). */
+  private static void release(UUID clientId) throws Exception {
+    withConn(c -> {
+      exec(c, "UPDATE recategorize_queue SET locked_until = NULL WHERE client_id = ?::uuid", clientId);
+    });
+  }
+
+  /** Re-categorize the next batch after cursor and checkpoint it (or finish the pass) in one transaction. */
+  private static Batch batch(Claimed q, long cursor, CategoryRules.Classifier rules) throws Exception {
+    long t0 = System.nanoTime();
+    Batch b = withTx(c -> {
+      record Scanned(Image image, long id, String raw) {}
+      List<Scanned> rows = many(c, "SELECT " + TxUpsertService.IMAGE_COLS + ", id, category_raw" +
+          " FROM transactions WHERE client_id = ?::uuid AND id > ? ORDER BY id LIMIT ? FOR UPDATE",
+          rs -> new Scanned(TxUpsertService.image(rs), rs.getLong(9), rs.getString(10)),
+          q.clientId(), cursor, BATCH_ROWS);
+
+      List<Change> changes = new ArrayList<>();
+      List<Long> ids = new ArrayList<>();
+      List<String> cats = new ArrayList<>();
+      for (Scanned s : rows) {
+        Image im = s.image();
+        String raw = s.raw() != null ? s.raw() : im.category();
+        String cat = rules.categorize(im.accountId(), im.amountCents(), im.merchantNorm(), raw);
+        if (cat.equals(im.category())) continue;
+        ids.add(s.id());
+        cats.add(cat);
+        changes.add(new Change(im, new Image(im.clientId(), im.plaidTxId(), im.accountId(), cat, im.post(),
+            im.amountCents(), im.status(), im.merchantNorm())));
+      }
+      if (!ids.isEmpty()) {
+        Array ia = c.createArrayOf("bigint", ids.toArray());
+        Array ca = c.createArrayOf("text", cats.toArray());
+        try {
+          exec(c, """
+            UPDATE transactions t
+               SET category = u.category, updated_at = NOW()
+              FROM unnest(?::bigint[], ?::text[]) AS u(id, category)
+             WHERE t.id = u.id
+            """, ia, ca);
+        } finally {
+          ia.free();
+          ca.free();
+        }
+        SpendRollup.apply(c, changes);
+      }
+
+      long lastId = rows.isEmpty() ? cursor : rows.get(rows.size() - 1).id();
+      boolean done = rows.size() < BATCH_ROWS;
+      if (done) {
+        int n = exec(c, """
+            DELETE FROM recategorize_queue
+             WHERE client_id = ?::uuid AND generation = ?
+               AND requested_at < NOW() - make_interval(secs => ?)
+            """, q.clientId(), q.generation(), SETTLE_MS / 1000.0);
+        if (n > 0) return new Batch(rows.size(), ids.size(), lastId, true, true, false);
+        // still inside the settle window: rewind and hold the lease until it closes, then run once more
+        n = exec(c, """
+            UPDATE recategorize_queue
+               SET cursor_id    = 0,
+                   rows_scanned = rows_scanned + ?,
+                   rows_changed = rows_changed + ?,
+                   locked_until = requested_at + make_interval(secs => ?)
+             WHERE client_id = ?::uuid AND generation = ?
+            """, rows.size(), ids.size(), SETTLE_MS / 1000.0, q.clientId(), q.generation());
+        return new Batch(rows.size(), ids.size(), lastId, n > 0, false, n > 0);
+      }
+      int n = exec(c, """
+          UPDATE recategorize_queue
+             SET cursor_id    = ?,
+                 rows_scanned = rows_scanned + ?,
+                 rows_changed = rows_changed + ?,
+                 locked_until = NOW() + make_interval(secs => ?)
+           WHERE client_id = ?::uuid AND generation = ?
+          """, lastId, rows.size(), ids.size(), LEASE_SECS, q.clientId(), q.generation());
+      // n == 0: the rules changed since the claim; this batch still commits (the new pass redoes it)
+      return new Batch(rows.size(), ids.size(), lastId, n > 0, false, false);
+    });
+    Metrics.since("recategorize.batch", t0);
+    return b;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && "enqueue-all".equals(args[0])) {
+      withTx(c -> { enqueue(c, null); });
+      System.out.println("queued every client");
+      return;
+    }
+    System.out.println(run(Long.MAX_VALUE / 2, System.out::println));
+  }
+}
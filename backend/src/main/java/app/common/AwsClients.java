@@ -0,0 +1,138 @@
+package app.common;
+
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.secretsmanager.SecretsManagerClient;
+
+import java.time.Duration;
+
+/**
+ * Lazy, process-wide AWS SDK clients. Building a client spins up its own HTTP connection pool,
+ * so handlers share these instead of calling SecretsManagerClient.create() per request.
+ *
+ * Env vars (optional):
+ *   aws_http_max_conns       (default 8)
+ *   aws_http_connect_ms      (default 2000)
+ *   aws_http_socket_ms       (default 5000)
+ *   aws_api_call_timeout_ms  (default 10000)
+ *   export_upload_timeout_ms (default 25000; S3 only: socket and whole-call limit for an export PUT,
+ *                             which streams a multi-year file and must still fit the API Lambda's 30 s)
+ */
+public final class AwsClients {
+
+  private AwsClients() { /* no instances */ }
+
+  private static volatile SecretsManagerClient sm;
+  private static volatile S3Client s3;
+  private static volatile S3Presigner presigner;
+
+  public static SecretsManagerClient secretsManager() {
+    SecretsManagerClient c = sm;
+    if (c != null) return c;
+    synchronized (AwsClients.class) {
+      if (sm == null) {
+        long t0 = System.nanoTime();
+        sm = SecretsManagerClient.builder()
+            .httpClientBuilder(http(Env.longOr("aws_http_socket_ms", 5_000)))
+            .overrideConfiguration(override(Env.longOr("aws_api_call_timeout_ms", 10_000)))
+            .build();
+        Metrics.since("client.init.secretsmanager", t0);
+      }
+      return sm;
+    }
+  }
+
+  /** S3 for exports; its own timeouts, sized for one large PUT rather than small Secrets Manager calls. */
+  public static S3Client s3() {
+    S3Client c = s3;
+    if (c != null) return c;
+    synchronized (AwsClients.class) {
+      if (s3 == null) {
+        long t0 = System.nanoTime();
+        long uploadMs = Env.longOr("export_upload_timeout_ms", 25_000);
+        s3 = S3Client.builder()
+            .httpClientBuilder(http(uploadMs))
+            .overrideConfiguration(override(uploadMs))
+            .build();
+        Metrics.since("client.init.s3", t0);
+      }
+      return s3;
+    }
+  }
+
+  /** Signs URLs locally; no HTTP pool of its own. */
+  public static S3Presigner s3Presigner() {
+    S3Presigner p = presigner;
+    if (p != null) return p;
+    synchronized (AwsClients.class) {
+      if (presigner == null) presigner = S3Presigner.create();
+      return presigner;
+    }
+  }
+
+  private static ApacheHttpClient.Builder http(long socketMs) {
+    return ApacheHttpClient.builder()
+        .maxConnections(Env.intOr("aws_http_max_conns", 8))
+        .connectionTimeout(Duration.ofMillis(Env.longOr("aws_http_connect_ms", 2_000)))
+        .socketTimeout(Duration.ofMillis(socketMs))
+        .connectionMaxIdleTime(Duration.ofSeconds(60))
+        .tcpKeepAlive(true)
+        .useIdleConnectionReaper(false);  // no reaper thread to freeze/thaw across invocations
+  }
+
+  private static ClientOverrideConfiguration override(long apiCallMs) {
+    return ClientOverrideConfiguration.builder()
+        .apiCallTimeout(Duration.ofMillis(apiCallMs))
+        .addExecutionInterceptor(new LatencyInterceptor())
+        .build();
+  }
+
+  public static boolean isOpen() {
+    return sm != null;
+  }
+
+  /** Close the clients and their connection pools; the next call builds fresh ones. */
+  public static synchronized void reset() {
+    SecretsManagerClient c = sm;
+    S3Client s = s3;
+    S3Presigner p = presigner;
+    sm = null;
+    s3 = null;
+    presigner = null;
+    if (c != null) c.close();
+    if (s != null) s.close();
+    if (p != null) p.close();
+  }
+
+  /** Reports per-operation latency as aws.<service>.<operation>. */
+  static final class LatencyInterceptor implements ExecutionInterceptor {
+    private static final ExecutionAttribute<Long> START = new ExecutionAttribute<>("app.start");
+
+    @Override public void beforeExecution(Context.BeforeExecution ctx, ExecutionAttributes attrs) {
+      attrs.putAttribute(START, System.nanoTime());
+    }
+
+    @Override public void afterExecution(Context.AfterExecution ctx, ExecutionAttributes attrs) {
+      record(attrs, "");
+    }
+
+    @Override public void onExecutionFailure(Context.FailedExecution ctx, ExecutionAttributes attrs) {
+      record(attrs, ".error");
+    }
+
+    private static void record(ExecutionAttributes attrs, String suffix) {
+      Long t0 = attrs.getAttribute(START);
+      if (t0 == null) return;
+      String svc = attrs.getAttribute(SdkExecutionAttribute.SERVICE_NAME);
+      String op  = attrs.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+      Metrics.since("aws." + svc + "." + op + suffix, t0);
+    }
+  }
+}
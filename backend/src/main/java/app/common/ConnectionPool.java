@@ -0,0 +1,111 @@
+package app.common;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Process-wide, bounded JDBC pool shared by every handler.
+ * Lives in a static holder so warm Lambda invocations reuse the same TLS connections.
+ *
+ * Env vars (all optional except the Db ones):
+ *   db_pool_max               = max connections        (default 4)
+ *   db_pool_min_idle          = idle floor             (default 0, keeps cold start cheap)
+ *   db_pool_idle_timeout_ms   = evict idle after       (default 60000)
+ *   db_pool_max_lifetime_ms   = recycle after          (default 600000)
+ *   db_pool_borrow_timeout_ms = give up waiting after  (default 5000)
+ *   db_pool_keepalive_ms      = validate idle every    (default 0 = off)
+ */
+public final class ConnectionPool {
+
+  private ConnectionPool() { /* no instances */ }
+
+  /** Snapshot of pool state; wait times are in microseconds. */
+  public record Stats(int active, int idle, int total, int waiting,
+                      long borrows, long avgBorrowWaitMicros, long maxBorrowWaitMicros) {}
+
+  private static volatile HikariDataSource ds;
+
+  private static final AtomicLong BORROWS = new AtomicLong();
+  private static final AtomicLong BORROW_WAIT_NANOS = new AtomicLong();
+  private static final LongAccumulator MAX_BORROW_WAIT_NANOS = new LongAccumulator(Math::max, 0);
+
+  /** Borrow a connection; close() returns it to the pool. */
+  public static Connection borrow() throws SQLException {
+    HikariDataSource pool = pool();
+    long t0 = System.nanoTime();
+    Connection c = pool.getConnection();
+    long waited = System.nanoTime() - t0;
+    BORROWS.incrementAndGet();
+    BORROW_WAIT_NANOS.addAndGet(waited);
+    MAX_BORROW_WAIT_NANOS.accumulate(waited);
+    return c;
+  }
+
+  /** Current pool metrics (zeros if the pool has not been created yet). */
+  public static Stats stats() {
+    long n = BORROWS.get();
+    long avg = n == 0 ? 0 : BORROW_WAIT_NANOS.get() / n / 1_000;
+    long max = MAX_BORROW_WAIT_NANOS.get() / 1_000;
+    HikariDataSource pool = ds;
+    HikariPoolMXBean mx = pool == null ? null : pool.getHikariPoolMXBean();
+    if (mx == null) return new Stats(0, 0, 0, 0, n, avg, max);
+    return new Stats(mx.getActiveConnections(), mx.getIdleConnections(), mx.getTotalConnections(),
+        mx.getThreadsAwaitingConnection(), n, avg, max);
+  }
+
+  /** Create the pool if needed and open one connection, so the first request skips the TLS handshake. */
+  public static void warm() throws SQLException {
+    try (Connection c = borrow()) { /* returned to the pool idle */ }
+  }
+
+  public static boolean isOpen() {
+    return ds != null;
+  }
+
+  /** Close every pooled connection; the next borrow() rebuilds the pool. */
+  public static synchronized void shutdown() {
+    HikariDataSource pool = ds;
+    ds = null;
+    if (pool != null) pool.close();
+  }
+
+  private static HikariDataSource pool() throws SQLException {
+    HikariDataSource pool = ds;
+    if (pool != null) return pool;
+    synchronized (ConnectionPool.class) {
+      if (ds == null) ds = create();
+      return ds;
+    }
+  }
+
+  private static HikariDataSource create() throws SQLException {
+    String url  = System.getenv("jdbc_url");
+    String user = System.getenv("db_user");
+    String pass = System.getenv("db_pass");
+    if (url == null || user == null || pass == null) {
+      throw new SQLException("DB env vars missing: jdbc_url / db_user / db_pass");
+    }
+    HikariConfig cfg = new HikariConfig();
+    cfg.setPoolName("app-db");
+    cfg.setJdbcUrl(url);
+    cfg.setUsername(user);
+    cfg.setPassword(pass);
+    cfg.setMaximumPoolSize(Env.intOr("db_pool_max", 4));
+    cfg.setMinimumIdle(Env.intOr("db_pool_min_idle", 0));
+    cfg.setIdleTimeout(Env.longOr("db_pool_idle_timeout_ms", 60_000));
+    cfg.setMaxLifetime(Env.longOr("db_pool_max_lifetime_ms", 600_000));
+    cfg.setConnectionTimeout(Env.longOr("db_pool_borrow_timeout_ms", 5_000));
+    cfg.setKeepaliveTime(Env.longOr("db_pool_keepalive_ms", 0));
+    cfg.setValidationTimeout(2_000);   // isValid() check before handing out a connection
+    cfg.setInitializationFailTimeout(-1); // don't fail class init if the DB is briefly unreachable
+    cfg.addDataSourceProperty("tcpKeepAlive", true);
+    cfg.addDataSourceProperty("reWriteBatchedInserts", true); // JDBC batches -> multi-row INSERTs
+    return new HikariDataSource(cfg);
+  }
+}
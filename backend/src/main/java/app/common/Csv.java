@@ -0,0 +1,104 @@
+package app.common;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental RFC 4180 reader: one record per next() call, straight off a Reader, so a file is
+ * never held as lines or rows. Handles quoted fields with embedded commas, quotes ("") and
+ * newlines, and CRLF or LF line ends. Not thread-safe.
+ */
+public final class Csv implements AutoCloseable {
+
+  private final Reader in;
+  private final char[] buf = new char[64 * 1024];
+  private int pos, len;
+  private long line = 1;        // physical line the current record starts on
+  private long nextLine = 1;
+  private final StringBuilder field = new StringBuilder(64);
+
+  public Csv(Reader in) {
+    this.in = in;
+  }
+
+  /** Physical line (1-based) where the record last returned by next() started. */
+  public long line() { return line; }
+
+  /** Next record's fields, or null at end of input. Blank lines are skipped. */
+  public String[] next() throws IOException {
+    List<String> out = new ArrayList<>(8);
+    line = nextLine;
+    boolean quoted = false, any = false;
+    field.setLength(0);
+    while (true) {
+      int ch = read();
+      if (ch < 0) {
+        if (!any && field.length() == 0 && out.isEmpty()) return null;
+        out.add(field.toString());
+        return out.toArray(new String[0]);
+      }
+      any = true;
+      if (quoted) {
+        if (ch == '"') {
+          if (peek() == '"') { read(); field.append('"'); }
+          else quoted = false;
+        } else {
+          if (ch == '\n') nextLine++;
+          field.append((char) ch);
+        }
+      } else if (ch == '"' && field.length() == 0) {
+        quoted = true;
+      } else if (ch == ',') {
+        out.add(field.toString());
+        field.setLength(0);
+      } else if (ch == '\r' || ch == '\n') {
+        if (ch == '\r' && peek() == '\n') read();
+        nextLine++;
+        if (out.isEmpty() && field.length() == 0) {  // blank line
+          line = nextLine;
+          any = false;
+          continue;
+        }
+        out.add(field.toString());
+        return out.toArray(new String[0]);
+      } else {
+        field.append((char) ch);
+      }
+    }
+  }
+
+  /** Index of each wanted column in header (case-insensitive, first alias found wins), -1 if absent. */
+  public static int column(String[] header, String... aliases) {
+    for (String a : aliases) {
+      for (int i = 0; i < header.length; i++) {
+        if (header[i].strip().replace("\uFEFF", "").equalsIgnoreCase(a)) return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private int read() throws IOException {
+    if (pos == len && !fill()) return -1;
+    return buf[pos++];
+  }
+
+  private int peek() throws IOException {
+    if (pos == len && !fill()) return -1;
+    return buf[pos];
+  }
+
+  private boolean fill() throws IOException {
+    int n = in.read(buf, 0, buf.length);
+    if (n <= 0) return false;
+    pos = 0;
+    len = n;
+    return true;
+  }
+}
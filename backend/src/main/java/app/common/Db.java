@@ -2,10 +2,14 @@ package app.common;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Tiny JDBC helper for Neon/Postgres.
+ * Connections come from the shared ConnectionPool.
  * Env vars expected:
  *   jdbc_url      = jdbc:postgresql://<host>/<db>?sslmode=require
  *   db_user     = <username>
@@ -15,15 +19,9 @@ public final class Db {
 
   private Db() { /* no instances */ }
 
-  /** Open a new connection using env vars. Caller closes (use try-with-resources). */
+  /** Borrow a pooled connection (see ConnectionPool). Caller closes (use try-with-resources) to return it. */
   public static Connection connect() throws SQLException {
-    String url  = System.getenv("jdbc_url");
-    String user = System.getenv("db_user");
-    String pass = System.getenv("db_pass");
-    if (url == null || user == null || pass == null) {
-      throw new SQLException("DB env vars missing: jdbc_url / db_user / db_pass");
-    }
-    return DriverManager.getConnection(url, user, pass);
+    return ConnectionPool.borrow();
   }
 
   /** Functional interface to map a ResultSet row to a value. */
@@ -67,8 +65,10 @@ public final class Db {
     try {
       T result = work.run();
       c.commit();
+      runAfterCommit(c);
       return result;
     } catch (Exception e) {
+      AFTER_COMMIT.remove(c);
       try { c.rollback(); } catch (Exception ignore) {}
       throw e;
     } finally {
@@ -79,6 +79,26 @@ public final class Db {
   @FunctionalInterface
   public interface TxWork<T> { T run() throws Exception; }
 
+  private static final Map<Connection, List<Runnable>> AFTER_COMMIT =
+      Collections.synchronizedMap(new IdentityHashMap<>());
+
+  /**
+   * Run action once c's current inTx transaction commits; dropped if it rolls back. For in-memory
+   * state that must not see uncommitted writes. Outside a transaction it runs immediately.
+   */
+  public static void afterCommit(Connection c, Runnable action) throws SQLException {
+    if (c.getAutoCommit()) {
+      action.run();
+      return;
+    }
+    AFTER_COMMIT.computeIfAbsent(c, k -> new ArrayList<>(2)).add(action);
+  }
+
+  private static void runAfterCommit(Connection c) {
+    List<Runnable> actions = AFTER_COMMIT.remove(c);
+    if (actions != null) for (Runnable r : actions) r.run();
+  }
+
   // ---------- Convenience helpers your handlers were calling ----------
 
   /** Work that needs a Connection and a transaction, returns a value. */
@@ -0,0 +1,22 @@
+package app.common;
+
+/** Typed reads of optional env vars with defaults (blank or unparsable falls back). */
+public final class Env {
+
+  private Env() { /* no instances */ }
+
+  public static String str(String name, String def) {
+    String v = System.getenv(name);
+    return v == null || v.isBlank() ? def : v.trim();
+  }
+
+  public static int intOr(String name, int def) {
+    try { String v = System.getenv(name); return v == null || v.isBlank() ? def : Integer.parseInt(v.trim()); }
+    catch (Exception e) { return def; }
+  }
+
+  public static long longOr(String name, long def) {
+    try { String v = System.getenv(name); return v == null || v.isBlank() ? def : Long.parseLong(v.trim()); }
+    catch (Exception e) { return def; }
+  }
+}
@@ -0,0 +1,33 @@
+package app.common;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+/**
+ * The one ObjectMapper for the process. Building a mapper (and its serializer caches) is the
+ * expensive part of Jackson, so everything reads and writes through this instance.
+ * BlackbirdModule swaps reflective getter/setter calls for LambdaMetafactory-generated accessors.
+ */
+public final class Json {
+
+  private Json() { /* no instances */ }
+
+  public static final ObjectMapper M = new ObjectMapper().registerModule(new BlackbirdModule());
+
+  /** Thread-safe and immutable; cheaper per call than M.writeValueAsString. */
+  public static final ObjectWriter WRITER = M.writer();
+
+  public static JsonFactory factory() {
+    return M.getFactory();
+  }
+
+  public static String write(Object value) throws Exception {
+    return WRITER.writeValueAsString(value);
+  }
+
+  public static <T> T read(String json, Class<T> type) throws Exception {
+    return M.readValue(json, type);
+  }
+}
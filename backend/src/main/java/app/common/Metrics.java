@@ -0,0 +1,77 @@
+package app.common;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide metrics hook. Every timing/count is aggregated in memory (see snapshot()) and
+ * forwarded to an optional Sink, so a CloudWatch/EMF or test sink can be plugged in with setSink().
+ */
+public final class Metrics {
+
+  private Metrics() { /* no instances */ }
+
+  /** Receives every recorded value as it happens. */
+  public interface Sink {
+    void timing(String name, long nanos);
+    void count(String name, long delta);
+    default void sample(String name, long value) {}
+  }
+
+  /** Aggregate for one metric name; timings are in microseconds, samples in their own unit. */
+  public record Stat(long count, long total, long max) {
+    public long avg() { return count == 0 ? 0 : total / count; }
+  }
+
+  private static final class Agg {
+    final LongAdder count = new LongAdder();
+    final LongAdder total = new LongAdder();
+    final LongAccumulator max = new LongAccumulator(Math::max, 0);
+  }
+
+  private static final Map<String, Agg> TIMINGS = new ConcurrentHashMap<>();
+  private static final Map<String, LongAdder> COUNTS = new ConcurrentHashMap<>();
+  private static volatile Sink sink;
+
+  public static void setSink(Sink s) { sink = s; }
+
+  public static void timing(String name, long nanos) {
+    Agg a = TIMINGS.computeIfAbsent(name, k -> new Agg());
+    long micros = nanos / 1_000;
+    a.count.increment();
+    a.total.add(micros);
+    a.max.accumulate(micros);
+    Sink s = sink;
+    if (s != null) s.timing(name, nanos);
+  }
+
+  /** Record a non-time value (bytes, rows, ...); aggregated like timings but not unit-converted. */
+  public static void sample(String name, long value) {
+    Agg a = TIMINGS.computeIfAbsent(name, k -> new Agg());
+    a.count.increment();
+    a.total.add(value);
+    a.max.accumulate(value);
+    Sink s = sink;
+    if (s != null) s.sample(name, value);
+  }
+
+  public static void count(String name, long delta) {
+    COUNTS.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    Sink s = sink;
+    if (s != null) s.count(name, delta);
+  }
+
+  /** Record the time since t0 (a System.nanoTime() value). */
+  public static void since(String name, long t0) { timing(name, System.nanoTime() - t0); }
+
+  /** Sorted copy of all timings (micros) and counters. */
+  public static Map<String, Object> snapshot() {
+    Map<String, Object> out = new TreeMap<>();
+    TIMINGS.forEach((k, a) -> out.put(k, new Stat(a.count.sum(), a.total.sum(), a.max.get())));
+    COUNTS.forEach((k, v) -> out.put(k, v.sum()));
+    return out;
+  }
+}
@@ -0,0 +1,69 @@
+package app.common;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * JSON responses with the CORS headers every endpoint sends.
+ * HEADERS is built once and shared; nothing here allocates a header map per request.
+ *
+ * Errors always look like {"ok":false,"error":"<code>", ...details}.
+ *
+ * Env vars (optional):
+ *   ALLOWED_ORIGINS  (default *)
+ */
+public final class Responses {
+
+  private Responses() { /* no instances */ }
+
+  public static final String ALLOWED_ORIGINS =
+      Optional.ofNullable(System.getenv("ALLOWED_ORIGINS")).orElse("*");
+
+  public static final Map<String, String> HEADERS = Map.of(
+      "Content-Type", "application/json",
+      "Access-Control-Allow-Origin", ALLOWED_ORIGINS,
+      "Access-Control-Allow-Headers", "Content-Type, Authorization",
+      "Access-Control-Allow-Methods", "GET,POST,DELETE,OPTIONS");
+
+  private static final String SERIALIZE_FAILED = "{\"ok\":false,\"error\":\"serialize\"}";
+
+  /** Serializes payload; a serialization failure becomes a 500 with the standard envelope. */
+  public static APIGatewayProxyResponseEvent json(int status, Object payload) {
+    String body;
+    try {
+      body = Json.write(payload);
+    } catch (Exception e) {
+      return raw(500, SERIALIZE_FAILED);
+    }
+    return raw(status, body);
+  }
+
+  /** Body that is already JSON. */
+  public static APIGatewayProxyResponseEvent raw(int status, String body) {
+    return new APIGatewayProxyResponseEvent()
+        .withStatusCode(status)
+        .withHeaders(HEADERS)
+        .withBody(body);
+  }
+
+  public static APIGatewayProxyResponseEvent error(int status, String code) {
+    return json(status, envelope(code, Map.of()));
+  }
+
+  /** Error with extra fields, e.g. error(404, "no_access_token_secret", Map.of("itemId", id)). */
+  public static APIGatewayProxyResponseEvent error(int status, String code, Map<String, ?> details) {
+    return json(status, envelope(code, details));
+  }
+
+  /** {"ok":false,"error":code, ...details}; a null code (e.g. an exception without a message) reads "internal". */
+  public static Map<String, Object> envelope(String code, Map<String, ?> details) {
+    Map<String, Object> m = new LinkedHashMap<>(4 + details.size());
+    m.put("ok", false);
+    m.put("error", code == null ? "internal" : code);
+    m.putAll(details);
+    return m;
+  }
+}
@@ -0,0 +1,72 @@
+package app.common;
+
+/**
+ * Blocking token bucket: refills at a fixed rate up to a burst size. One permit per outbound call.
+ * penalize() empties the bucket and pauses it, for when the far side says we're over its limit
+ * (HTTP 429) despite our own pacing.
+ */
+public final class TokenBucket {
+
+  private final double perNano;
+  private final double capacity;
+  private double tokens;
+  private long last = System.nanoTime();
+  private long pausedUntil;               // nanoTime; 0 = not paused
+  private long waitedNanos;
+
+  public TokenBucket(double perSecond, int burst) {
+    if (perSecond <= 0 || burst < 1) throw new IllegalArgumentException("rate and burst must be positive");
+    this.perNano = perSecond / 1e9;
+    this.capacity = burst;
+    this.tokens = burst;
+  }
+
+  /** Take one permit, waiting as needed; false if none could be had before deadlineMs (epoch millis). */
+  public boolean acquire(long deadlineMs) throws InterruptedException {
+    long t0 = System.nanoTime();
+    while (true) {
+      long sleepNanos;
+      synchronized (this) {
+        long now = System.nanoTime();
+        refill(now);
+        if (pausedUntil - now > 0) {
+          sleepNanos = pausedUntil - now;
+        } else if (tokens >= 1) {
+          tokens -= 1;
+          waitedNanos += now - t0;
+          return true;
+        } else {
+          sleepNanos = (long) Math.ceil((1 - tokens) / perNano);
+        }
+      }
+      long remainingMs = deadlineMs - System.currentTimeMillis();
+      if (remainingMs <= 0 || sleepNanos / 1_000_000 >= remainingMs) return false;
+      Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+    }
+  }
+
+  /** No permits for the next pauseMs, and start refilling from empty afterwards. */
+  public synchronized void penalize(long pauseMs) {
+    long until = System.nanoTime() + pauseMs * 1_000_000;
+    if (pausedUntil == 0 || until - pausedUntil > 0) pausedUntil = until;
+    tokens = 0;
+  }
+
+  /** Total time callers spent waiting in acquire(). */
+  public synchronized long waitedNanos() {
+    return waitedNanos;
+  }
+
+  private void refill(long now) {
+    if (pausedUntil != 0) {
+      if (pausedUntil - now > 0) {
+        last = now;
+        return;
+      }
+      last = pausedUntil;  // refill from the end of the pause, not across it
+      pausedUntil = 0;
+    }
+    tokens = Math.min(capacity, tokens + (now - last) * perNano);
+    last = now;
+  }
+}
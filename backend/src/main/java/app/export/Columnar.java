@@ -0,0 +1,269 @@
+package app.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * "TXC1": a compact column-per-field file for exports, written in row groups so neither writer nor
+ * reader holds more than one group. Layout (varint = unsigned LEB128):
+ *
+ *   file   := "TXC1" varint(ncols) (varint(len) name-utf8 kind-byte)* group* varint(0)
+ *   group  := varint(rows > 0) block{ncols}
+ *   block  := varint(len) bytes
+ *
+ * Column kinds, each decodable per group (deltas restart at 0 every group):
+ *   DELTA  varint per row: 0 = null, else zigzag(v - previous non-null v) + 1
+ *   INT    varint per row: 0 = null, else zigzag(v) + 1
+ *   DICT   varint(n) (varint(len) utf8){n}, then varint per row: 0 = null, else 1-based dictionary index
+ *
+ * Ids and dates (epoch days) in export order are near-sorted, so DELTA keeps them to a byte or two.
+ * Merchants, categories, account names and statuses repeat heavily, so DICT stores each string once
+ * per group.
+ */
+final class Columnar {
+
+  private Columnar() { /* no instances */ }
+
+  static final byte DELTA = 1, INT = 2, DICT = 3;
+  private static final byte[] MAGIC = "TXC1".getBytes(StandardCharsets.US_ASCII);
+
+  /** Growable byte buffer with varint encoding; reset() keeps the array for the next group. */
+  static final class Buf {
+    byte[] a = new byte[4096];
+    int len;
+
+    void reset() { len = 0; }
+
+    void varint(long v) {
+      ensure(10);
+      while ((v & ~0x7FL) != 0) {
+        a[len++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      a[len++] = (byte) v;
+    }
+
+    void put(byte b) {
+      ensure(1);
+      a[len++] = b;
+    }
+
+    void bytes(byte[] b) {
+      varint(b.length);
+      ensure(b.length);
+      System.arraycopy(b, 0, a, len, b.length);
+      len += b.length;
+    }
+
+    void writeTo(OutputStream out) throws IOException { out.write(a, 0, len); }
+
+    private void ensure(int n) {
+      if (len + n > a.length) a = Arrays.copyOf(a, Math.max(a.length * 2, len + n));
+    }
+  }
+
+  static long zigzag(long v) { return (v << 1) ^ (v >> 63); }
+  static long unzigzag(long v) { return (v >>> 1) ^ -(v & 1); }
+
+  /** Buffers one row group; encode column values with put*() in column order, then endRow(). */
+  static final class Writer implements AutoCloseable {
+    private final OutputStream out;
+    private final byte[] kinds;
+    private final Buf[] cols;
+    private final long[] prev;
+    private final Map<String, Integer>[] dicts;
+    private final Buf[] dictBytes;
+    private final Buf header = new Buf();
+    private final int groupRows;
+    private int rows;
+    private int col;
+    long bytes;
+
+    @SuppressWarnings("unchecked")
+    Writer(OutputStream out, String[] names, byte[] kinds, int groupRows) throws IOException {
+      this.out = out;
+      this.kinds = kinds;
+      this.groupRows = Math.max(1, groupRows);
+      cols = new Buf[names.length];
+      prev = new long[names.length];
+      dicts = new Map[names.length];
+      dictBytes = new Buf[names.length];
+      for (int i = 0; i < names.length; i++) {
+        cols[i] = new Buf();
+        if (kinds[i] == DICT) {
+          dicts[i] = new HashMap<>();
+          dictBytes[i] = new Buf();
+        }
+      }
+      out.write(MAGIC);
+      header.varint(names.length);
+      for (int i = 0; i < names.length; i++) {
+        header.bytes(names[i].getBytes(StandardCharsets.UTF_8));
+        header.put(kinds[i]);
+      }
+      header.writeTo(out);
+      bytes = MAGIC.length + header.len;
+    }
+
+    void putLong(Long v) {
+      Buf b = cols[col];
+      if (v == null) {
+        b.varint(0);
+      } else if (kinds[col] == DELTA) {
+        b.varint(zigzag(v - prev[col]) + 1);
+        prev[col] = v;
+      } else {
+        b.varint(zigzag(v) + 1);
+      }
+      col++;
+    }
+
+    void putString(String v) {
+      Buf b = cols[col];
+      if (v == null) {
+        b.varint(0);
+      } else {
+        Map<String, Integer> d = dicts[col];
+        Integer code = d.get(v);
+        if (code == null) {
+          code = d.size() + 1;
+          d.put(v, code);
+          dictBytes[col].bytes(v.getBytes(StandardCharsets.UTF_8));
+        }
+        b.varint(code);
+      }
+      col++;
+    }
+
+    void endRow() throws IOException {
+      col = 0;
+      if (++rows == groupRows) flush();
+    }
+
+    private void flush() throws IOException {
+      if (rows == 0) return;
+      header.reset();
+      header.varint(rows);
+      header.writeTo(out);
+      bytes += header.len;
+      for (int i = 0; i < cols.length; i++) {
+        Buf block = cols[i];
+        header.reset();
+        if (kinds[i] == DICT) {
+          header.varint(varintLen(dicts[i].size()) + dictBytes[i].len + block.len);
+          header.varint(dicts[i].size());
+          header.writeTo(out);
+          dictBytes[i].writeTo(out);
+          bytes += header.len + dictBytes[i].len;
+          dicts[i].clear();
+          dictBytes[i].reset();
+        } else {
+          header.varint(block.len);
+          header.writeTo(out);
+          bytes += header.len;
+        }
+        block.writeTo(out);
+        bytes += block.len;
+        block.reset();
+        prev[i] = 0;
+      }
+      rows = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+      header.reset();
+      header.varint(0);
+      header.writeTo(out);
+      bytes += header.len;
+      out.flush();
+    }
+  }
+
+  private static int varintLen(long v) {
+    int n = 1;
+    while ((v & ~0x7FL) != 0) { v >>>= 7; n++; }
+    return n;
+  }
+
+  /** Receives decoded rows; values are Long or String (or null), in column order. */
+  @FunctionalInterface
+  interface RowSink { void row(Object[] values) throws Exception; }
+
+  /** Decode a whole file group by group; returns the column names. */
+  static String[] read(InputStream raw, RowSink sink) throws Exception {
+    DataInputStream in = new DataInputStream(raw);
+    byte[] magic = new byte[4];
+    in.readFully(magic);
+    if (!Arrays.equals(magic, MAGIC)) throw new IOException("not a TXC1 file");
+    int ncols = (int) varint(in);
+    String[] names = new String[ncols];
+    byte[] kinds = new byte[ncols];
+    for (int i = 0; i < ncols; i++) {
+      names[i] = new String(readBytes(in), StandardCharsets.UTF_8);
+      kinds[i] = in.readByte();
+    }
+    long rows;
+    while ((rows = varint(in)) > 0) {
+      Object[][] cols = new Object[ncols][];
+      for (int i = 0; i < ncols; i++) {
+        byte[] block = readBytes(in);
+        cols[i] = decode(kinds[i], block, (int) rows);
+      }
+      Object[] row = new Object[ncols];
+      for (int r = 0; r < rows; r++) {
+        for (int i = 0; i < ncols; i++) row[i] = cols[i][r];
+        sink.row(row);
+      }
+    }
+    return names;
+  }
+
+  private static Object[] decode(byte kind, byte[] block, int rows) throws IOException {
+    InputStream in = new ByteArrayInputStream(block);
+    Object[] out = new Object[rows];
+    String[] dict = null;
+    if (kind == DICT) {
+      dict = new String[(int) varint(in)];
+      for (int k = 0; k < dict.length; k++) dict[k] = new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+    long prev = 0;
+    for (int r = 0; r < rows; r++) {
+      long v = varint(in);
+      if (v == 0) continue;
+      switch (kind) {
+        case DELTA -> { prev += unzigzag(v - 1); out[r] = prev; }
+        case INT   -> out[r] = unzigzag(v - 1);
+        default    -> out[r] = dict[(int) v - 1];
+      }
+    }
+    return out;
+  }
+
+  private static long varint(InputStream in) throws IOException {
+    long v = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.read();
+      if (b < 0) throw new EOFException();
+      v |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return v;
+    }
+    throw new IOException("varint too long");
+  }
+
+  private static byte[] readBytes(InputStream in) throws IOException {
+    int n = (int) varint(in);
+    byte[] b = new byte[n];
+    new DataInputStream(in).readFully(b);
+    return b;
+  }
+}
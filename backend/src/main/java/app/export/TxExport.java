@@ -0,0 +1,297 @@
+package app.export;
+
+import app.common.AwsClients;
+import app.common.Env;
+import app.common.Metrics;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static app.common.Db.*;
+
+/**
+ * Full-history export of one client's v_transactions, as CSV or TXC1 columnar (see Columnar).
+ * Rows come through a server-side cursor (auto-commit off, fetch size export_fetch_size) and go
+ * straight into a buffered stream, so memory stays flat however long the history is.
+ * The CSV header (date, merchant, amount, category, account_id, ...) is one POST /v1/transactions/import
+ * accepts; account_id lets the import match rows already synced from Plaid instead of duplicating them.
+ *
+ * Env vars (optional):
+ *   export_location    = local directory, or s3://bucket/prefix (default <java.io.tmpdir>/exports)
+ *   export_fetch_size  = rows per cursor fetch (default 2000)
+ *   export_group_rows  = rows per TXC1 row group (default 8192)
+ *   export_url_ttl_s   = lifetime of the presigned S3 URL in the handle (default 900)
+ *
+ * Command line: java -cp app.jar app.export.TxExport <clientId> csv|txc [file|-]
+ *               java -cp app.jar app.export.TxExport cat <file.txc>      (TXC1 -> CSV on stdout)
+ */
+public final class TxExport {
+
+  private TxExport() { /* no instances */ }
+
+  static final int FETCH_SIZE = Math.max(1, Env.intOr("export_fetch_size", 2_000));
+  static final int GROUP_ROWS = Math.max(1, Env.intOr("export_group_rows", 8_192));
+  static final long URL_TTL_S = Math.max(60, Env.longOr("export_url_ttl_s", 900));
+
+  public enum Format {
+    CSV("text/csv", ".csv"), TXC("application/octet-stream", ".txc");
+
+    final String contentType, suffix;
+    Format(String contentType, String suffix) { this.contentType = contentType; this.suffix = suffix; }
+
+    /** "csv" / "txc" (also "columnar"); null if unknown. */
+    public static Format parse(String s) {
+      if (s == null) return CSV;
+      return switch (s.toLowerCase()) {
+        case "csv" -> CSV;
+        case "txc", "columnar" -> TXC;
+        default -> null;
+      };
+    }
+  }
+
+  public record Stats(long rows, long bytes) {}
+
+  /** Where an export landed: a local path, or s3://... plus a presigned GET url. */
+  public record Handle(String format, long rows, long bytes, String location, String url, long elapsedMs) {}
+
+  private static final String[] COLUMNS =
+      {"id", "date", "account_id", "account_name", "merchant", "category", "amount", "status"};
+  private static final byte[] KINDS = {
+      Columnar.DELTA, Columnar.DELTA, Columnar.DELTA, Columnar.DICT, Columnar.DICT, Columnar.DICT,
+      Columnar.INT, Columnar.DICT};
+
+  /** Stream every row for clientId into out (not closed). Uses the caller's connection. */
+  public static Stats write(Connection c, UUID clientId, Format format, OutputStream out) throws Exception {
+    long t0 = System.nanoTime();
+    Stats s = inTx(c, () -> {
+      try (PreparedStatement ps = c.prepareStatement("""
+            SELECT id, post_date, account_id, account_name, merchant, category, amount_cents, status
+              FROM v_transactions
+             WHERE client_id = ?::uuid
+             ORDER BY post_date DESC, id DESC
+            """, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+        ps.setFetchSize(FETCH_SIZE);
+        ps.setObject(1, clientId);
+        try (ResultSet rs = ps.executeQuery()) {
+          return format == Format.CSV ? csv(rs, out) : columnar(rs, out);
+        }
+      }
+    });
+    Metrics.since("export." + format.name().toLowerCase(), t0);
+    Metrics.sample("export.rows", s.rows());
+    return s;
+  }
+
+  /** Export to export_location and return where it went. */
+  public static Handle export(UUID clientId, Format format) throws Exception {
+    long t0 = System.nanoTime();
+    String location = Env.str("export_location", Paths.get(System.getProperty("java.io.tmpdir"), "exports").toString());
+    String name = "tx-" + clientId + "-"
+        + LocalDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss"))
+        + "-" + Integer.toHexString(ThreadLocalRandom.current().nextInt(0x100000, 0xFFFFFF)) + format.suffix;
+
+    if (!location.startsWith("s3://")) {
+      Path file = Files.createDirectories(Paths.get(location)).resolve(name);
+      Stats s = toFile(clientId, format, file);
+      return new Handle(format.name().toLowerCase(), s.rows(), s.bytes(), file.toAbsolutePath().toString(), null,
+          (System.nanoTime() - t0) / 1_000_000);
+    }
+
+    // S3: spool to local disk first (flat memory; Lambda's /tmp), then a single PUT from the file.
+    String rest = location.substring("s3://".length());
+    int slash = rest.indexOf('/');
+    String bucket = slash < 0 ? rest : rest.substring(0, slash);
+    String prefix = slash < 0 ? "" : rest.substring(slash + 1);
+    String key = prefix.isEmpty() || prefix.endsWith("/") ? prefix + name : prefix + "/" + name;
+    Path tmp = Files.createTempFile("export-", format.suffix);
+    try {
+      Stats s = toFile(clientId, format, tmp);
+      long u0 = System.nanoTime();
+      AwsClients.s3().putObject(
+          PutObjectRequest.builder().bucket(bucket).key(key).contentType(format.contentType).build(),
+          RequestBody.fromFile(tmp));
+      Metrics.since("export.upload", u0);
+      String url = AwsClients.s3Presigner().presignGetObject(GetObjectPresignRequest.builder()
+          .signatureDuration(Duration.ofSeconds(URL_TTL_S))
+          .getObjectRequest(GetObjectRequest.builder().bucket(bucket).key(key).build())
+          .build()).url().toString();
+      return new Handle(format.name().toLowerCase(), s.rows(), s.bytes(), "s3://" + bucket + "/" + key, url,
+          (System.nanoTime() - t0) / 1_000_000);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private static Stats toFile(UUID clientId, Format format, Path file) throws Exception {
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+      return withConn(c -> { return write(c, clientId, format, out); });
+    }
+  }
+
+  // ---------- encoders ----------
+
+  private static Stats csv(ResultSet rs, OutputStream raw) throws Exception {
+    CountingStream counted = new CountingStream(raw);
+    Writer w = new BufferedWriter(new OutputStreamWriter(counted, StandardCharsets.UTF_8), 64 * 1024);
+    w.write(String.join(",", COLUMNS));
+    w.write('\n');
+    long rows = 0;
+    StringBuilder line = new StringBuilder(160);
+    while (rs.next()) {
+      line.setLength(0);
+      line.append(rs.getLong(1)).append(',');
+      LocalDate d = rs.getObject(2, LocalDate.class);
+      if (d != null) line.append(d);
+      line.append(',');
+      long acct = rs.getLong(3);
+      if (!rs.wasNull()) line.append(acct);
+      line.append(',');
+      field(line, rs.getString(4)).append(',');
+      field(line, rs.getString(5)).append(',');
+      field(line, rs.getString(6)).append(',');
+      dollars(line, rs.getInt(7)).append(',');
+      field(line, rs.getString(8)).append('\n');
+      w.append(line);
+      rows++;
+    }
+    w.flush();
+    return new Stats(rows, counted.count);
+  }
+
+  private static Stats columnar(ResultSet rs, OutputStream out) throws Exception {
+    long rows = 0;
+    Columnar.Writer w = new Columnar.Writer(out, COLUMNS, KINDS, GROUP_ROWS);
+    while (rs.next()) {
+      w.putLong(rs.getLong(1));
+      LocalDate d = rs.getObject(2, LocalDate.class);
+      w.putLong(d == null ? null : d.toEpochDay());
+      long acct = rs.getLong(3);
+      w.putLong(rs.wasNull() ? null : acct);
+      w.putString(rs.getString(4));
+      w.putString(rs.getString(5));
+      w.putString(rs.getString(6));
+      w.putLong((long) rs.getInt(7));
+      w.putString(rs.getString(8));
+      w.endRow();
+      rows++;
+    }
+    w.close();
+    return new Stats(rows, w.bytes);
+  }
+
+  /** RFC 4180: quote when the value has a comma, quote, CR or LF. */
+  private static StringBuilder field(StringBuilder sb, String v) {
+    if (v == null) return sb;
+    boolean quote = false;
+    for (int i = 0; i < v.length() && !quote; i++) {
+      char ch = v.charAt(i);
+      quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+    }
+    if (!quote) return sb.append(v);
+    sb.append('"');
+    for (int i = 0; i < v.length(); i++) {
+      char ch = v.charAt(i);
+      if (ch == '"') sb.append('"');
+      sb.append(ch);
+    }
+    return sb.append('"');
+  }
+
+  /** -1234 -> "-12.34" */
+  private static StringBuilder dollars(StringBuilder sb, int cents) {
+    long abs = Math.abs((long) cents);
+    if (cents < 0) sb.append('-');
+    sb.append(abs / 100).append('.');
+    long frac = abs % 100;
+    if (frac < 10) sb.append('0');
+    return sb.append(frac);
+  }
+
+  private static final class CountingStream extends OutputStream {
+    private final OutputStream out;
+    long count;
+    CountingStream(OutputStream out) { this.out = out; }
+    @Override public void write(int b) throws IOException { out.write(b); count++; }
+    @Override public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); count += len; }
+    @Override public void flush() throws IOException { out.flush(); }
+  }
+
+  // ---------- command line ----------
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 2 && args[0].equals("cat")) {
+      catColumnar(args[1]);
+      return;
+    }
+    Format f = args.length > 1 ? Format.parse(args[1]) : null;
+    if (args.length < 2 || f == null) {
+      System.err.println("usage: TxExport <clientId> csv|txc [file|-]  |  TxExport cat <file.txc>");
+      System.exit(2);
+    }
+    UUID clientId = UUID.fromString(args[0]);
+    Stats s;
+    if (args.length < 3 || args[2].equals("-")) {
+      OutputStream out = new BufferedOutputStream(System.out, 64 * 1024);
+      s = withConn(c -> { return write(c, clientId, f, out); });
+      out.flush();
+    } else {
+      s = toFile(clientId, f, Paths.get(args[2]));
+    }
+    System.err.println("rows=" + s.rows() + " bytes=" + s.bytes());
+  }
+
+  /** Decode a TXC1 file back to the same CSV the csv format writes. */
+  private static void catColumnar(String file) throws Exception {
+    Writer w = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024);
+    StringBuilder line = new StringBuilder(160);
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024)) {
+      String[] names = Columnar.read(in, new Columnar.RowSink() {
+        boolean header;
+        @Override public void row(Object[] v) throws Exception {
+          if (!header) { w.write(String.join(",", COLUMNS)); w.write('\n'); header = true; }
+          line.setLength(0);
+          line.append(v[0]).append(',');
+          if (v[1] != null) line.append(LocalDate.ofEpochDay((Long) v[1]));
+          line.append(',');
+          if (v[2] != null) line.append(v[2]);
+          line.append(',');
+          field(line, (String) v[3]).append(',');
+          field(line, (String) v[4]).append(',');
+          field(line, (String) v[5]).append(',');
+          if (v[6] != null) dollars(line, ((Long) v[6]).intValue());
+          line.append(',');
+          field(line, (String) v[7]).append('\n');
+          w.append(line);
+        }
+      });
+      if (names.length != COLUMNS.length) throw new IOException("unexpected columns");
+    }
+    w.flush();
+  }
+}
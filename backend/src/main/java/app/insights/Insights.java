@@ -0,0 +1,146 @@
+package app.insights;
+
+import app.common.Json;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Result of one GET /v1/insights aggregation. Spend is net posted cents (refunds subtract), the
+ * same rule as spend_rollup. Days come back as arrays; weeks (Monday start) and months are folded
+ * from them when written.
+ */
+public final class Insights {
+
+  /** One group: key is the category, merchant_norm or account id; name is the account name. */
+  public record Bucket(String key, String name, long cents, int count) {
+    static final Comparator<Bucket> BY_SPEND =
+        Comparator.comparingLong(Bucket::cents).reversed().thenComparing(Bucket::count, Comparator.reverseOrder());
+  }
+
+  final LocalDate from, to;
+  final List<Bucket> byCategory, byMerchant, byAccount;
+  private final int fromDay;
+  private final long[] daySum;
+  private final int[] dayCnt;
+  final int snapshotRows;
+
+  Insights(LocalDate from, LocalDate to, List<Bucket> byCategory, List<Bucket> byMerchant, List<Bucket> byAccount,
+           int fromDay, long[] daySum, int[] dayCnt, int snapshotRows) {
+    this.from = from;
+    this.to = to;
+    this.byCategory = byCategory;
+    this.byMerchant = byMerchant;
+    this.byAccount = byAccount;
+    this.fromDay = fromDay;
+    this.daySum = daySum;
+    this.dayCnt = dayCnt;
+    this.snapshotRows = snapshotRows;
+  }
+
+  /** Non-empty dictionary codes as buckets, biggest spend first, at most top of them. */
+  static List<Bucket> buckets(TxColumns.Dict dict, long[] sum, int[] cnt, int top) {
+    List<Bucket> out = new ArrayList<>();
+    for (int k = 0; k < sum.length; k++) {
+      if (cnt[k] > 0) out.add(new Bucket(dict.value(k), null, sum[k], cnt[k]));
+    }
+    out.sort(Bucket.BY_SPEND);
+    return out.size() > top ? new ArrayList<>(out.subList(0, top)) : out;
+  }
+
+  public long totalCents() {
+    long t = 0;
+    for (long v : daySum) t += v;
+    return t;
+  }
+
+  public int count() {
+    int n = 0;
+    for (int v : dayCnt) n += v;
+    return n;
+  }
+
+  /** JSON body; snapshotAgeMs is how long ago the snapshot was last checked against the database. */
+  public String toJson(long snapshotAgeMs) throws Exception {
+    StringWriter w = new StringWriter(512 + daySum.length * 48);
+    try (JsonGenerator g = Json.factory().createGenerator(w)) {
+      g.writeStartObject();
+      g.writeStringField("from", from.toString());
+      g.writeStringField("to", to.toString());
+      g.writeNumberField("total_cents", totalCents());
+      g.writeNumberField("tx_count", count());
+      writeBuckets(g, "by_category", byCategory);
+      writeBuckets(g, "by_merchant", byMerchant);
+      writeBuckets(g, "by_account", byAccount);
+      writeSeries(g);
+      g.writeObjectFieldStart("snapshot");
+      g.writeNumberField("rows", snapshotRows);
+      g.writeNumberField("age_ms", snapshotAgeMs);
+      g.writeEndObject();
+      g.writeEndObject();
+    }
+    return w.toString();
+  }
+
+  private static void writeBuckets(JsonGenerator g, String field, List<Bucket> buckets) throws Exception {
+    g.writeArrayFieldStart(field);
+    for (Bucket b : buckets) {
+      g.writeStartObject();
+      g.writeStringField("key", b.key());
+      if (b.name() != null) g.writeStringField("name", b.name());
+      g.writeNumberField("cents", b.cents());
+      g.writeNumberField("count", b.count());
+      g.writeEndObject();
+    }
+    g.writeEndArray();
+  }
+
+  /** by_day (days with activity only), by_week and by_month, each ordered by date. */
+  private void writeSeries(JsonGenerator g) throws Exception {
+    g.writeArrayFieldStart("by_day");
+    for (int i = 0; i < daySum.length; i++) {
+      if (dayCnt[i] > 0) point(g, LocalDate.ofEpochDay(fromDay + i), daySum[i], dayCnt[i]);
+    }
+    g.writeEndArray();
+
+    g.writeArrayFieldStart("by_week");
+    fold(g, true);
+    g.writeEndArray();
+
+    g.writeArrayFieldStart("by_month");
+    fold(g, false);
+    g.writeEndArray();
+  }
+
+  /** Sum consecutive days into weeks (Monday start) or calendar months. */
+  private void fold(JsonGenerator g, boolean weeks) throws Exception {
+    long start = -1, sum = 0;
+    int cnt = 0;
+    for (int i = 0; i < daySum.length; i++) {
+      int d = fromDay + i;
+      long bucket = weeks ? d - Math.floorMod(d + 3, 7)             // epoch day 0 was a Thursday
+                          : LocalDate.ofEpochDay(d).withDayOfMonth(1).toEpochDay();
+      if (bucket != start) {
+        if (cnt > 0) point(g, LocalDate.ofEpochDay(start), sum, cnt);
+        start = bucket;
+        sum = 0;
+        cnt = 0;
+      }
+      sum += daySum[i];
+      cnt += dayCnt[i];
+    }
+    if (cnt > 0) point(g, LocalDate.ofEpochDay(start), sum, cnt);
+  }
+
+  private static void point(JsonGenerator g, LocalDate date, long cents, int count) throws Exception {
+    g.writeStartObject();
+    g.writeStringField("date", date.toString());
+    g.writeNumberField("cents", cents);
+    g.writeNumberField("count", count);
+    g.writeEndObject();
+  }
+}
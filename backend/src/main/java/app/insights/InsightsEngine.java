@@ -0,0 +1,214 @@
+package app.insights;
+
+import app.common.Env;
+import app.common.Metrics;
+import app.plaid.TxUpsertService.Change;
+import app.plaid.TxUpsertService.Image;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static app.common.Db.*;
+
+/**
+ * Per-client columnar snapshots (TxColumns) behind GET /v1/insights.
+ * A snapshot is loaded from transactions on first use, then kept current two ways:
+ * TxUpsertService hands every write's before/after images to apply() once its transaction commits
+ * (same JVM), and a query on a snapshot not checked for insights_revalidate_ms re-reads rows whose
+ * updated_at moved, which covers writers in other containers. If the live row count still disagrees
+ * (deletes elsewhere), the snapshot is reloaded. Writes that move rows without a row-level change
+ * this can see (account relinks) call invalidate().
+ *
+ * Env vars (optional):
+ *   insights_max_clients    = snapshots kept in memory, least recently used evicted (default 64)
+ *   insights_revalidate_ms  = how stale a snapshot may be before a query re-checks it (default 30000)
+ *   insights_max_days       = widest accepted date range (default 3660)
+ */
+public final class InsightsEngine {
+
+  private InsightsEngine() { /* no instances */ }
+
+  static final int MAX_CLIENTS    = Math.max(1, Env.intOr("insights_max_clients", 64));
+  static final long REVALIDATE_MS = Math.max(0, Env.longOr("insights_revalidate_ms", 30_000));
+  public static final int MAX_DAYS = Math.max(1, Env.intOr("insights_max_days", 3660));
+  /** Re-read this far behind the watermark: NOW() is a tx's start time, so rows can commit "in the past". */
+  private static final long OVERLAP_MS = 10 * 60_000;
+
+  private static final class Entry {
+    final TxColumns cols;
+    volatile long checkedAt;      // wall clock of the last load/revalidate
+    volatile Timestamp watermark; // max(updated_at) seen at that point
+    volatile long usedAt;
+    Entry(TxColumns cols) { this.cols = cols; }
+  }
+
+  private static final Map<UUID, Entry> SNAPSHOTS = new ConcurrentHashMap<>();
+
+  /** Aggregate spend for clientId over [from, to]; loads or revalidates the snapshot as needed. */
+  public static Result query(UUID clientId, LocalDate from, LocalDate to, int top) throws Exception {
+    long t0 = System.nanoTime();
+    Entry e = SNAPSHOTS.get(clientId);
+    if (e == null) {
+      e = load(clientId);
+    } else if (System.currentTimeMillis() - e.checkedAt > REVALIDATE_MS) {
+      e = revalidate(e);
+    }
+    e.usedAt = System.currentTimeMillis();
+    evict();
+
+    long a0 = System.nanoTime();
+    Insights out = e.cols.aggregate((int) from.toEpochDay(), (int) to.toEpochDay(), top);
+    Metrics.since("insights.aggregate", a0);
+    Metrics.since("insights.query", t0);
+    return new Result(out, System.currentTimeMillis() - e.checkedAt);
+  }
+
+  public record Result(Insights insights, long snapshotAgeMs) {}
+
+  /** Apply committed writes to any loaded snapshot (TxUpsertService registers this via Db.afterCommit). */
+  public static void apply(List<Change> changes) {
+    if (SNAPSHOTS.isEmpty()) return;
+    for (Change ch : changes) {
+      Image im = ch.after() != null ? ch.after() : ch.before();
+      Entry e = SNAPSHOTS.get(im.clientId());
+      if (e == null) continue;
+      Image after = ch.after();
+      if (after == null || after.pending() || after.post() == null) {
+        e.cols.remove(im.plaidTxId());
+      } else {
+        e.cols.put(after.plaidTxId(), (int) after.post().toEpochDay(), after.amountCents(), after.category(),
+            after.merchantNorm(), after.accountId());
+      }
+    }
+  }
+
+  /** Drop one client's snapshot (or all, with null); the next query reloads. */
+  public static void invalidate(UUID clientId) {
+    if (clientId == null) SNAPSHOTS.clear(); else SNAPSHOTS.remove(clientId);
+  }
+
+  // ---------- loading ----------
+
+  private static final String COLS =
+      "plaid_tx_id, post_date, amount_cents, category, merchant_norm, account_id, updated_at, status";
+
+  private static Entry load(UUID clientId) throws Exception {
+    long t0 = System.nanoTime();
+    Entry e = withTx(c -> {
+      int expected = countPosted(c, clientId);
+      Entry fresh = new Entry(new TxColumns(clientId, expected));
+      // Stream with a cursor (auto-commit off) so a multi-year history isn't buffered twice; sortAll() orders it.
+      try (PreparedStatement ps = c.prepareStatement("SELECT " + COLS + " FROM transactions WHERE client_id = ?::uuid")) {
+        ps.setFetchSize(5_000);
+        ps.setObject(1, clientId);
+        try (ResultSet rs = ps.executeQuery()) {
+          fresh.watermark = readRows(rs, fresh.cols, null, true);
+        }
+      }
+      fresh.cols.sortAll();
+      many(c, "SELECT id, name FROM accounts WHERE client_id = ?::uuid",
+          rs -> { fresh.cols.nameAccount(rs.getLong(1), rs.getString(2)); return null; }, clientId);
+      return fresh;
+    });
+    e.checkedAt = System.currentTimeMillis();
+    SNAPSHOTS.put(clientId, e);
+    Metrics.since("insights.load", t0);
+    Metrics.sample("insights.load.rows", e.cols.live());
+    return e;
+  }
+
+  /** Catch up on rows changed since the watermark; reload if the row count still disagrees. */
+  private static Entry revalidate(Entry e) throws Exception {
+    long t0 = System.nanoTime();
+    UUID clientId = e.cols.clientId;
+    Timestamp since = e.watermark == null ? new Timestamp(0) : new Timestamp(e.watermark.getTime() - OVERLAP_MS);
+    boolean consistent = withConn(c -> {
+      try (PreparedStatement ps = c.prepareStatement(
+          "SELECT " + COLS + " FROM transactions WHERE client_id = ?::uuid AND updated_at > ?")) {
+        ps.setObject(1, clientId);
+        ps.setTimestamp(2, since);
+        try (ResultSet rs = ps.executeQuery()) {
+          Timestamp w = readRows(rs, e.cols, e.watermark, false);
+          if (w != null) e.watermark = w;
+        }
+      }
+      nameNewAccounts(c, e.cols);
+      return countPosted(c, clientId) == e.cols.live();
+    });
+    Metrics.since("insights.revalidate", t0);
+    if (!consistent) {
+      Metrics.count("insights.reload", 1);
+      return load(clientId);
+    }
+    e.checkedAt = System.currentTimeMillis();
+    return e;
+  }
+
+  /**
+   * Copy rows into cols; returns the max updated_at seen (or prior if none newer). A load appends;
+   * a catch-up upserts/removes by plaid_tx_id and skips rows without one, which can't be matched to
+   * an existing row (the count check catches those).
+   */
+  private static Timestamp readRows(ResultSet rs, TxColumns cols, Timestamp prior, boolean loading)
+      throws Exception {
+    Timestamp max = prior;
+    while (rs.next()) {
+      String txId = rs.getString(1);
+      LocalDate post = rs.getObject(2, LocalDate.class);
+      String status = rs.getString(8);
+      Timestamp u = rs.getTimestamp(7);
+      if (u != null && (max == null || u.after(max))) max = u;
+      boolean posted = post != null && !"pending".equalsIgnoreCase(status);
+      if (loading) {
+        if (posted) cols.add(txId, (int) post.toEpochDay(), rs.getInt(3), rs.getString(4), rs.getString(5), rs.getLong(6));
+      } else if (txId != null) {
+        if (posted) cols.put(txId, (int) post.toEpochDay(), rs.getInt(3), rs.getString(4), rs.getString(5), rs.getLong(6));
+        else cols.remove(txId);
+      }
+    }
+    return max;
+  }
+
+  private static void nameNewAccounts(Connection c, TxColumns cols) throws Exception {
+    List<Long> ids = cols.unnamedAccounts();
+    if (ids.isEmpty()) return;
+    Array arr = c.createArrayOf("bigint", ids.toArray());
+    try {
+      many(c, "SELECT id, name FROM accounts WHERE id = ANY(?)",
+          rs -> { cols.nameAccount(rs.getLong(1), rs.getString(2)); return null; }, arr);
+    } finally {
+      arr.free();
+    }
+  }
+
+  /** Same filter as spend_rollup: posted rows with a post_date. */
+  private static int countPosted(Connection c, UUID clientId) throws Exception {
+    Integer n = one(c, """
+      SELECT COUNT(*)::int
+        FROM transactions
+       WHERE client_id = ?::uuid
+         AND post_date IS NOT NULL
+         AND lower(COALESCE(status, '')) <> 'pending'
+      """, rs -> rs.getInt(1), clientId);
+    return n == null ? 0 : n;
+  }
+
+  private static void evict() {
+    while (SNAPSHOTS.size() > MAX_CLIENTS) {
+      UUID oldest = null;
+      long at = Long.MAX_VALUE;
+      for (var en : SNAPSHOTS.entrySet()) {
+        if (en.getValue().usedAt < at) { at = en.getValue().usedAt; oldest = en.getKey(); }
+      }
+      if (oldest == null || SNAPSHOTS.remove(oldest) == null) return;
+    }
+  }
+}
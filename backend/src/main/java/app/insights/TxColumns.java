@@ -0,0 +1,262 @@
+package app.insights;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Column-per-field snapshot of one client's posted transactions: amounts in cents, post dates as
+ * epoch days, and category/merchant/account as int codes into per-snapshot dictionaries. Aggregation
+ * is a scan over int arrays with no per-row objects.
+ * Rows [0, sorted) are ordered by day, so a date range is two binary searches. Writes update rows in
+ * place or append to an unsorted tail, and deletes leave tombstones (cat == -1). compact() re-sorts
+ * once the tail or tombstones grow. Readers share a read lock; writers take the write lock.
+ */
+final class TxColumns {
+
+  private static final int DEAD = -1;
+
+  final UUID clientId;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private int size, sorted, live;
+  private int[] day, cents, cat, merch, acct;
+  private String[] txId;                                         // plaid_tx_id per row, null if none
+  private final Map<String, Integer> rowOf = new HashMap<>();    // plaid_tx_id -> row, maintenance only
+
+  private final Dict categories = new Dict();
+  private final Dict merchants = new Dict();                     // code 0 = no merchant
+  private final Map<Long, Integer> accountCode = new HashMap<>();
+  private long[] accountIds = new long[8];
+  private String[] accountNames = new String[8];
+  private int accounts;
+
+  TxColumns(UUID clientId, int capacity) {
+    this.clientId = clientId;
+    int cap = Math.max(16, capacity);
+    day = new int[cap];
+    cents = new int[cap];
+    cat = new int[cap];
+    merch = new int[cap];
+    acct = new int[cap];
+    txId = new String[cap];
+    merchants.code(null);
+  }
+
+  int live() {
+    lock.readLock().lock();
+    try { return live; } finally { lock.readLock().unlock(); }
+  }
+
+  /** Insert or replace the row for txId (null txId always appends). Caller has checked it's posted. */
+  void put(String plaidTxId, int epochDay, int amountCents, String category, String merchant, long accountId) {
+    lock.writeLock().lock();
+    try {
+      Integer r = plaidTxId == null ? null : rowOf.get(plaidTxId);
+      if (r != null && day[r] == epochDay) {
+        cents[r] = amountCents;
+        cat[r] = categories.code(category);
+        merch[r] = merchants.code(merchant);
+        acct[r] = account(accountId);
+        return;
+      }
+      if (r != null) kill(r);  // date moved: the row changes position, so re-append it
+      append(plaidTxId, epochDay, amountCents, category, merchant, accountId);
+      maybeCompact();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Bulk-load append: no lookup, no compaction; call sortAll() when done. */
+  void add(String plaidTxId, int epochDay, int amountCents, String category, String merchant, long accountId) {
+    lock.writeLock().lock();
+    try { append(plaidTxId, epochDay, amountCents, category, merchant, accountId); } finally { lock.writeLock().unlock(); }
+  }
+
+  /** Drop the row for txId, if present. */
+  void remove(String plaidTxId) {
+    lock.writeLock().lock();
+    try {
+      Integer r = rowOf.get(plaidTxId);
+      if (r != null) {
+        kill(r);
+        maybeCompact();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Sort everything appended so far; a bulk load calls this once at the end. */
+  void sortAll() {
+    lock.writeLock().lock();
+    try { compact(); } finally { lock.writeLock().unlock(); }
+  }
+
+  void nameAccount(long accountId, String name) {
+    lock.writeLock().lock();
+    try { accountNames[account(accountId)] = name; } finally { lock.writeLock().unlock(); }
+  }
+
+  /** Account ids with no name yet (seen first through a write, not a load). */
+  List<Long> unnamedAccounts() {
+    lock.readLock().lock();
+    try {
+      List<Long> out = new ArrayList<>();
+      for (int a = 0; a < accounts; a++) if (accountNames[a] == null) out.add(accountIds[a]);
+      return out;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Spend over [from, to] (epoch days, inclusive) by category, merchant, account and day. */
+  Insights aggregate(int from, int to, int top) {
+    lock.readLock().lock();
+    try {
+      int days = to - from + 1;
+      long[] catSum = new long[categories.size()], merchSum = new long[merchants.size()], acctSum = new long[accounts];
+      int[] catCnt = new int[catSum.length], merchCnt = new int[merchSum.length], acctCnt = new int[acctSum.length];
+      long[] daySum = new long[days];
+      int[] dayCnt = new int[days];
+
+      int lo = lowerBound(from), hi = lowerBound(to + 1);
+      for (int pass = 0; pass < 2; pass++) {
+        int a = pass == 0 ? lo : sorted, b = pass == 0 ? hi : size;
+        for (int i = a; i < b; i++) {
+          int c = cat[i];
+          if (c == DEAD) continue;
+          int d = day[i] - from;
+          if (pass == 1 && (d < 0 || d >= days)) continue;  // tail isn't sorted
+          int v = cents[i];
+          catSum[c] += v;   catCnt[c]++;
+          merchSum[merch[i]] += v; merchCnt[merch[i]]++;
+          acctSum[acct[i]] += v;   acctCnt[acct[i]]++;
+          daySum[d] += v;   dayCnt[d]++;
+        }
+      }
+
+      List<Insights.Bucket> byAccount = new ArrayList<>();
+      for (int k = 0; k < acctSum.length; k++) {
+        if (acctCnt[k] > 0) byAccount.add(new Insights.Bucket(Long.toString(accountIds[k]), accountNames[k], acctSum[k], acctCnt[k]));
+      }
+      byAccount.sort(Insights.Bucket.BY_SPEND);
+      return new Insights(LocalDate.ofEpochDay(from), LocalDate.ofEpochDay(to),
+          Insights.buckets(categories, catSum, catCnt, Integer.MAX_VALUE),
+          Insights.buckets(merchants, merchSum, merchCnt, top),
+          byAccount, from, daySum, dayCnt, live);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // ---------- internals (write lock held) ----------
+
+  private void append(String plaidTxId, int epochDay, int amountCents, String category, String merchant, long accountId) {
+    if (size == day.length) grow();
+    int r = size++;
+    day[r] = epochDay;
+    cents[r] = amountCents;
+    cat[r] = categories.code(category);
+    merch[r] = merchants.code(merchant);
+    acct[r] = account(accountId);
+    txId[r] = plaidTxId;
+    if (plaidTxId != null) rowOf.put(plaidTxId, r);
+    live++;
+  }
+
+  private void kill(int r) {
+    cat[r] = DEAD;
+    if (txId[r] != null) rowOf.remove(txId[r]);
+    txId[r] = null;
+    live--;
+  }
+
+  private int account(long accountId) {
+    Integer code = accountCode.get(accountId);
+    if (code != null) return code;
+    if (accounts == accountIds.length) {
+      accountIds = Arrays.copyOf(accountIds, accounts * 2);
+      accountNames = Arrays.copyOf(accountNames, accounts * 2);
+    }
+    accountIds[accounts] = accountId;
+    accountCode.put(accountId, accounts);
+    return accounts++;
+  }
+
+  private void grow() {
+    int cap = day.length * 2;
+    day = Arrays.copyOf(day, cap);
+    cents = Arrays.copyOf(cents, cap);
+    cat = Arrays.copyOf(cat, cap);
+    merch = Arrays.copyOf(merch, cap);
+    acct = Arrays.copyOf(acct, cap);
+    txId = Arrays.copyOf(txId, cap);
+  }
+
+  /** Re-sort once the unsorted tail passes 1/8 of the rows or tombstones pass 1/4. */
+  private void maybeCompact() {
+    int tail = size - sorted, dead = size - live;
+    if (tail > Math.max(1024, sorted / 8) || dead > Math.max(1024, live / 4)) compact();
+  }
+
+  /** Drop tombstones and order every row by day (stable, via packed day|row longs). */
+  private void compact() {
+    long[] keys = new long[live];
+    int n = 0;
+    for (int i = 0; i < size; i++) {
+      if (cat[i] != DEAD) keys[n++] = ((long) day[i] << 32) | i;  // day in the high half, row in the low
+    }
+    Arrays.sort(keys, 0, n);
+    int[] d2 = new int[Math.max(16, n + n / 4)], c2 = new int[d2.length], k2 = new int[d2.length],
+        m2 = new int[d2.length], a2 = new int[d2.length];
+    String[] t2 = new String[d2.length];
+    rowOf.clear();
+    for (int j = 0; j < n; j++) {
+      int i = (int) keys[j];
+      d2[j] = day[i];
+      c2[j] = cents[i];
+      k2[j] = cat[i];
+      m2[j] = merch[i];
+      a2[j] = acct[i];
+      t2[j] = txId[i];
+      if (t2[j] != null) rowOf.put(t2[j], j);
+    }
+    day = d2; cents = c2; cat = k2; merch = m2; acct = a2; txId = t2;
+    size = sorted = live = n;
+  }
+
+  /** First sorted row with day >= d. */
+  private int lowerBound(int d) {
+    int lo = 0, hi = sorted;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (day[mid] < d) lo = mid + 1; else hi = mid;
+    }
+    return lo;
+  }
+
+  /** String <-> dense int code. */
+  static final class Dict {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    int code(String v) {
+      Integer c = codes.get(v);
+      if (c != null) return c;
+      codes.put(v, values.size());
+      values.add(v);
+      return values.size() - 1;
+    }
+
+    String value(int code) { return values.get(code); }
+
+    int size() { return values.size(); }
+  }
+}
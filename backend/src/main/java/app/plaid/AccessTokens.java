@@ -0,0 +1,166 @@
+package app.plaid;
+
+import app.common.AwsClients;
+import app.common.Env;
+import app.common.Metrics;
+import software.amazon.awssdk.services.secretsmanager.model.CreateSecretRequest;
+import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueRequest;
+import software.amazon.awssdk.services.secretsmanager.model.PutSecretValueRequest;
+import software.amazon.awssdk.services.secretsmanager.model.ResourceNotFoundException;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Plaid access tokens, one secret per (clientId, itemId), fronted by a TTL + LRU cache so a sync
+ * doesn't pay a Secrets Manager round trip every time. Writes and deletes go through here so the
+ * cache is invalidated whenever ExchangePublicTokenHandler rotates or removes an Item's secret.
+ * Each key has a version that writes bump before and after touching the store; a load caches its
+ * result only if the version is unchanged, so a read racing a rotation can't re-cache the old token.
+ *
+ * Env vars (optional):
+ *   token_cache_ttl_s  (default 300)
+ *   token_cache_max    (default 1000)
+ */
+public final class AccessTokens {
+
+  private AccessTokens() { /* no instances */ }
+
+  /** Backing secret store; swap with setStore() (e.g. inMemory() in tests or local runs). */
+  public interface Store {
+    /** Secret value, or null if it doesn't exist. */
+    String get(String secretId);
+    void put(String secretId, String value);
+    void delete(String secretId);
+  }
+
+  static final long TTL_MS = Math.max(0, Env.longOr("token_cache_ttl_s", 300)) * 1_000;
+  static final int MAX = Math.max(1, Env.intOr("token_cache_max", 1_000));
+
+  private record Entry(String token, long expiresAt) {}
+
+  // access-ordered LinkedHashMap = LRU; guarded by its own monitor
+  private static final LinkedHashMap<String, Entry> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) { return size() > MAX; }
+  };
+
+  // per-key write versions, and an epoch for clear(); both guarded by CACHE's monitor
+  private static final Map<String, Long> VERSIONS = new HashMap<>();
+  private static long epoch;
+
+  private static volatile Store store = new SecretsManagerStore();
+
+  public static void setStore(Store s) {
+    store = s;
+    clear();
+  }
+
+  static String secretId(String clientId, String itemId) {
+    return "plaid/access-token/%s/%s".formatted(clientId, itemId);
+  }
+
+  /** Cached token for the Item, loading from the store on miss/expiry; null if no secret exists. */
+  public static String get(String clientId, String itemId) {
+    String key = secretId(clientId, itemId);
+    long now = System.currentTimeMillis();
+    long epoch0, version0;
+    synchronized (CACHE) {
+      Entry e = CACHE.get(key);
+      if (e != null && e.expiresAt() > now) {
+        Metrics.count("token_cache.hit", 1);
+        return e.token();
+      }
+      epoch0 = epoch;
+      version0 = VERSIONS.getOrDefault(key, 0L);
+    }
+    Metrics.count("token_cache.miss", 1);
+    String token = store.get(key);
+    if (token != null && TTL_MS > 0) {
+      synchronized (CACHE) {
+        // a put/delete/clear since we read the store may have changed the secret; don't cache what we saw
+        if (epoch == epoch0 && VERSIONS.getOrDefault(key, 0L) == version0) {
+          CACHE.put(key, new Entry(token, now + TTL_MS));
+        }
+      }
+    }
+    return token;
+  }
+
+  /** Store (create or rotate) the Item's token and refresh the cache entry. */
+  public static void put(String clientId, String itemId, String token) {
+    String key = secretId(clientId, itemId);
+    invalidate(clientId, itemId);
+    store.put(key, token);
+    synchronized (CACHE) {
+      bump(key);  // loads that started before the store write must not cache over this
+      if (TTL_MS > 0) CACHE.put(key, new Entry(token, System.currentTimeMillis() + TTL_MS));
+    }
+  }
+
+  /** Delete the Item's secret and drop it from the cache. */
+  public static void delete(String clientId, String itemId) {
+    invalidate(clientId, itemId);
+    store.delete(secretId(clientId, itemId));
+    invalidate(clientId, itemId);
+  }
+
+  public static void invalidate(String clientId, String itemId) {
+    String key = secretId(clientId, itemId);
+    synchronized (CACHE) {
+      CACHE.remove(key);
+      bump(key);
+    }
+  }
+
+  public static void clear() {
+    synchronized (CACHE) {
+      CACHE.clear();
+      VERSIONS.clear();
+      epoch++;
+    }
+  }
+
+  private static void bump(String key) {
+    VERSIONS.merge(key, 1L, Long::sum);
+  }
+
+  /** Map-backed store for tests and local runs without AWS. */
+  public static Store inMemory() {
+    Map<String, String> m = new ConcurrentHashMap<>();
+    return new Store() {
+      @Override public String get(String id) { return m.get(id); }
+      @Override public void put(String id, String value) { m.put(id, value); }
+      @Override public void delete(String id) { m.remove(id); }
+    };
+  }
+
+  /** AWS Secrets Manager, via the shared client. */
+  static final class SecretsManagerStore implements Store {
+    @Override public String get(String id) {
+      try {
+        return AwsClients.secretsManager()
+            .getSecretValue(GetSecretValueRequest.builder().secretId(id).build())
+            .secretString();
+      } catch (ResourceNotFoundException rnfe) {
+        return null;
+      }
+    }
+
+    @Override public void put(String id, String value) {
+      var sm = AwsClients.secretsManager();
+      try {
+        sm.putSecretValue(PutSecretValueRequest.builder().secretId(id).secretString(value).build());
+      } catch (ResourceNotFoundException rnfe) {
+        sm.createSecret(CreateSecretRequest.builder().name(id).secretString(value).build());
+      }
+    }
+
+    @Override public void delete(String id) {
+      try {
+        AwsClients.secretsManager().deleteSecret(b -> b.secretId(id).forceDeleteWithoutRecovery(true));
+      } catch (Exception ignore) {}
+    }
+  }
+}
@@ -0,0 +1,240 @@
+package app.plaid;
+
+import app.common.Metrics;
+import com.plaid.client.model.AccountBase;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static app.common.Db.*;
+
+/**
+ * DB side of linking an Item: record it, upsert its accounts and links, move history off the
+ * accounts and Items it replaces, then drop what's left orphaned.
+ * Every phase is one statement over the whole account list (passed as arrays and unnest()ed), so
+ * the transaction does a fixed number of round trips however many accounts or transactions the
+ * institution has. Each phase's rows and time are recorded as "exchange.relink.<phase>".
+ */
+final class AccountRelink {
+
+  private AccountRelink() { /* no instances */ }
+
+  record Phase(String name, int rows, long nanos) {}
+
+  /** Item ids this link replaced (their secrets are the caller's to revoke after commit) plus per-phase stats. */
+  record Report(List<String> retiredItemIds, List<Phase> phases) {
+    /** "item=2/0.8ms accounts=3/1.2ms ... tx=6.1ms"; txNanos is the whole transaction, commit included. */
+    String summary(long txNanos) {
+      StringBuilder sb = new StringBuilder();
+      for (Phase p : phases) {
+        sb.append(p.name).append('=').append(p.rows).append('/').append(ms(p.nanos)).append("ms ");
+      }
+      return sb.append("tx=").append(ms(txNanos)).append("ms").toString();
+    }
+
+    private static String ms(long nanos) { return String.format("%.1f", nanos / 1e6); }
+  }
+
+  private record Acct(String plaidAccountId, String name, String mask, String subtype) {}
+
+  /** Runs inside the caller's transaction. */
+  static Report relink(Connection c, String clientId, String itemId, String instId, List<AccountBase> accounts)
+      throws Exception {
+    List<Phase> phases = new ArrayList<>(7);
+
+    // Plaid doesn't repeat account ids within an Item, but the statements below assume it.
+    Map<String, Acct> byId = new LinkedHashMap<>();
+    for (AccountBase a : accounts) {
+      String name = (a.getOfficialName() != null && !a.getOfficialName().isBlank()) ? a.getOfficialName() : a.getName();
+      String subtype = a.getSubtype() != null ? a.getSubtype().getValue() : null;
+      byId.put(a.getAccountId(), new Acct(a.getAccountId(), name, a.getMask(), subtype));
+    }
+    int n = byId.size();
+    String[] plaidIds = new String[n], names = new String[n], masks = new String[n], subtypes = new String[n];
+    int i = 0;
+    for (Acct a : byId.values()) {
+      plaidIds[i] = a.plaidAccountId;
+      names[i] = a.name;
+      masks[i] = a.mask;
+      subtypes[i] = a.subtype;
+      i++;
+    }
+
+    // 1) Client + Item row (relies on PK (client_id, item_id) and ON UPDATE CASCADE in FKs)
+    long t0 = System.nanoTime();
+    int itemRows = exec(c, """
+      INSERT INTO client (client_id)
+      VALUES (?::uuid)
+      ON CONFLICT (client_id) DO NOTHING
+    """, clientId);
+    itemRows += exec(c, """
+      INSERT INTO items (client_id, item_id, institution_id)
+      VALUES (?::uuid, ?, ?)
+      ON CONFLICT (client_id, item_id) DO UPDATE
+        SET institution_id = EXCLUDED.institution_id,
+            last_linked_at = NOW(),
+            is_active      = TRUE
+    """, clientId, itemId, instId);
+    phases.add(phase("item", itemRows, t0));
+
+    Map<String, Long> accountIds = new HashMap<>(n * 2);
+    if (n > 0) {
+      Array pa = c.createArrayOf("text", plaidIds);
+      Array na = c.createArrayOf("text", names);
+      Array ma = c.createArrayOf("text", masks);
+      Array sa = c.createArrayOf("text", subtypes);
+      try {
+        // 2) Accounts: reuse by (client_id, current_plaid_account_id), insert the rest; returns plaid id -> accounts.id
+        t0 = System.nanoTime();
+        many(c, """
+          WITH input AS (
+            SELECT * FROM unnest(?::text[], ?::text[], ?::text[], ?::text[]) AS i(plaid_account_id, name, mask, subtype)
+          ), existing AS (
+            SELECT DISTINCT ON (current_plaid_account_id) id, current_plaid_account_id
+              FROM accounts
+             WHERE client_id = ?::uuid
+               AND current_plaid_account_id = ANY(?::text[])
+             ORDER BY current_plaid_account_id, id
+          ), upd AS (
+            UPDATE accounts a
+               SET name            = i.name,
+                   mask            = i.mask,
+                   subtype         = i.subtype,
+                   institution_id  = ?,
+                   current_item_id = ?,
+                   last_seen       = NOW(),
+                   is_active       = TRUE
+              FROM existing e
+              JOIN input i ON i.plaid_account_id = e.current_plaid_account_id
+             WHERE a.id = e.id
+            RETURNING i.plaid_account_id, a.id
+          ), ins AS (
+            INSERT INTO accounts (client_id, institution_id, current_item_id, current_plaid_account_id, name, mask, subtype)
+            SELECT ?::uuid, ?, ?, i.plaid_account_id, i.name, i.mask, i.subtype
+              FROM input i
+             WHERE NOT EXISTS (SELECT 1 FROM existing e WHERE e.current_plaid_account_id = i.plaid_account_id)
+            RETURNING current_plaid_account_id, id
+          )
+          SELECT * FROM upd
+          UNION ALL
+          SELECT * FROM ins
+        """, rs -> accountIds.put(rs.getString(1), rs.getLong(2)),
+            pa, na, ma, sa, clientId, pa, instId, itemId, clientId, instId, itemId);
+        phases.add(phase("accounts", accountIds.size(), t0));
+      } finally {
+        pa.free();
+        na.free();
+        ma.free();
+        sa.free();
+      }
+
+      Long[] ids = new Long[n];
+      for (int k = 0; k < n; k++) ids[k] = accountIds.get(plaidIds[k]);
+      pa = c.createArrayOf("text", plaidIds);
+      Array ia = c.createArrayOf("bigint", ids);
+      ma = c.createArrayOf("text", masks);
+      sa = c.createArrayOf("text", subtypes);
+      try {
+        // 3) Links (client, item, plaid account) -> accounts.id
+        t0 = System.nanoTime();
+        int links = exec(c, """
+          INSERT INTO account_links (client_id, item_id, plaid_account_id, account_id)
+          SELECT ?::uuid, ?, l.plaid_account_id, l.account_id
+            FROM unnest(?::text[], ?::bigint[]) AS l(plaid_account_id, account_id)
+          ON CONFLICT (client_id, item_id, plaid_account_id) DO UPDATE
+            SET account_id = EXCLUDED.account_id,
+                last_seen  = NOW()
+        """, clientId, itemId, pa, ia);
+        phases.add(phase("links", links, t0));
+
+        // 4) Accounts are "the same" if (institution_id, mask, subtype) match: move transactions from any
+        //    other account with this account's key onto it. Accounts linked here are never sources, and an
+        //    old account matching several of them goes to the lowest id, so the result is deterministic.
+        t0 = System.nanoTime();
+        int moved = exec(c, """
+          UPDATE transactions t
+             SET account_id = m.target_id, updated_at = NOW()
+            FROM (
+              SELECT DISTINCT ON (ao.id) ao.id AS source_id, tg.account_id AS target_id
+                FROM unnest(?::bigint[], ?::text[], ?::text[]) AS tg(account_id, mask, subtype)
+                JOIN accounts ao
+                  ON ao.client_id      = ?::uuid
+                 AND ao.institution_id = ?
+                 AND COALESCE(ao.mask,    '') = COALESCE(tg.mask,    '')
+                 AND COALESCE(ao.subtype, '') = COALESCE(tg.subtype, '')
+               WHERE ao.id <> ALL(?::bigint[])
+               ORDER BY ao.id, tg.account_id
+            ) m
+           WHERE t.client_id  = ?::uuid
+             AND t.account_id = m.source_id
+        """, ia, ma, sa, clientId, instId, ia, clientId);
+        phases.add(phase("moved_tx", moved, t0));
+      } finally {
+        pa.free();
+        ia.free();
+        ma.free();
+        sa.free();
+      }
+    }
+
+    // 5) Every other Item for this (client, institution) is replaced by this one:
+    //    repoint its transactions, then delete it (account_links cascade).
+    t0 = System.nanoTime();
+    int repointed = exec(c, """
+      UPDATE transactions
+         SET source_item_id = ?, updated_at = NOW()
+       WHERE client_id = ?::uuid
+         AND source_item_id IN (
+               SELECT item_id
+                 FROM items
+                WHERE client_id = ?::uuid
+                  AND institution_id = ?
+                  AND item_id <> ?
+             )
+    """, itemId, clientId, clientId, instId, itemId);
+    phases.add(phase("repointed_tx", repointed, t0));
+
+    t0 = System.nanoTime();
+    List<String> retired = many(c, """
+      DELETE FROM items
+       WHERE client_id = ?::uuid
+         AND institution_id = ?
+         AND item_id <> ?
+      RETURNING item_id
+    """, rs -> rs.getString(1), clientId, instId, itemId);
+    phases.add(phase("retired_items", retired.size(), t0));
+
+    // 6) Orphaned accounts (no transactions, no links) left behind
+    t0 = System.nanoTime();
+    int orphans = exec(c, """
+      DELETE FROM accounts a
+       WHERE a.client_id = ?::uuid
+         AND a.institution_id = ?
+         AND NOT EXISTS (
+               SELECT 1 FROM transactions t
+                WHERE t.client_id = a.client_id
+                  AND t.account_id = a.id
+             )
+         AND NOT EXISTS (
+               SELECT 1 FROM account_links l
+                WHERE l.client_id = a.client_id
+                  AND l.account_id = a.id
+             )
+    """, clientId, instId);
+    phases.add(phase("orphans", orphans, t0));
+
+    return new Report(retired, phases);
+  }
+
+  private static Phase phase(String name, int rows, long t0) {
+    long nanos = System.nanoTime() - t0;
+    Metrics.timing("exchange.relink." + name, nanos);
+    Metrics.sample("exchange.relink." + name + ".rows", rows);
+    return new Phase(name, rows, nanos);
+  }
+}
@@ -0,0 +1,172 @@
+package app.plaid;
+
+import app.common.Env;
+import app.common.Metrics;
+import com.plaid.client.request.PlaidApi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import static app.common.Db.*;
+
+/**
+ * Syncs every active Item of one client concurrently, one pooled connection per worker.
+ * Each Item gets its own result and its own timeout (counted from when it starts running), so
+ * one slow institution neither fails nor serializes the others.
+ *
+ * The worker pool is shared by the container, so concurrency is bounded across requests too;
+ * keep sync_item_concurrency below db_pool_max.
+ *
+ * Env vars (optional):
+ *   sync_item_concurrency  (default min(4, db_pool_max - 1))
+ *   sync_item_timeout_ms   (default 20000)
+ */
+public final class ClientSync {
+
+  private ClientSync() { /* no instances */ }
+
+  static final int CONCURRENCY = Math.max(1,
+      Env.intOr("sync_item_concurrency", Math.min(4, Env.intOr("db_pool_max", 4) - 1)));
+  static final long ITEM_TIMEOUT_MS = Math.max(1_000, Env.longOr("sync_item_timeout_ms", 20_000));
+
+  /** status: ok | in_progress | rate_limited | plaid_error | no_token | timeout | error */
+  public record ItemResult(String itemId, String status, int added, int modified, int removed,
+                           int failures, String error, long elapsedMs) {
+    public boolean ok() { return "ok".equals(status); }
+    public int upserted() { return added + modified; }
+  }
+
+  private static final ExecutorService POOL = Executors.newFixedThreadPool(CONCURRENCY, r -> {
+    Thread t = new Thread(r, "item-sync");
+    t.setDaemon(true);
+    return t;
+  });
+
+  /** Active Items for the client, newest link first. */
+  public static List<String> activeItems(String clientId) throws Exception {
+    return withConn(c -> {
+      return many(c, """
+        SELECT item_id
+          FROM items
+         WHERE client_id = ?::uuid AND is_active
+         ORDER BY last_linked_at DESC
+      """, rs -> rs.getString(1), clientId);
+    });
+  }
+
+  /** Sync the Items, in input order; never throws for a single Item's failure. */
+  public static List<ItemResult> syncAll(PlaidApi plaid, String clientId, List<String> itemIds,
+                                         long budgetMs, Consumer<String> log) {
+    long deadline = System.currentTimeMillis() + Math.max(0, budgetMs);
+    List<Task> tasks = new ArrayList<>(itemIds.size());
+    for (String itemId : itemIds) {
+      Task t = new Task(plaid, clientId, itemId, log);
+      t.future = POOL.submit(t);
+      tasks.add(t);
+    }
+    List<ItemResult> out = new ArrayList<>(tasks.size());
+    for (Task t : tasks) out.add(await(t, deadline));
+    return out;
+  }
+
+  private static ItemResult await(Task t, long deadline) {
+    while (true) {
+      long now = System.currentTimeMillis();
+      long started = t.startedAt;
+      long until = started == 0 ? deadline : Math.min(deadline, started + ITEM_TIMEOUT_MS);
+      if (now >= until) {
+        t.future.cancel(true);
+        Metrics.count("sync.item.timeout", 1);
+        return new ItemResult(t.itemId, "timeout", 0, 0, 0, 0,
+            started == 0 ? "not started before deadline" : "timed out after " + (now - started) + "ms",
+            started == 0 ? 0 : now - started);
+      }
+      try {
+        // while still queued, re-check periodically so the per-Item clock starts when the work does
+        return t.future.get(started == 0 ? Math.min(50, until - now) : until - now, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException retry) {
+        // loop
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        t.future.cancel(true);
+        return new ItemResult(t.itemId, "error", 0, 0, 0, 0, "interrupted", 0);
+      } catch (CancellationException ce) {
+        // cancelled while running (the sync may still be in flight) or before it started: report as a timeout
+        long ran = started == 0 ? 0 : System.currentTimeMillis() - started;
+        return new ItemResult(t.itemId, "timeout", 0, 0, 0, 0, "cancelled", ran);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        return new ItemResult(t.itemId, "error", 0, 0, 0, 0, String.valueOf(cause), 0);
+      }
+    }
+  }
+
+  /** One Item's sync on its own pooled connection; failures come back as a status, never thrown. */
+  static ItemResult syncItem(PlaidApi plaid, String clientId, String itemId, Consumer<String> log) {
+    long started = System.currentTimeMillis();
+    long t0 = System.nanoTime();
+    try {
+      String token = AccessTokens.get(clientId, itemId);
+      if (token == null || token.isBlank()) {
+        return result(itemId, "no_token", null, null, started);
+      }
+      TransactionsSyncEngine.Outcome out = withConn(c -> {
+        return TransactionsSyncEngine.sync(c, plaid, clientId, itemId, token);
+      });
+      for (var f : out.failures()) {
+        // the rest of the page still landed
+        log.accept("[Sync] upsert failed item=" + itemId + (f.txId() != null ? " txId=" + f.txId() : "")
+            + " err=" + f.error());
+      }
+      return result(itemId, "ok", out, null, started);
+    } catch (TransactionsSyncEngine.ConcurrentSyncException ce) {
+      return result(itemId, "in_progress", null, null, started);
+    } catch (TransactionsSyncEngine.PlaidSyncException pe) {
+      return result(itemId, pe.status == 429 ? "rate_limited" : "plaid_error", null,
+          pe.body == null || pe.body.isBlank() ? "plaid_transactions_failed" : pe.body, started);
+    } catch (Exception e) {
+      log.accept("[Sync] item=" + itemId + " err=" + e);
+      return result(itemId, "error", null, String.valueOf(e), started);
+    } finally {
+      Metrics.since("sync.item", t0);
+    }
+  }
+
+  private static ItemResult result(String itemId, String status, TransactionsSyncEngine.Outcome o,
+                                   String error, long started) {
+    long ms = System.currentTimeMillis() - started;
+    return o == null
+        ? new ItemResult(itemId, status, 0, 0, 0, 0, error, ms)
+        : new ItemResult(itemId, status, o.added(), o.modified(), o.removed(), o.failures().size(), error, ms);
+  }
+
+  private static final class Task implements Callable<ItemResult> {
+    final PlaidApi plaid;
+    final String clientId;
+    final String itemId;
+    final Consumer<String> log;
+    volatile long startedAt;
+    Future<ItemResult> future;
+
+    Task(PlaidApi plaid, String clientId, String itemId, Consumer<String> log) {
+      this.plaid = plaid;
+      this.clientId = clientId;
+      this.itemId = itemId;
+      this.log = log;
+    }
+
+    @Override public ItemResult call() {
+      startedAt = System.currentTimeMillis();
+      return syncItem(plaid, clientId, itemId, log);
+    }
+  }
+}
@@ -1,9 +1,9 @@
 package app.plaid;
 
+import app.common.Json;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.plaid.client.request.PlaidApi;
 import com.plaid.client.model.*;
 import retrofit2.Response;
@@ -11,8 +11,10 @@ import retrofit2.Response;
 import java.util.List;
 import java.util.Map;
 
+import static app.common.Responses.error;
+import static app.common.Responses.json;
+
 public class CreateLinkTokenHandler implements RequestHandler<Map<String,Object>, APIGatewayProxyResponseEvent> {
-  private static final ObjectMapper M = new ObjectMapper();
   record Req(String clientId) {}
   record Res(String linkToken) {}
 
@@ -20,9 +22,9 @@ public class CreateLinkTokenHandler implements RequestHandler<Map<String,Object>
   public APIGatewayProxyResponseEvent handleRequest(Map<String,Object> in, Context ctx) {
     try {
       var body = (String) in.getOrDefault("body","{}");
-      var req = M.readValue(body, Req.class);
+      var req = Json.read(body, Req.class);
       if (req == null || req.clientId == null || req.clientId.isBlank()) {
-        return json(400, Map.of("error","clientId required"));
+        return error(400, "clientId required");
       }
       
       PlaidApi plaid = PlaidClientFactory.client();
@@ -57,33 +59,15 @@ public class CreateLinkTokenHandler implements RequestHandler<Map<String,Object>
         try {
           if (resp.errorBody() != null) err = resp.errorBody().string();
         } catch (Exception ignore) {}
-        return json(502, Map.of("error", err, "status", resp.code()));
+        return error(502, err, Map.of("status", resp.code()));
       }
 
       return json(200, new Res(resp.body().getLinkToken()));
 
     } catch (Exception e) {
       // Do NOT call a method that throws here; return a safe JSON response
-      return json(500, Map.of("error","internal"));
+      return error(500, "internal");
     }
   }
 
-  private static APIGatewayProxyResponseEvent json(int status, Object payload) {
-    String body;
-    try {
-      body = M.writeValueAsString(payload);
-    } catch (Exception e) {
-      // last-resort fallback
-      body = "{\"ok\":false}";
-    }
-    return new APIGatewayProxyResponseEvent()
-        .withStatusCode(status)
-        .withHeaders(Map.of(
-            "Content-Type","application/json",
-            "Access-Control-Allow-Origin","*",
-            "Access-Control-Allow-Headers","Content-Type, Authorization",
-            "Access-Control-Allow-Methods","GET,POST,OPTIONS"
-        ))
-        .withBody(body);
-  }
 }
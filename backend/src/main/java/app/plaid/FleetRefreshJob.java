@@ -0,0 +1,289 @@
+package app.plaid;
+
+import app.common.Env;
+import app.common.Metrics;
+import app.common.TokenBucket;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.plaid.client.request.PlaidApi;
+import okhttp3.Interceptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static app.common.Db.*;
+
+/**
+ * Background /transactions/sync for every active Item, so data stays fresh without a frontend
+ * call or webhook. A run snapshots the Items not synced within refresh_min_age_minutes into
+ * refresh_run_items, ordered by staleness weighted by recent activity; each invocation claims and
+ * syncs slices until its time budget is spent, so a run resumes across invocations (checkpointed
+ * per Item). Plaid calls go through a process-wide token bucket; a 429 pauses the bucket.
+ *
+ * Runs as a scheduled Lambda (handler app.plaid.FleetRefreshJob::handleRequest) or via main().
+ *
+ * Env vars (optional):
+ *   refresh_concurrency        (default 4)
+ *   refresh_plaid_rps          (default 10; leaves headroom under Plaid's limits for user syncs)
+ *   refresh_plaid_burst        (default 10)
+ *   refresh_min_age_minutes    (default 360; Items synced more recently are skipped)
+ *   refresh_item_timeout_ms    (default 60000)
+ *   refresh_max_attempts       (default 3)
+ */
+public class FleetRefreshJob implements RequestHandler<Map<String,Object>, Map<String,Object>> {
+
+  static final int CONCURRENCY     = Math.max(1, Env.intOr("refresh_concurrency", 4));
+  static final int MIN_AGE_MINUTES = Math.max(0, Env.intOr("refresh_min_age_minutes", 360));
+  static final long ITEM_TIMEOUT_MS = Math.max(1_000, Env.longOr("refresh_item_timeout_ms", 60_000));
+  static final int MAX_ATTEMPTS    = Math.max(1, Env.intOr("refresh_max_attempts", 3));
+  static final long SAFETY_MS      = 5_000;
+  static final long RATE_LIMIT_PAUSE_MS = 10_000;
+
+  /** Shared across warm invocations so back-to-back runs can't exceed the rate together. */
+  static final TokenBucket BUCKET = new TokenBucket(
+      Math.max(0.1, Double.parseDouble(Env.str("refresh_plaid_rps", "10"))),
+      Math.max(1, Env.intOr("refresh_plaid_burst", 10)));
+
+  private static final AtomicLong PLAID_CALLS = new AtomicLong();
+  private static volatile long deadlineMs = Long.MAX_VALUE;
+
+  /**
+   * One invocation's view of the run. runLatencyMs is set only by the invocation that completes
+   * the run (first snapshot to last Item, across invocations); -1 otherwise.
+   */
+  public record Report(long runId, boolean resumed, int itemsTotal, int claimed, int done, int skipped,
+                       int failed, int requeued, int remaining, long elapsedMs, double itemsPerSec,
+                       long plaidCalls, long limiterWaitMs, long runLatencyMs) {}
+
+  private record Claimed(String clientId, String itemId, int attempts) {}
+
+  @Override
+  public Map<String,Object> handleRequest(Map<String,Object> in, Context ctx) {
+    long budget = ctx == null ? 600_000 : ctx.getRemainingTimeInMillis() - SAFETY_MS;
+    Consumer<String> log = ctx == null ? System.out::println : s -> ctx.getLogger().log(s + "\n");
+    try {
+      Report r = run(budget, log);
+      log.accept("[Refresh] " + r);
+      Map<String,Object> out = new LinkedHashMap<>();
+      out.put("ok", true);
+      out.put("report", r);
+      return out;
+    } catch (Exception e) {
+      log.accept("[Refresh] fatal error: " + e);
+      return Map.of("ok", false, "error", String.valueOf(e.getMessage()));
+    }
+  }
+
+  /** Resume the open run (or start one) and work on it until done or budgetMs is spent. */
+  public static Report run(long budgetMs, Consumer<String> log) throws Exception {
+    long t0 = System.currentTimeMillis();
+    deadlineMs = t0 + Math.max(0, budgetMs);
+    long calls0 = PLAID_CALLS.get();
+    long wait0 = BUCKET.waitedNanos();
+
+    long[] opened = openRun();
+    long runId = opened[0];
+    boolean resumed = opened[1] == 1;
+    int total = (int) opened[2];
+
+    PlaidApi plaid = PlaidClientFactory.clientWith(RATE_LIMIT);
+    int claimed = 0, done = 0, skipped = 0, failed = 0, requeued = 0;
+    ExecutorService pool = Executors.newFixedThreadPool(CONCURRENCY, r -> {
+      Thread t = new Thread(r, "fleet-refresh");
+      t.setDaemon(true);
+      return t;
+    });
+    try {
+      // stop claiming once a fresh Item could no longer finish in time
+      while (deadlineMs - System.currentTimeMillis() > Math.min(ITEM_TIMEOUT_MS, budgetMs / 2)) {
+        List<Claimed> batch = claim(runId, CONCURRENCY * 2);
+        if (batch.isEmpty()) break;
+        claimed += batch.size();
+
+        List<Future<ClientSync.ItemResult>> futures = new ArrayList<>(batch.size());
+        for (Claimed c : batch) {
+          futures.add(pool.submit(() -> ClientSync.syncItem(plaid, c.clientId(), c.itemId(), log)));
+        }
+        for (int i = 0; i < batch.size(); i++) {
+          Claimed c = batch.get(i);
+          ClientSync.ItemResult res;
+          try {
+            long wait = Math.max(1, Math.min(deadlineMs - System.currentTimeMillis(), ITEM_TIMEOUT_MS));
+            res = futures.get(i).get(wait, TimeUnit.MILLISECONDS);
+          } catch (TimeoutException te) {
+            futures.get(i).cancel(true);
+            res = new ClientSync.ItemResult(c.itemId(), "timeout", 0, 0, 0, 0, "timed out", ITEM_TIMEOUT_MS);
+          }
+          switch (finish(runId, c, res)) {
+            case "done" -> done++;
+            case "skipped" -> skipped++;
+            case "failed" -> failed++;
+            default -> requeued++;
+          }
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    int remaining = withConn(c -> {
+      return one(c, """
+        SELECT count(*) FROM refresh_run_items WHERE run_id = ? AND status IN ('pending', 'running')
+      """, rs -> rs.getInt(1), runId);
+    });
+    long runLatencyMs = remaining == 0 ? completeRun(runId) : -1;
+
+    long elapsed = System.currentTimeMillis() - t0;
+    int finished = done + skipped + failed;
+    double perSec = elapsed == 0 ? 0 : finished * 1000.0 / elapsed;
+    Metrics.sample("refresh.items", finished);
+    Metrics.timing("refresh.invocation", elapsed * 1_000_000);
+    if (runLatencyMs >= 0) Metrics.timing("refresh.run", runLatencyMs * 1_000_000);
+    return new Report(runId, resumed, total, claimed, done, skipped, failed, requeued, remaining, elapsed,
+        Math.round(perSec * 100) / 100.0, PLAID_CALLS.get() - calls0,
+        (BUCKET.waitedNanos() - wait0) / 1_000_000, runLatencyMs);
+  }
+
+  /** {runId, resumed ? 1 : 0, itemsTotal}; a new run snapshots the Items due, highest priority first. */
+  static long[] openRun() throws Exception {
+    return withTx(c -> {
+      // one opener at a time, so overlapping invocations can't start two runs
+      exec(c, "SELECT pg_advisory_xact_lock(hashtext('refresh_runs'))");
+      long[] open = one(c, """
+        UPDATE refresh_runs SET invocations = invocations + 1
+         WHERE id = (SELECT id FROM refresh_runs WHERE status = 'running' ORDER BY id LIMIT 1)
+        RETURNING id, items_total
+      """, rs -> new long[] { rs.getLong(1), 1, rs.getInt(2) });
+      if (open != null) return open;
+
+      long runId = one(c, "INSERT INTO refresh_runs (invocations) VALUES (1) RETURNING id", rs -> rs.getLong(1));
+      // priority = hours since last sync (never-synced and >30d both count as 30d)
+      //          x (1 + ln(1 + transactions posted in the last 30 days))
+      exec(c, """
+        INSERT INTO refresh_run_items (run_id, client_id, item_id, priority)
+        SELECT ?, i.client_id, i.item_id,
+               LEAST(COALESCE(EXTRACT(EPOCH FROM NOW() - s.last_synced_at) / 3600.0, 720), 720)
+                 * (1 + ln(1 + COALESCE(a.recent, 0)))
+          FROM items i
+          LEFT JOIN item_sync_state s ON s.client_id = i.client_id AND s.item_id = i.item_id
+          LEFT JOIN LATERAL (
+                SELECT count(*) AS recent
+                  FROM transactions t
+                 WHERE t.client_id = i.client_id
+                   AND t.source_item_id = i.item_id
+                   AND t.post_date >= CURRENT_DATE - 30) a ON TRUE
+         WHERE i.is_active
+           AND (s.last_synced_at IS NULL OR s.last_synced_at < NOW() - make_interval(mins => ?))
+      """, runId, MIN_AGE_MINUTES);
+      int total = one(c, """
+        UPDATE refresh_runs SET items_total = (SELECT count(*) FROM refresh_run_items WHERE run_id = ?)
+         WHERE id = ?
+        RETURNING items_total
+      """, rs -> rs.getInt(1), runId, runId);
+      return new long[] { runId, 0, total };
+    });
+  }
+
+  /** Lease up to n ready Items, highest priority first; expired leases are picked up again. */
+  static List<Claimed> claim(long runId, int n) throws Exception {
+    long leaseSecs = Math.max(30, ITEM_TIMEOUT_MS / 1_000 * 2);
+    return withConn(c -> {
+      return many(c, """
+        UPDATE refresh_run_items r
+           SET status = 'running',
+               attempts = r.attempts + 1,
+               locked_until = NOW() + make_interval(secs => ?)
+         WHERE (r.run_id, r.client_id, r.item_id) IN (
+           SELECT q.run_id, q.client_id, q.item_id
+             FROM refresh_run_items q
+            WHERE q.run_id = ?
+              AND (q.status = 'pending' OR (q.status = 'running' AND q.locked_until < NOW()))
+            ORDER BY q.priority DESC
+            LIMIT ?
+            FOR UPDATE SKIP LOCKED)
+        RETURNING r.client_id::text, r.item_id, r.attempts
+      """, rs -> new Claimed(rs.getString(1), rs.getString(2), rs.getInt(3)), (double) leaseSecs, runId, n);
+    });
+  }
+
+  /** Checkpoint one Item; returns the status it was left in ("running" = retried after its lease). */
+  private static String finish(long runId, Claimed c, ClientSync.ItemResult r) {
+    // "running" keeps the claim's lease, so the Item is retried only once it expires: after a timeout the
+    // sync may still be going (cancel(true) can't interrupt blocking JDBC/OkHttp calls), and in_progress
+    // means another sync holds the Item right now.
+    String status = switch (r.status()) {
+      case "ok" -> "done";
+      case "no_token" -> "skipped";                       // nothing to sync with
+      case "in_progress" -> c.attempts() >= MAX_ATTEMPTS ? "skipped" : "running";
+      case "timeout" -> c.attempts() >= MAX_ATTEMPTS ? "failed" : "running";
+      case "rate_limited" -> "pending";                   // not the Item's fault; don't spend an attempt
+      default -> c.attempts() >= MAX_ATTEMPTS ? "failed" : "pending";
+    };
+    try {
+      withConn(conn -> {
+        exec(conn, """
+          UPDATE refresh_run_items
+             SET status = ?,
+                 attempts = attempts - CASE WHEN ? THEN 1 ELSE 0 END,
+                 locked_until = CASE WHEN ? = 'running' THEN locked_until END,
+                 finished_at = CASE WHEN ? IN ('pending', 'running') THEN NULL ELSE NOW() END,
+                 elapsed_ms = ?,
+                 upserted = ?,
+                 last_error = ?
+           WHERE run_id = ? AND client_id = ?::uuid AND item_id = ?
+        """, status, "rate_limited".equals(r.status()), status, status, (int) r.elapsedMs(), r.upserted(), r.error(),
+          runId, c.clientId(), c.itemId());
+      });
+    } catch (Exception e) {
+      // the lease expires and a later invocation retries the Item
+      return "pending";
+    }
+    return status;
+  }
+
+  /** Close the run; returns snapshot-to-completion latency in ms. */
+  private static long completeRun(long runId) throws Exception {
+    Long ms = withConn(c -> {
+      return one(c, """
+        UPDATE refresh_runs
+           SET status = 'done', finished_at = NOW()
+         WHERE id = ? AND status = 'running'
+        RETURNING (EXTRACT(EPOCH FROM finished_at - started_at) * 1000)::bigint
+      """, rs -> rs.getLong(1), runId);
+    });
+    return ms == null ? -1 : ms;
+  }
+
+  /** One permit per Plaid HTTP call; a 429 pauses the bucket for everyone. */
+  static final Interceptor RATE_LIMIT = chain -> {
+    try {
+      if (!BUCKET.acquire(deadlineMs)) throw new IOException("rate limiter: no permit before deadline");
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted waiting for rate limiter", ie);
+    }
+    PLAID_CALLS.incrementAndGet();
+    var resp = chain.proceed(chain.request());
+    if (resp.code() == 429) {
+      BUCKET.penalize(RATE_LIMIT_PAUSE_MS);
+      Metrics.count("refresh.plaid.rate_limited", 1);
+    }
+    return resp;
+  };
+
+  /** Local run: one invocation with a 10 minute budget. */
+  public static void main(String[] args) throws Exception {
+    long budget = args.length > 0 ? Long.parseLong(args[0]) : 600_000;
+    System.out.println("[Refresh] " + run(budget, System.out::println));
+  }
+}
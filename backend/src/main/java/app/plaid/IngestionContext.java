@@ -0,0 +1,132 @@
+package app.plaid;
+
+import app.common.Metrics;
+import app.plaid.TxUpsertService.Link;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static app.common.Db.*;
+
+/**
+ * plaid_account_id -> account link resolution scoped to one ingestion run (one Item's sync, a
+ * backfill, ...). An Item-scoped context loads all of that Item's links in one query on first use
+ * and serves every later page from memory. Accounts it doesn't know fall back to the newest link
+ * for that plaid_account_id, and ids that still don't resolve are remembered as misses, so an
+ * unlinked account costs one query per run, not one per page.
+ * Links change only when an Item is (re)linked; call invalidate() after such a write commits and
+ * every open context in this JVM reloads on its next lookup.
+ * Not thread-safe: one context per run.
+ */
+public final class IngestionContext {
+
+  private static final AtomicLong GENERATION = new AtomicLong();
+
+  private final UUID clientId;    // null with itemId for an unscoped context
+  private final String itemId;
+  private final Map<String, Link> links = new HashMap<>();
+  private final Set<String> missing = new HashSet<>();
+  private boolean itemLoaded;
+  private long generation;
+
+  private IngestionContext(UUID clientId, String itemId) {
+    this.clientId = clientId;
+    this.itemId = itemId;
+    this.generation = GENERATION.get();
+  }
+
+  /** Context for syncing one Item. */
+  public static IngestionContext forItem(UUID clientId, String itemId) {
+    return new IngestionContext(clientId, itemId);
+  }
+
+  /** Context with no Item preload: each unseen id costs one batched newest-link lookup. */
+  public static IngestionContext unscoped() {
+    return new IngestionContext(null, null);
+  }
+
+  /** Account links were rewritten (relink); cached links and misses in every context are stale. */
+  public static void invalidate() {
+    GENERATION.incrementAndGet();
+  }
+
+  /** Link for each id that has one; ids without a link are absent from the result. */
+  Map<String, Link> resolve(Connection c, Collection<String> plaidAcctIds) throws Exception {
+    long g = GENERATION.get();
+    if (g != generation) {
+      links.clear();
+      missing.clear();
+      itemLoaded = false;
+      generation = g;
+    }
+    if (itemId != null && !itemLoaded) {
+      loadItem(c);
+      itemLoaded = true;
+    }
+
+    Set<String> unknown = new LinkedHashSet<>();
+    for (String id : plaidAcctIds) {
+      if (!links.containsKey(id) && !missing.contains(id)) unknown.add(id);
+    }
+    if (!unknown.isEmpty()) {
+      Map<String, Link> found = newest(c, unknown);
+      links.putAll(found);
+      for (String id : unknown) {
+        if (!found.containsKey(id)) missing.add(id);
+      }
+      Metrics.count("ingest.links.miss", unknown.size() - found.size());
+    }
+
+    Map<String, Link> out = new HashMap<>();
+    for (String id : plaidAcctIds) {
+      Link l = links.get(id);
+      if (l != null) out.put(id, l);
+    }
+    return out;
+  }
+
+  /** Link for one id, or null. */
+  Link resolve(Connection c, String plaidAcctId) throws Exception {
+    return resolve(c, Set.of(plaidAcctId)).get(plaidAcctId);
+  }
+
+  private void loadItem(Connection c) throws Exception {
+    Metrics.count("ingest.links.query", 1);
+    many(c, """
+      SELECT plaid_account_id, client_id, account_id, item_id
+        FROM account_links
+       WHERE client_id = ?::uuid
+         AND item_id = ?
+      """,
+      rs -> links.put(rs.getString(1), new Link(rs.getObject(2, UUID.class), rs.getLong(3), rs.getString(4))),
+      clientId, itemId);
+  }
+
+  /** Newest link per plaid_account_id, in one round trip. */
+  private static Map<String, Link> newest(Connection c, Set<String> plaidAcctIds) throws Exception {
+    Metrics.count("ingest.links.query", 1);
+    Map<String, Link> out = new HashMap<>();
+    Array arr = c.createArrayOf("text", plaidAcctIds.toArray());
+    try {
+      many(c, """
+        SELECT DISTINCT ON (plaid_account_id) plaid_account_id, client_id, account_id, item_id
+          FROM account_links
+         WHERE plaid_account_id = ANY(?)
+         ORDER BY plaid_account_id, last_seen DESC NULLS LAST
+        """,
+        rs -> out.put(rs.getString(1), new Link(rs.getObject(2, UUID.class), rs.getLong(3), rs.getString(4))),
+        arr);
+    } finally {
+      arr.free();
+    }
+    return out;
+  }
+}
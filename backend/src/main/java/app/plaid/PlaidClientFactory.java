@@ -1,13 +1,59 @@
 package app.plaid;
 
+import app.common.Env;
+import app.common.Metrics;
 import com.plaid.client.ApiClient;
 import com.plaid.client.request.PlaidApi;
+import okhttp3.ConnectionPool;
+import okhttp3.Interceptor;
 
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * One PlaidApi (ApiClient + Retrofit + OkHttp) per process, built on first use.
+ * OkHttp keeps TLS connections to Plaid alive between warm invocations.
+ *
+ * Env vars (optional):
+ *   plaid_http_connect_ms  (default 3000)
+ *   plaid_http_read_ms     (default 20000)
+ *   plaid_http_call_ms     (default 25000, stays under the 30s Lambda timeout)
+ *   plaid_base_url         (overrides plaid_env's host, e.g. a local stub)
+ */
 public class PlaidClientFactory {
 
+  // Plaid is one host; a handful of idle keep-alive connections is plenty.
+  private static final ConnectionPool POOL = new ConnectionPool(4, 5, TimeUnit.MINUTES);
+
+  private static volatile PlaidApi api;
+
   public static PlaidApi client() {
+    PlaidApi a = api;
+    if (a != null) return a;
+    synchronized (PlaidClientFactory.class) {
+      if (api == null) {
+        long t0 = System.nanoTime();
+        api = build(null);
+        Metrics.since("client.init.plaid", t0);
+      }
+      return api;
+    }
+  }
+
+  /** Drop idle keep-alive connections (e.g. before a snapshot); the client itself stays usable. */
+  public static void evictConnections() {
+    POOL.evictAll();
+  }
+
+  /**
+   * A separate PlaidApi whose calls also pass through the given interceptor (e.g. a rate limiter).
+   * Shares the connection pool with client().
+   */
+  public static PlaidApi clientWith(Interceptor extra) {
+    return build(extra);
+  }
+
+  private static PlaidApi build(Interceptor extra) {
     // API keys for all calls
     HashMap<String, String> apiKeys = new HashMap<>();
     apiKeys.put("clientId", System.getenv("plaid_client_id"));
@@ -18,11 +64,39 @@ public class PlaidClientFactory {
     String env = System.getenv("plaid_env");
     String e = env == null ? "SANDBOX" : env.toUpperCase();
 
-    switch (e) {
-      case "PRODUCTION" -> apiClient.setPlaidAdapter(ApiClient.Production);
-      default -> apiClient.setPlaidAdapter(ApiClient.Sandbox);
+    String baseUrl = System.getenv("plaid_base_url");
+    if (baseUrl != null && !baseUrl.isBlank()) {
+      apiClient.setPlaidAdapter(baseUrl);
+    } else {
+      switch (e) {
+        case "PRODUCTION" -> apiClient.setPlaidAdapter(ApiClient.Production);
+        default -> apiClient.setPlaidAdapter(ApiClient.Sandbox);
+      }
     }
 
+    var ok = apiClient.getOkBuilder();
+    if (extra != null) ok.addInterceptor(extra);  // ahead of LATENCY, so limiter waits aren't Plaid latency
+    ok.connectionPool(POOL)
+        .connectTimeout(Env.longOr("plaid_http_connect_ms", 3_000), TimeUnit.MILLISECONDS)
+        .readTimeout(Env.longOr("plaid_http_read_ms", 20_000), TimeUnit.MILLISECONDS)
+        .callTimeout(Env.longOr("plaid_http_call_ms", 25_000), TimeUnit.MILLISECONDS)
+        .retryOnConnectionFailure(true)
+        .addInterceptor(LATENCY);
+
     return apiClient.createService(PlaidApi.class);
   }
-}
\ No newline at end of file
+
+  /** Reports per-endpoint latency as plaid./transactions/sync etc. */
+  private static final Interceptor LATENCY = chain -> {
+    long t0 = System.nanoTime();
+    String name = "plaid." + chain.request().url().encodedPath();
+    try {
+      var resp = chain.proceed(chain.request());
+      Metrics.since(resp.code() >= 400 ? name + ".error" : name, t0);
+      return resp;
+    } catch (java.io.IOException ex) {
+      Metrics.since(name + ".error", t0);
+      throw ex;
+    }
+  };
+}
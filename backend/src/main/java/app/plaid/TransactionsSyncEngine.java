@@ -0,0 +1,129 @@
+package app.plaid;
+
+import app.common.Env;
+import com.plaid.client.model.RemovedTransaction;
+import com.plaid.client.model.TransactionsSyncRequest;
+import com.plaid.client.model.TransactionsSyncResponse;
+import com.plaid.client.request.PlaidApi;
+import retrofit2.Response;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static app.common.Db.*;
+
+/**
+ * Incremental /transactions/sync for one Item.
+ * Pages are buffered until has_more is false, then the whole pagination loop (added + modified +
+ * removed of every page) is applied in one DB transaction together with the final cursor, swapped
+ * only if the stored cursor is still the one the loop started from. Plaid may abort a loop
+ * (TRANSACTIONS_SYNC_MUTATION_DURING_PAGINATION) and expects its partial results to be thrown
+ * away, which a per-page commit can't do: a row added on an aborted page and removed before the
+ * retry would never be reported again. A timeout mid-backfill therefore restarts the loop from the
+ * stored cursor. Steady-state syncs are a page or two. Expects an auto-commit connection.
+ */
+public final class TransactionsSyncEngine {
+
+  private TransactionsSyncEngine() { /* no instances */ }
+
+  /** Records per /transactions/sync page (Plaid max 500). */
+  static final int PAGE_SIZE = Math.min(500, Math.max(1, Env.intOr("plaid_sync_page_size", 500)));
+  static final int MAX_RESTARTS = 3;
+
+  public record Outcome(int added, int modified, int removed, int skipped, int pages,
+                        List<TxUpsertService.RowFailure> failures, String cursor) {
+    public int upserted() { return added + modified; }
+  }
+
+  /** Non-2xx from Plaid; body is Plaid's JSON error. */
+  public static class PlaidSyncException extends Exception {
+    public final int status;
+    public final String body;
+    PlaidSyncException(int status, String body) {
+      super("transactionsSync failed: " + status + " " + body);
+      this.status = status;
+      this.body = body;
+    }
+  }
+
+  /** Pull every page since the stored cursor and apply it. */
+  public static Outcome sync(Connection c, PlaidApi plaid, String clientId, String itemId, String accessToken)
+      throws Exception {
+    UUID cid = UUID.fromString(clientId);
+    exec(c, """
+      INSERT INTO item_sync_state (client_id, item_id)
+      VALUES (?::uuid, ?)
+      ON CONFLICT (client_id, item_id) DO NOTHING
+    """, cid, itemId);
+    final String loopStart = one(c,
+      "SELECT cursor FROM item_sync_state WHERE client_id = ?::uuid AND item_id = ?",
+      rs -> rs.getString(1), cid, itemId);
+
+    IngestionContext links = IngestionContext.forItem(cid, itemId);
+    List<TxUpsertService.RowFailure> failures = new ArrayList<>();
+    List<TransactionsSyncResponse> pages = new ArrayList<>();
+    String cursor = loopStart;
+    int restarts = 0;
+    boolean more = true;
+
+    while (more) {
+      var sreq = new TransactionsSyncRequest().accessToken(accessToken).cursor(cursor).count(PAGE_SIZE);
+      Response<TransactionsSyncResponse> resp = plaid.transactionsSync(sreq).execute();
+      if (!resp.isSuccessful() || resp.body() == null) {
+        String err = "";
+        try { if (resp.errorBody() != null) err = resp.errorBody().string(); } catch (Exception ignore) {}
+        // Plaid: data changed while paging -> discard this loop's pages and restart from its first cursor.
+        if (err.contains("TRANSACTIONS_SYNC_MUTATION_DURING_PAGINATION") && restarts++ < MAX_RESTARTS) {
+          pages.clear();
+          cursor = loopStart;
+          continue;
+        }
+        throw new PlaidSyncException(resp.code(), err);
+      }
+      TransactionsSyncResponse page = resp.body();
+      pages.add(page);
+      cursor = page.getNextCursor();
+      more = Boolean.TRUE.equals(page.getHasMore());
+    }
+
+    String next = cursor;
+    var counts = inTx(c, () -> {
+      int a = 0, m = 0, r = 0, s = 0;
+      for (TransactionsSyncResponse page : pages) {
+        var ar = TxUpsertService.upsertAll(c, links, page.getAdded());
+        var mr = TxUpsertService.upsertAll(c, links, page.getModified());
+        failures.addAll(ar.failures());
+        failures.addAll(mr.failures());
+        r += TxUpsertService.removeAll(c, cid, removedIds(page.getRemoved()));
+        a += ar.upserted();
+        m += mr.upserted();
+        s += ar.skipped() + mr.skipped();
+      }
+      // Optimistic cursor swap: if another sync advanced this item first, roll back and stop.
+      int n = exec(c, """
+        UPDATE item_sync_state
+           SET cursor = ?, last_synced_at = NOW()
+         WHERE client_id = ?::uuid
+           AND item_id = ?
+           AND cursor IS NOT DISTINCT FROM ?
+      """, next, cid, itemId, loopStart);
+      if (n == 0) throw new ConcurrentSyncException(itemId);
+      return new int[]{ a, m, r, s };
+    });
+    return new Outcome(counts[0], counts[1], counts[2], counts[3], pages.size(), failures, next);
+  }
+
+  /** Another sync for the same Item committed a newer cursor while this one was running. */
+  public static class ConcurrentSyncException extends Exception {
+    ConcurrentSyncException(String itemId) { super("concurrent sync for item " + itemId); }
+  }
+
+  private static List<String> removedIds(List<RemovedTransaction> removed) {
+    List<String> ids = new ArrayList<>();
+    if (removed == null) return ids;
+    for (RemovedTransaction r : removed) if (r.getTransactionId() != null) ids.add(r.getTransactionId());
+    return ids;
+  }
+}
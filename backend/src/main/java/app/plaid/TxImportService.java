@@ -0,0 +1,278 @@
+package app.plaid;
+
+import app.anomaly.AnomalyDetector;
+import app.budget.SpendRollup;
+import app.categories.CategoryRules;
+import app.common.Csv;
+import app.common.Env;
+import app.common.Metrics;
+import app.insights.InsightsEngine;
+import app.recurring.RecurringDetector;
+import app.plaid.TxUpsertService.Change;
+import org.postgresql.PGConnection;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static app.common.Db.*;
+
+/**
+ * CSV import into transactions (POST /v1/transactions/import).
+ * Records are parsed one at a time off the request body and mapped with TxUpsertService's merchant
+ * normalization and natural_key_hash. They are COPYed into a session temp table in batches of
+ * import_batch_rows, and each batch moves into transactions with one INSERT ... SELECT. That insert
+ * skips hashes the client already has and repeats within the batch. Every batch commits on its own,
+ * so re-sending a partly imported file only adds what is missing.
+ *
+ * Header (case-insensitive): date|post_date, merchant|description|name, amount, optional category
+ * and account_id. Amounts use Plaid's sign (positive = money out). Dates are YYYY-MM-DD or M/D/YYYY.
+ * A row's account_id (one of the client's accounts) overrides the request's; with it, the hash is
+ * the one a Plaid-synced row gets, so a TxExport CSV re-imports without duplicates.
+ * Imported rows are posted, with no plaid_tx_id and no source Item. The file's category (or
+ * "Uncategorized") is kept as category_raw, and the client's CategoryRules decide category.
+ *
+ * Env vars (optional):
+ *   import_batch_rows = rows per COPY + insert batch (default 50000)
+ */
+public final class TxImportService {
+
+  private TxImportService() { /* no instances */ }
+
+  static final int BATCH_ROWS = Math.max(1, Env.intOr("import_batch_rows", 50_000));
+  static final int MAX_ERRORS = 20;
+
+  public record RowError(long line, String error) {}
+
+  public record Report(long rowsRead, long imported, long duplicates, long rejected, int batches,
+                       long elapsedMs, long rowsPerSec, List<RowError> errors) {}
+
+  /** Bad input the caller should see as a 400 (missing columns, empty file). */
+  public static class ImportException extends Exception {
+    ImportException(String msg) { super(msg); }
+  }
+
+  private static final DateTimeFormatter US_DATE = DateTimeFormatter.ofPattern("M/d/uuuu");
+
+  /** Import one CSV stream for clientId; accountId (optional) must be one of the client's accounts. */
+  public static Report importCsv(UUID clientId, Long accountId, Reader body, Consumer<String> log) throws Exception {
+    long t0 = System.nanoTime();
+    try (Csv csv = new Csv(body)) {
+      String[] header = csv.next();
+      if (header == null) throw new ImportException("empty file");
+      int dateCol = Csv.column(header, "date", "post_date", "posted");
+      int merchCol = Csv.column(header, "merchant", "description", "name");
+      int amountCol = Csv.column(header, "amount", "amount_usd");
+      int catCol = Csv.column(header, "category");
+      int acctCol = Csv.column(header, "account_id");
+      if (dateCol < 0 || merchCol < 0 || amountCol < 0) {
+        throw new ImportException("header needs date, merchant and amount columns");
+      }
+
+      return withConn(c -> {
+        if (accountId != null && one(c, "SELECT 1 FROM accounts WHERE id = ? AND client_id = ?::uuid",
+            rs -> 1, accountId, clientId) == null) {
+          throw new ImportException("account_id " + accountId + " not found for client");
+        }
+        Set<Long> accounts = acctCol < 0 ? Set.of() : new HashSet<>(
+            many(c, "SELECT id FROM accounts WHERE client_id = ?::uuid", rs -> rs.getLong(1), clientId));
+        exec(c, """
+          CREATE TEMP TABLE IF NOT EXISTS import_stage (
+            line             bigint,
+            amount_cents     int,
+            post_date        date,
+            merchant_raw     text,
+            merchant_norm    text,
+            category         text,
+            category_raw     text,
+            natural_key_hash text,
+            account_id       bigint
+          ) ON COMMIT DELETE ROWS
+        """);
+        exec(c, "INSERT INTO client (client_id) VALUES (?::uuid) ON CONFLICT (client_id) DO NOTHING", clientId);
+        CategoryRules.Classifier rules = CategoryRules.forClient(c, clientId);
+
+        List<RowError> errors = new ArrayList<>();
+        StringBuilder copy = new StringBuilder(BATCH_ROWS * 96);
+        long read = 0, rejected = 0, imported = 0, staged = 0;
+        int batches = 0, inBatch = 0;
+
+        String[] rec;
+        while ((rec = csv.next()) != null) {
+          read++;
+          try {
+            LocalDate post = date(field(rec, dateCol));
+            int cents = TxUpsertService.toCents(amount(field(rec, amountCol)));
+            String merchant = blankToNull(field(rec, merchCol));
+            String raw = catCol < 0 ? null : blankToNull(field(rec, catCol));
+            // same shape as TxUpsertService.pickCategory
+            raw = raw == null ? "Uncategorized" : raw.replace('_', ' ');
+            Long acct = acctCol < 0 ? accountId : account(field(rec, acctCol), accountId, accounts);
+            String mNorm = TxUpsertService.norm(merchant);
+            String category = rules.categorize(acct == null ? 0 : acct, cents, mNorm, raw);
+            String nkh = TxUpsertService.naturalKeyHash(clientId, acct == null ? null : acct.toString(), cents, post,
+                merchant);
+            line(copy, csv.line(), cents, post, merchant, mNorm, category, raw, nkh, acct);
+            inBatch++;
+          } catch (Exception e) {
+            rejected++;
+            if (errors.size() < MAX_ERRORS) errors.add(new RowError(csv.line(), String.valueOf(e.getMessage())));
+          }
+          if (inBatch == BATCH_ROWS) {
+            imported += flush(c, clientId, copy);
+            staged += inBatch;
+            batches++;
+            inBatch = 0;
+            copy.setLength(0);
+            log.accept("[Import] client=" + clientId + " batch=" + batches + " read=" + read + " imported=" + imported
+                + " rows/s=" + perSec(read, t0));
+          }
+        }
+        if (inBatch > 0) {
+          imported += flush(c, clientId, copy);
+          staged += inBatch;
+          batches++;
+        }
+
+        long elapsedMs = (System.nanoTime() - t0) / 1_000_000;
+        Metrics.since("import.csv", t0);
+        Metrics.count("import.rows", imported);
+        return new Report(read, imported, staged - imported, rejected, batches, elapsedMs, perSec(read, t0), errors);
+      });
+    }
+  }
+
+  /** Body as a Reader; decodes base64 bodies (API Gateway does that for non-text content types). */
+  public static Reader reader(String body, boolean base64) {
+    if (!base64) return new StringReader(body);
+    InputStream bytes = Base64.getMimeDecoder().wrap(new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1)));
+    return new InputStreamReader(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** COPY one batch into import_stage, then insert the hashes the client doesn't have yet. */
+  private static int flush(Connection c, UUID clientId, StringBuilder copy) throws Exception {
+    long t0 = System.nanoTime();
+    int inserted = inTx(c, () -> {
+      // Serialize imports per client so two uploads of the same file can't both pass the NOT EXISTS.
+      one(c, "SELECT pg_advisory_xact_lock(hashtext('tx_import:' || ?))", rs -> 1, clientId.toString());
+      c.unwrap(PGConnection.class).getCopyAPI().copyIn(
+          "COPY import_stage (line, amount_cents, post_date, merchant_raw, merchant_norm, category, category_raw,"
+              + " natural_key_hash, account_id) FROM STDIN",
+          new StringReader(copy.toString()));
+      List<Change> changes = many(c, """
+        WITH fresh AS (
+          SELECT DISTINCT ON (s.natural_key_hash) s.*
+            FROM import_stage s
+           WHERE NOT EXISTS (SELECT 1 FROM transactions t
+                              WHERE t.client_id = ?::uuid
+                                AND t.natural_key_hash = s.natural_key_hash)
+           ORDER BY s.natural_key_hash, s.line
+        )
+        INSERT INTO transactions (
+          client_id, account_id, amount_cents, auth_date, post_date, status,
+          merchant_norm, merchant_raw, natural_key_hash, category, category_raw, created_at, updated_at
+        )
+        SELECT ?::uuid, account_id, amount_cents, post_date, post_date, 'posted',
+               merchant_norm, merchant_raw, natural_key_hash, category, category_raw, NOW(), NOW()
+          FROM fresh
+        RETURNING\s""" + TxUpsertService.IMAGE_COLS,
+          rs -> new Change(null, TxUpsertService.image(rs)), clientId, clientId);
+      SpendRollup.apply(c, changes);
+      RecurringDetector.apply(c, changes);
+      AnomalyDetector.apply(c, changes);
+      afterCommit(c, () -> InsightsEngine.apply(changes));
+      return changes.size();
+    });
+    Metrics.since("import.batch", t0);
+    return inserted;
+  }
+
+  /** One COPY text-format line (tab-separated, \N for null). */
+  private static void line(StringBuilder sb, long line, int cents, LocalDate post, String merchantRaw,
+                           String merchantNorm, String category, String categoryRaw, String nkh, Long accountId) {
+    sb.append(line).append('\t').append(cents).append('\t').append(post).append('\t');
+    text(sb, merchantRaw).append('\t');
+    text(sb, merchantNorm).append('\t');
+    text(sb, category).append('\t');
+    text(sb, categoryRaw).append('\t');
+    text(sb, nkh).append('\t');
+    text(sb, accountId == null ? null : accountId.toString()).append('\n');
+  }
+
+  private static StringBuilder text(StringBuilder sb, String v) {
+    if (v == null) return sb.append("\\N");
+    for (int i = 0; i < v.length(); i++) {
+      char ch = v.charAt(i);
+      switch (ch) {
+        case '\\' -> sb.append("\\\\");
+        case '\t' -> sb.append("\\t");
+        case '\n' -> sb.append("\\n");
+        case '\r' -> sb.append("\\r");
+        default   -> sb.append(ch);
+      }
+    }
+    return sb;
+  }
+
+  /** The row's account_id if it has one (must be the client's), else the request's. */
+  private static Long account(String s, Long fallback, Set<Long> accounts) {
+    if (s.isEmpty()) return fallback;
+    long id;
+    try {
+      id = Long.parseLong(s);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("bad account_id: " + s);
+    }
+    if (!accounts.contains(id)) throw new IllegalArgumentException("account_id " + id + " not found for client");
+    return id;
+  }
+
+  private static String field(String[] rec, int i) {
+    return i < rec.length ? rec[i].strip() : "";
+  }
+
+  private static String blankToNull(String s) {
+    return s == null || s.isEmpty() ? null : s;
+  }
+
+  static LocalDate date(String s) {
+    if (s.isEmpty()) throw new IllegalArgumentException("missing date");
+    try {
+      return s.indexOf('/') >= 0 ? LocalDate.parse(s, US_DATE) : LocalDate.parse(s);
+    } catch (Exception e) {
+      throw new IllegalArgumentException("bad date: " + s);
+    }
+  }
+
+  /** "1,234.50", "$5.94", "(12.00)" (negative) all parse. */
+  static BigDecimal amount(String s) {
+    String v = s.replace("$", "").replace(",", "").strip();
+    boolean neg = v.startsWith("(") && v.endsWith(")");
+    if (neg) v = v.substring(1, v.length() - 1);
+    try {
+      BigDecimal d = new BigDecimal(v);
+      return neg ? d.negate() : d;
+    } catch (Exception e) {
+      throw new IllegalArgumentException("bad amount: " + s);
+    }
+  }
+
+  private static long perSec(long rows, long t0) {
+    long ns = Math.max(1, System.nanoTime() - t0);
+    return rows * 1_000_000_000L / ns;
+  }
+}
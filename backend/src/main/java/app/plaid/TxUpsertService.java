@@ -2,34 +2,164 @@ package app.plaid;
 
 import com.plaid.client.model.Transaction;
 
+import app.anomaly.AnomalyDetector;
+import app.budget.SpendRollup;
+import app.categories.CategoryRules;
+import app.insights.InsightsEngine;
+import app.recurring.RecurringDetector;
+import app.common.Env;
+import app.common.Metrics;
+
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 import static app.common.Db.*;
 
 public class TxUpsertService {
+  /** Rows per JDBC batch in upsertAll (env tx_upsert_chunk). */
+  static final int CHUNK = Math.max(1, Env.intOr("tx_upsert_chunk", 500));
+
+  /** A transaction that could not be written; txId may be null if Plaid sent none. */
+  public record RowFailure(String txId, Exception error) {}
+
+  /** Outcome of upsertAll. skipped = missing ids or no account link yet. */
+  public record Result(int upserted, int skipped, List<RowFailure> failures) {}
+
+  record Link(UUID clientId, long accountId, String itemId) {}
+
+  /** Stored values of one transactions row, as derived tables (spend_rollup, ...) see it. */
+  public record Image(UUID clientId, String plaidTxId, long accountId, String category, LocalDate post,
+                      int amountCents, String status, String merchantNorm) {
+    public boolean pending() { return "pending".equalsIgnoreCase(status); }
+  }
+
+  /** One committed write: before == null for inserts, after == null for deletes. */
+  public record Change(Image before, Image after) {}
+
+  /** A transaction already mapped to column values; categoryRaw is the category before rules. */
+  record Row(String plaidTxId, Link link, int amountCents, LocalDate auth, LocalDate post, String status,
+             String mNorm, String merchant, String nkh, String category, String categoryRaw) {}
+
   static int toCents(Number n){ return (int)Math.round(n.doubleValue()*100.0); }
   // Plaid v20 dates are already LocalDate
   static LocalDate d(LocalDate x){ return x; }
   static LocalDate pick(LocalDate a, LocalDate b){ return a != null ? a : b; }
-  static String norm(String s){
+  /**
+   * merchant_norm: lower-case, anything outside [a-z0-9 ] becomes a space, runs of spaces collapse,
+   * trimmed. Single pass over ASCII input; anything else goes through the original regex path so
+   * stored values (and therefore dedupe) stay byte-for-byte the same.
+   */
+  public static String norm(String s){
+    if (s == null) return null;
+    if (!ASCII_LOWERCASE_SAFE) return normSlow(s);
+    int n = s.length();
+    char[] out = null;  // allocated only once the output diverges from s
+    int len = 0;
+    boolean pendingSpace = false;
+    for (int i = 0; i < n; i++) {
+      char ch = s.charAt(i);
+      if (ch >= 0x80) return normSlow(s);  // Unicode case mapping can yield ASCII (e.g. KELVIN SIGN -> 'k')
+      char m = NORM_MAP[ch];
+      if (m == ' ') {
+        if (len > 0) pendingSpace = true;  // drop leading spaces, defer inner/trailing ones
+        continue;
+      }
+      if (pendingSpace) {
+        if (out == null && (len != i - 1 || s.charAt(len) != ' ')) out = copyPrefix(s, len);
+        if (out != null) out[len] = ' ';
+        len++;
+        pendingSpace = false;
+      }
+      if (out == null && (len != i || m != ch)) out = copyPrefix(s, len);
+      if (out != null) out[len] = m;
+      len++;
+    }
+    if (out == null) return len == n ? s : s.substring(0, len);
+    return new String(out, 0, len);
+  }
+
+  private static char[] copyPrefix(String s, int len) {
+    char[] out = new char[s.length()];
+    s.getChars(0, len, out, 0);
+    return out;
+  }
+
+  private static final java.util.regex.Pattern NON_ALNUM = java.util.regex.Pattern.compile("[^a-z0-9 ]");
+  private static final java.util.regex.Pattern SPACES = java.util.regex.Pattern.compile("\\s+");
+
+  /** The original definition; the fast path must agree with it exactly. */
+  static String normSlow(String s){
     return s==null ? null
-                   : s.toLowerCase()
-                      .replaceAll("[^a-z0-9 ]"," ")
-                      .replaceAll("\\s+"," ")
-                      .trim();
+                   : SPACES.matcher(NON_ALNUM.matcher(s.toLowerCase()).replaceAll(" ")).replaceAll(" ").trim();
   }
 
+  // ASCII char -> normalized char ('A'->'a', 'a'->'a', '7'->'7', everything else -> ' ')
+  private static final char[] NORM_MAP = new char[0x80];
+  static {
+    for (char c = 0; c < 0x80; c++) {
+      NORM_MAP[c] = (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') ? c
+                  : (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A'))
+                  : ' ';
+    }
+  }
+  // toLowerCase() uses the default locale; tr/az/lt map ASCII 'I' differently, so skip the fast path there.
+  private static final boolean ASCII_LOWERCASE_SAFE = "I".toLowerCase().equals("i");
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /** Per-thread MD5 state: the digest plus scratch buffers for ASCII input and hex output. */
+  private static final class Md5Scratch {
+    final MessageDigest md;
+    byte[] in = new byte[128];
+    final char[] hex = new char[32];
+    Md5Scratch() {
+      try { md = MessageDigest.getInstance("MD5"); }
+      catch (java.security.NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+    }
+  }
+  private static final ThreadLocal<Md5Scratch> MD5 = ThreadLocal.withInitial(Md5Scratch::new);
+
+  /** Lower-case hex MD5 of the UTF-8 bytes of s (natural_key_hash). */
   static String md5(String s){
     if (s == null) return null;
     try {
-      var md = MessageDigest.getInstance("MD5");
-      byte[] dig = md.digest(s.getBytes(StandardCharsets.UTF_8));
-      StringBuilder sb = new StringBuilder(dig.length*2);
-      for (byte b : dig) sb.append(String.format("%02x", b));
-      return sb.toString();
+      Md5Scratch x = MD5.get();
+      MessageDigest md = x.md;
+      md.reset();
+      int n = s.length();
+      boolean ascii = true;
+      if (x.in.length < n) x.in = new byte[Math.max(n, x.in.length * 2)];
+      for (int i = 0; i < n; i++) {
+        char ch = s.charAt(i);
+        if (ch >= 0x80) { ascii = false; break; }
+        x.in[i] = (byte) ch;
+      }
+      byte[] dig;
+      if (ascii) {
+        md.update(x.in, 0, n);
+        dig = md.digest();
+      } else {
+        dig = md.digest(s.getBytes(StandardCharsets.UTF_8));
+      }
+      char[] hex = x.hex;
+      for (int i = 0; i < 16; i++) {
+        hex[i * 2]     = HEX[(dig[i] >> 4) & 0xf];
+        hex[i * 2 + 1] = HEX[dig[i] & 0xf];
+      }
+      return new String(hex);
     } catch (Exception e) { return null; }
   }
 
@@ -47,59 +177,244 @@ public class TxUpsertService {
 
   /** Upsert a single Plaid transaction into the transactions table (insert-only semantics). */
   public static void upsert(Connection c, Transaction t) throws Exception {
+    upsert(c, IngestionContext.unscoped(), t);
+  }
+
+  /** Single upsert resolving its account link through a run-scoped cache. */
+  public static void upsert(Connection c, IngestionContext links, Transaction t) throws Exception {
     String plaidTxId = t.getTransactionId();
     String plaidAcctId    = t.getAccountId();                     // plaid_account_id
     if (plaidTxId == null || plaidAcctId == null) return; // defensive
+
+    final Link link = links.resolve(c, plaidAcctId);
+    if (link == null || link.itemId() == null) return; // mapping not ready; skip safely
+
+    List<RowFailure> failures = new ArrayList<>();
+    try (PreparedStatement ps = c.prepareStatement(UPSERT_SQL)) {
+      writeChunk(c, ps, List.of(toRow(t, link, CategoryRules.forClient(c, link.clientId()))), failures);
+    }
+    if (!failures.isEmpty()) throw failures.get(0).error();
+  }
+
+  /** Bulk upsert with the default chunk size. */
+  public static Result upsertAll(Connection c, List<Transaction> txs) throws Exception {
+    return upsertAll(c, IngestionContext.unscoped(), txs, CHUNK);
+  }
+
+  /** Bulk upsert with the default chunk size, resolving links through a run-scoped cache. */
+  public static Result upsertAll(Connection c, IngestionContext links, List<Transaction> txs) throws Exception {
+    return upsertAll(c, links, txs, CHUNK);
+  }
+
+  public static Result upsertAll(Connection c, List<Transaction> txs, int chunkSize) throws Exception {
+    return upsertAll(c, IngestionContext.unscoped(), txs, chunkSize);
+  }
+
+  /**
+   * Bulk upsert: account links come from ctx (at most one account_links query for ids it hasn't
+   * seen), categories go through the client's compiled CategoryRules, then JDBC batches of chunkSize rows.
+   * A plaid_tx_id repeated in txs keeps only its last occurrence (counted as skipped): two writes of
+   * one row in a chunk would share a before-image and be applied to the derived tables twice.
+   * A failing chunk is replayed row by row so only the bad rows are reported (and, inside a
+   * transaction, rolled back to a savepoint instead of aborting the caller's tx).
+   */
+  public static Result upsertAll(Connection c, IngestionContext ctx, List<Transaction> txs, int chunkSize)
+      throws Exception {
+    List<RowFailure> failures = new ArrayList<>();
+    if (txs == null || txs.isEmpty()) return new Result(0, 0, failures);
+
+    Set<String> acctIds = new LinkedHashSet<>();
+    for (Transaction t : txs) if (t.getAccountId() != null) acctIds.add(t.getAccountId());
+    Map<String, Link> links = ctx.resolve(c, acctIds);
+
+    Map<String, Row> byKey = new LinkedHashMap<>(txs.size() * 2);
+    Map<UUID, CategoryRules.Classifier> rules = new HashMap<>(2);
+    int skipped = 0, duplicates = 0;
+    for (Transaction t : txs) {
+      String plaidTxId = t.getTransactionId();
+      Link link = t.getAccountId() == null ? null : links.get(t.getAccountId());
+      if (plaidTxId == null || link == null || link.itemId() == null) { skipped++; continue; }
+      CategoryRules.Classifier cr = rules.get(link.clientId());
+      if (cr == null) rules.put(link.clientId(), cr = CategoryRules.forClient(c, link.clientId()));
+      try {
+        Row r = toRow(t, link, cr);
+        // last write wins, in the position of the last occurrence
+        if (byKey.remove(key(link.clientId(), plaidTxId)) != null) duplicates++;
+        byKey.put(key(link.clientId(), plaidTxId), r);
+      } catch (Exception e) {
+        failures.add(new RowFailure(plaidTxId, e));
+      }
+    }
+    List<Row> rows = new ArrayList<>(byKey.values());
+    if (duplicates > 0) {
+      skipped += duplicates;
+      Metrics.count("upsert.duplicates", duplicates);
+    }
+
+    int upserted = 0;
+    int size = Math.max(1, chunkSize);
+    try (PreparedStatement ps = c.prepareStatement(UPSERT_SQL)) {
+      for (int from = 0; from < rows.size(); from += size) {
+        upserted += writeChunk(c, ps, rows.subList(from, Math.min(from + size, rows.size())), failures).size();
+      }
+    }
+    return new Result(upserted, skipped, failures);
+  }
+
+  /** Delete transactions Plaid reported as removed; returns rows deleted. */
+  public static int removeAll(Connection c, UUID clientId, List<String> plaidTxIds) throws Exception {
+    if (plaidTxIds == null || plaidTxIds.isEmpty()) return 0;
+    if (c.getAutoCommit()) return inTx(c, () -> removeAll(c, clientId, plaidTxIds));
+    java.sql.Array arr = c.createArrayOf("text", plaidTxIds.toArray());
+    try {
+      List<Change> changes = many(c,
+        "DELETE FROM transactions WHERE client_id = ?::uuid AND plaid_tx_id = ANY(?) RETURNING " + IMAGE_COLS,
+        rs -> new Change(image(rs), null), clientId, arr);
+      SpendRollup.apply(c, changes);
+      RecurringDetector.apply(c, changes);
+      afterCommit(c, () -> InsightsEngine.apply(changes));
+      return changes.size();
+    } finally {
+      arr.free();
+    }
+  }
+
+  /**
+   * Write one chunk and apply its changes to the derived tables in the same transaction.
+   * Returns the rows that were written.
+   */
+  private static List<Row> writeChunk(Connection c, PreparedStatement ps, List<Row> chunk, List<RowFailure> failures)
+      throws Exception {
+    if (c.getAutoCommit()) return inTx(c, () -> writeChunk(c, ps, chunk, failures));
+
+    Map<String, Image> before = priorImages(c, chunk);
+    List<Row> written = chunk;
+    Savepoint sp = c.setSavepoint();
+    try {
+      for (Row r : chunk) { bindRow(ps, r); ps.addBatch(); }
+      ps.executeBatch();
+      c.releaseSavepoint(sp);
+    } catch (SQLException batchErr) {
+      ps.clearBatch();
+      c.rollback(sp);
+      // Replay row by row to isolate the failing rows.
+      written = new ArrayList<>(chunk.size());
+      for (Row r : chunk) {
+        Savepoint rsp = c.setSavepoint();
+        try {
+          bindRow(ps, r);
+          ps.executeUpdate();
+          c.releaseSavepoint(rsp);
+          written.add(r);
+        } catch (SQLException e) {
+          c.rollback(rsp);
+          failures.add(new RowFailure(r.plaidTxId(), e));
+        }
+      }
+    }
+
+    List<Change> changes = new ArrayList<>(written.size());
+    for (Row r : written) {
+      Image prior = before.get(key(r.link().clientId(), r.plaidTxId()));
+      changes.add(new Change(prior, after(r, prior)));
+    }
+    SpendRollup.apply(c, changes);
+    RecurringDetector.apply(c, changes);
+    AnomalyDetector.apply(c, changes);
+    afterCommit(c, () -> InsightsEngine.apply(changes));  // a rolled back write never reaches the snapshot
+    return written;
+  }
+
+  public static final String IMAGE_COLS =
+      "client_id, plaid_tx_id, account_id, category, post_date, amount_cents, status, merchant_norm";
+
+  public static Image image(java.sql.ResultSet rs) throws SQLException {
+    return new Image(rs.getObject(1, UUID.class), rs.getString(2), rs.getLong(3), rs.getString(4),
+        rs.getObject(5, LocalDate.class), rs.getInt(6), rs.getString(7), rs.getString(8));
+  }
+
+  private static String key(UUID clientId, String plaidTxId) { return clientId + "|" + plaidTxId; }
+
+  /**
+   * Current stored values of the chunk's rows that already exist, keyed by (client_id, plaid_tx_id).
+   * Locked (in id order, like RecategorizeJob) until commit so no other writer can change a row between
+   * this read and our overwrite; otherwise the derived-table deltas would subtract a stale before-image.
+   */
+  private static Map<String, Image> priorImages(Connection c, List<Row> chunk) throws Exception {
+    UUID[] cids = new UUID[chunk.size()];
+    String[] ids = new String[chunk.size()];
+    for (int i = 0; i < chunk.size(); i++) {
+      cids[i] = chunk.get(i).link().clientId();
+      ids[i] = chunk.get(i).plaidTxId();
+    }
+    java.sql.Array ca = c.createArrayOf("uuid", cids);
+    java.sql.Array ia = c.createArrayOf("text", ids);
+    try {
+      Map<String, Image> out = new HashMap<>();
+      many(c,
+        "SELECT " + IMAGE_COLS + " FROM transactions" +
+        " WHERE (client_id, plaid_tx_id) IN (SELECT * FROM unnest(?::uuid[], ?::text[]))" +
+        " ORDER BY id FOR UPDATE",
+        rs -> {
+          Image im = image(rs);
+          return out.put(key(im.clientId(), im.plaidTxId()), im);
+        }, ca, ia);
+      return out;
+    } finally {
+      ca.free();
+      ia.free();
+    }
+  }
+
+  /** What UPSERT_SQL leaves in the row, given its prior values (mirrors the COALESCEs). */
+  private static Image after(Row r, Image prior) {
+    LocalDate post = r.post() != null || prior == null ? r.post() : prior.post();
+    String mNorm = r.mNorm() != null || prior == null ? r.mNorm() : prior.merchantNorm();
+    String category = r.category() != null || prior == null ? r.category() : prior.category();
+    return new Image(r.link().clientId(), r.plaidTxId(), r.link().accountId(), category, post,
+        r.amountCents(), r.status(), mNorm);
+  }
+
+  static Row toRow(Transaction t, Link link) {
+    return toRow(t, link, CategoryRules.Classifier.NONE);
+  }
+
+  static Row toRow(Transaction t, Link link, CategoryRules.Classifier rules) {
     String status    = Boolean.TRUE.equals(t.getPending()) ? "pending" : "posted";
     int amountCents  = toCents(t.getAmount());
     LocalDate auth   = pick(t.getAuthorizedDate(), t.getDate());
     LocalDate post   = d(t.getDate());
     String merchant  = t.getMerchantName()!=null ? t.getMerchantName() : t.getName();
     String mNorm     = norm(merchant);
-    String category = pickCategory(t);
-
-    record Link(java.util.UUID clientId, long accountId, String itemId) {}
-    final Link link = one(
-      c,
-      """
-      SELECT client_id, account_id, item_id
-        FROM account_links
-       WHERE plaid_account_id = ?
-       ORDER BY last_seen DESC NULLS LAST
-       LIMIT 1
-      """,
-      rs -> {
-        try {
-          return new Link(
-            rs.getObject(1, java.util.UUID.class),
-            rs.getLong(2),
-            rs.getString(3)
-          );
-        } catch (Exception e) { throw new RuntimeException(e); }
-      },
-      plaidAcctId
-    );
-    if (link == null || link.itemId() == null) return; // mapping not ready; skip safely
+    String raw       = pickCategory(t);
+    String category  = rules.categorize(link.accountId(), amountCents, mNorm, raw);
 
     // natural_key_hash required by INSERT column list
-    String nkh = md5(
-      link.clientId() + "|" + link.accountId() + "|" + amountCents + "|" +
+    String nkh = naturalKeyHash(link.clientId(), Long.toString(link.accountId()), amountCents, post, merchant);
+    return new Row(t.getTransactionId(), link, amountCents, auth, post, status, mNorm, merchant, nkh, category, raw);
+  }
+
+  /** md5 of "client|account|cents|post_date|merchant"; account is "" for rows with no account (imports). */
+  static String naturalKeyHash(UUID clientId, String accountId, int amountCents, LocalDate post, String merchant) {
+    return md5(
+      clientId + "|" + (accountId != null ? accountId : "") + "|" + amountCents + "|" +
       (post != null ? post.toString() : "") + "|" +
       (merchant != null ? merchant : "")
     );
+  }
 
-    // Idempotent UPSERT on (client_id, plaid_tx_id). Avoid null-overwrites via COALESCE.
-    exec(c, """
+  // Idempotent UPSERT on (client_id, plaid_tx_id). Avoid null-overwrites via COALESCE.
+  static final String UPSERT_SQL = """
       INSERT INTO transactions (
         client_id, account_id, source_item_id, plaid_tx_id,
         amount_cents, auth_date, post_date, status,
-        merchant_norm, merchant_raw, natural_key_hash, category,
+        merchant_norm, merchant_raw, natural_key_hash, category, category_raw,
         created_at, updated_at
       )
       VALUES (
         ?::uuid, ?, ?, ?,
         ?, ?::date, ?::date, ?,
-        ?, ?, ?, ?,
+        ?, ?, ?, ?, ?,
         NOW(), NOW()
       )
       ON CONFLICT (client_id, plaid_tx_id) DO UPDATE
@@ -113,20 +428,23 @@ public class TxUpsertService {
         merchant_norm  = COALESCE(EXCLUDED.merchant_norm, transactions.merchant_norm),
         merchant_raw   = COALESCE(EXCLUDED.merchant_raw, transactions.merchant_raw),
         category       = COALESCE(EXCLUDED.category, transactions.category),
+        category_raw   = COALESCE(EXCLUDED.category_raw, transactions.category_raw),
         updated_at     = NOW()
-      """,
-      link.clientId(),            // client_id
-      link.accountId(),           // account_id
-      link.itemId(),              // source_item_id
-      plaidTxId,                  // plaid_tx_id
-      amountCents,                // amount_cents
-      auth,                       // auth_date
-      post,                       // post_date
-      status,                     // status
-      mNorm,                      // merchant_norm
-      merchant,                   // merchant_raw
-      nkh,                        // natural_key_hash   <-- added
-      category                    // category (NOT NULL)
-    );
+      """;
+
+  private static void bindRow(PreparedStatement ps, Row r) throws SQLException {
+    ps.setObject(1,  r.link().clientId());   // client_id
+    ps.setLong(2,    r.link().accountId());  // account_id
+    ps.setString(3,  r.link().itemId());     // source_item_id
+    ps.setString(4,  r.plaidTxId());         // plaid_tx_id
+    ps.setInt(5,     r.amountCents());       // amount_cents
+    ps.setObject(6,  r.auth());              // auth_date
+    ps.setObject(7,  r.post());              // post_date
+    ps.setString(8,  r.status());            // status
+    ps.setString(9,  r.mNorm());             // merchant_norm
+    ps.setString(10, r.merchant());          // merchant_raw
+    ps.setString(11, r.nkh());               // natural_key_hash
+    ps.setString(12, r.category());          // category (NOT NULL)
+    ps.setString(13, r.categoryRaw());       // category_raw
   }
-}
\ No newline at end of file
+}
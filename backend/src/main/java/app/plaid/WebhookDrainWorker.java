@@ -0,0 +1,201 @@
+package app.plaid;
+
+import app.common.Env;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.plaid.client.request.PlaidApi;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import static app.common.Db.*;
+
+/**
+ * Drains webhook_events written by PlaidWebhookHandler.
+ * Claims a batch with FOR UPDATE SKIP LOCKED, collapses duplicate events per item_id (one
+ * /transactions/sync covers all of them), and syncs distinct Items concurrently. An Item is never
+ * claimed while another worker holds a live lease on it, so per-Item work stays ordered.
+ *
+ * Runs as a scheduled Lambda (handler app.plaid.WebhookDrainWorker::handleRequest) or locally via main().
+ */
+public class WebhookDrainWorker implements RequestHandler<Map<String,Object>, Map<String,Object>> {
+
+  static final int BATCH        = Math.max(1, Env.intOr("webhook_drain_batch", 100));
+  static final int CONCURRENCY  = Math.max(1, Env.intOr("webhook_worker_concurrency", 4));
+  static final int MAX_ATTEMPTS = Math.max(1, Env.intOr("webhook_max_attempts", 5));
+  static final long LEASE_SECS  = Math.max(10, Env.longOr("webhook_lease_seconds", 120));
+  static final long SAFETY_MS   = 5_000;
+
+  public record Report(int batches, int events, int items, int succeeded, int retried, int failed, long elapsedMs) {}
+
+  private enum Outcome { DONE, RETRY, FAILED }
+
+  @Override
+  public Map<String,Object> handleRequest(Map<String,Object> in, Context ctx) {
+    long budget = ctx == null ? 60_000 : ctx.getRemainingTimeInMillis() - SAFETY_MS;
+    Consumer<String> log = ctx == null ? System.out::println : s -> ctx.getLogger().log(s + "\n");
+    try {
+      Report r = drain(budget, log);
+      log.accept("[Drain] " + r);
+      return Map.of("ok", true, "batches", r.batches(), "events", r.events(), "items", r.items(),
+          "succeeded", r.succeeded(), "retried", r.retried(), "failed", r.failed(), "elapsedMs", r.elapsedMs());
+    } catch (Exception e) {
+      log.accept("[Drain] fatal error: " + e);
+      return Map.of("ok", false, "error", String.valueOf(e.getMessage()));
+    }
+  }
+
+  /** Drain until the queue is empty or budgetMs is spent. */
+  public static Report drain(long budgetMs, Consumer<String> log) throws Exception {
+    long t0 = System.currentTimeMillis();
+    long deadline = t0 + Math.max(0, budgetMs);
+    int batches = 0, events = 0, items = 0, ok = 0, retried = 0, failed = 0;
+    PlaidApi plaid = PlaidClientFactory.client();
+
+    ExecutorService pool = Executors.newFixedThreadPool(CONCURRENCY, r -> {
+      Thread t = new Thread(r, "webhook-drain");
+      t.setDaemon(true);
+      return t;
+    });
+    try {
+      while (System.currentTimeMillis() < deadline) {
+        Map<String, List<Long>> byItem = claim();
+        if (byItem.isEmpty()) break;
+        batches++;
+        items += byItem.size();
+        for (List<Long> ids : byItem.values()) events += ids.size();
+
+        Map<String, Future<Outcome>> futures = new LinkedHashMap<>();
+        for (var e : byItem.entrySet()) {
+          futures.put(e.getKey(), pool.submit(() -> process(plaid, e.getKey(), e.getValue(), log)));
+        }
+        for (var e : futures.entrySet()) {
+          Outcome o;
+          try {
+            o = e.getValue().get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+          } catch (TimeoutException te) {
+            e.getValue().cancel(true);
+            o = Outcome.RETRY;  // lease expires and the next run picks the Item up again
+          }
+          switch (o) {
+            case DONE -> ok++;
+            case RETRY -> retried++;
+            case FAILED -> failed++;
+          }
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return new Report(batches, events, items, ok, retried, failed, System.currentTimeMillis() - t0);
+  }
+
+  /** Lease up to BATCH ready events, grouped by item_id in arrival order. */
+  static Map<String, List<Long>> claim() throws Exception {
+    Map<String, List<Long>> byItem = new LinkedHashMap<>();
+    withConn(c -> {
+      many(c, """
+        UPDATE webhook_events e
+           SET status = 'processing',
+               attempts = e.attempts + 1,
+               locked_until = NOW() + make_interval(secs => ?)
+         WHERE e.id IN (
+           SELECT q.id
+             FROM webhook_events q
+            WHERE ((q.status = 'pending' AND q.available_at <= NOW())
+                OR (q.status = 'processing' AND q.locked_until < NOW()))
+              AND NOT EXISTS (
+                    SELECT 1 FROM webhook_events p
+                     WHERE p.item_id = q.item_id
+                       AND p.status = 'processing'
+                       AND p.locked_until >= NOW())
+            ORDER BY q.id
+            LIMIT ?
+            FOR UPDATE SKIP LOCKED)
+        RETURNING e.id, e.item_id
+      """, rs -> byItem.computeIfAbsent(rs.getString(2), k -> new ArrayList<>()).add(rs.getLong(1)),
+        (double) LEASE_SECS, BATCH);
+    });
+    for (List<Long> ids : byItem.values()) ids.sort(null);
+    return byItem;
+  }
+
+  private static Outcome process(PlaidApi plaid, String itemId, List<Long> ids, Consumer<String> log) {
+    try {
+      withConn((Connection c) -> {
+        String clientId = one(c, "SELECT client_id::text FROM items WHERE item_id = ? AND is_active LIMIT 1",
+          rs -> rs.getString(1), itemId);
+        if (clientId == null) return null;  // Item was unlinked; nothing left to sync
+        String token = AccessTokens.get(clientId, itemId);
+        if (token == null || token.isBlank()) return null;
+        var out = TransactionsSyncEngine.sync(c, plaid, clientId, itemId, token);
+        for (var f : out.failures()) {
+          log.accept("[Drain] upsert failed item=" + itemId + (f.txId() != null ? " txId=" + f.txId() : "")
+              + " err=" + f.error());
+        }
+        return null;
+      });
+      markDone(ids);
+      return Outcome.DONE;
+    } catch (TransactionsSyncEngine.ConcurrentSyncException ce) {
+      // Another sync (e.g. the frontend's) is mid-flight; re-queue without spending an attempt.
+      return release(ids, "concurrent sync", false);
+    } catch (Exception e) {
+      log.accept("[Drain] item=" + itemId + " events=" + ids + " err=" + e);
+      return release(ids, String.valueOf(e), true);
+    }
+  }
+
+  private static void markDone(List<Long> ids) throws Exception {
+    withConn(c -> {
+      java.sql.Array arr = c.createArrayOf("bigint", ids.toArray());
+      exec(c, """
+        UPDATE webhook_events
+           SET status = 'done', processed_at = NOW(), locked_until = NULL, last_error = NULL
+         WHERE id = ANY(?)
+      """, arr);
+    });
+  }
+
+  /** Put events back as pending with linear backoff, or mark failed once attempts are used up. */
+  private static Outcome release(List<Long> ids, String err, boolean countAttempt) {
+    try {
+      List<String> statuses = withConn(c -> {
+        java.sql.Array arr = c.createArrayOf("bigint", ids.toArray());
+        return many(c, """
+          UPDATE webhook_events
+             SET attempts     = attempts - CASE WHEN ? THEN 0 ELSE 1 END,
+                 status       = CASE WHEN ? AND attempts >= ? THEN 'failed' ELSE 'pending' END,
+                 available_at = NOW() + make_interval(secs => 30 * attempts),
+                 locked_until = NULL,
+                 last_error   = ?
+           WHERE id = ANY(?)
+          RETURNING status
+        """, rs -> rs.getString(1), countAttempt, countAttempt, MAX_ATTEMPTS, err, arr);
+      });
+      return statuses.contains("failed") ? Outcome.FAILED : Outcome.RETRY;
+    } catch (Exception ignore) {
+      // lease will expire and the events get retried anyway
+      return Outcome.RETRY;
+    }
+  }
+
+  /** Local worker: poll the queue until killed. */
+  public static void main(String[] args) throws Exception {
+    long idleMs = Env.longOr("webhook_poll_ms", 2_000);
+    while (true) {
+      Report r = drain(60_000, System.out::println);
+      if (r.events() > 0) System.out.println("[Drain] " + r);
+      else Thread.sleep(idleMs);
+    }
+  }
+}
@@ -0,0 +1,326 @@
+package app.recurring;
+
+import app.common.Env;
+import app.common.Metrics;
+import app.plaid.TxUpsertService.Change;
+import app.plaid.TxUpsertService.Image;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static app.common.Db.*;
+
+/**
+ * Recurring charges and subscriptions (GET /v1/recurring), kept incrementally in recurring_series.
+ * Outflows are grouped by merchant_norm, then into series of similar amounts (within
+ * recurring_amount_tol_pct, or recurring_amount_tol_cents for small charges); each series keeps a
+ * short window of charge dates and derives a weekly/biweekly/monthly/quarterly/annual cadence from
+ * the gaps (see Series).
+ *
+ * TxUpsertService and TxImportService hand each chunk's writes to apply(), which reads and rewrites
+ * only the series of the merchants in that chunk, in the chunk's transaction. A client's first read
+ * builds its state with one streaming pass over history (rebuild()), as does
+ *   java -cp app.jar app.recurring.RecurringDetector rebuild [client_id]
+ * A deleted charge, or one whose date, amount or merchant changed, is taken back out of its series
+ * (window and counters; the EWMA only approximately) and the client's recurring_clients row is
+ * dropped in the same transaction, so the next read rebuilds it exactly.
+ *
+ * Env vars (optional):
+ *   recurring_amount_tol_pct   = relative amount tolerance within a series (default 0.2)
+ *   recurring_amount_tol_cents = absolute tolerance, for small charges (default 200)
+ *   recurring_min_confidence   = share of on-schedule gaps needed to report a series (default 0.6)
+ */
+public final class RecurringDetector {
+
+  private RecurringDetector() { /* no instances */ }
+
+  static final double TOL_PCT    = Double.parseDouble(Env.str("recurring_amount_tol_pct", "0.2"));
+  static final int TOL_CENTS     = Math.max(0, Env.intOr("recurring_amount_tol_cents", 200));
+  static final double MIN_CONFIDENCE = Double.parseDouble(Env.str("recurring_min_confidence", "0.6"));
+  static final int UPCOMING_DAYS = 30;
+
+  /** One detected subscription (dates YYYY-MM-DD); monthlyCents normalizes the average to a 30.44-day month. */
+  public record Subscription(long id, String merchant, String category, String cadence, double confidence,
+                             int amountCents, int avgCents, int monthlyCents, int occurrences,
+                             String firstSeen, String lastSeen, String nextExpected, String status) {}
+
+  public record Summary(int count, long monthlyTotalCents, List<Subscription> subscriptions,
+                        List<Subscription> upcoming) {}
+
+  // ---------- ingest ----------
+
+  /** Fold this chunk's writes into their series (caller's transaction). */
+  public static void apply(Connection c, List<Change> changes) throws Exception {
+    Map<UUID, List<Image>> adds = new HashMap<>(), drops = new HashMap<>();
+    for (Change ch : changes) {
+      Image a = counts(ch.after()) ? ch.after() : null;
+      Image b = counts(ch.before()) ? ch.before() : null;
+      if (a != null && b != null && a.post().equals(b.post()) && a.amountCents() == b.amountCents()
+          && a.merchantNorm().equals(b.merchantNorm())) continue;  // nothing the series depend on moved
+      if (b != null) drops.computeIfAbsent(b.clientId(), k -> new ArrayList<>()).add(b);
+      if (a != null) adds.computeIfAbsent(a.clientId(), k -> new ArrayList<>()).add(a);
+    }
+    if (adds.isEmpty() && drops.isEmpty()) return;
+
+    long t0 = System.nanoTime();
+    Set<UUID> clients = new LinkedHashSet<>(drops.keySet());
+    clients.addAll(adds.keySet());
+    for (UUID clientId : clients) {
+      List<Image> out = drops.getOrDefault(clientId, List.of());
+      List<Image> in = adds.getOrDefault(clientId, List.of());
+      // serialize with rebuild() and with other writers for this client
+      one(c, "SELECT pg_advisory_xact_lock(hashtext('recurring:' || ?))", rs -> 1, clientId.toString());
+      List<String> merchants = new ArrayList<>();
+      for (Image im : out) if (!merchants.contains(im.merchantNorm())) merchants.add(im.merchantNorm());
+      for (Image im : in) if (!merchants.contains(im.merchantNorm())) merchants.add(im.merchantNorm());
+      Map<String, List<Series>> state = load(c, clientId, merchants);
+      for (Image im : out) {
+        remove(state, im.merchantNorm(), (int) im.post().toEpochDay(), im.amountCents());
+      }
+      for (Image im : in) {
+        add(state, im.merchantNorm(), (int) im.post().toEpochDay(), im.amountCents(), im.category());
+      }
+      save(c, clientId, state);
+      if (!out.isEmpty()) exec(c, "DELETE FROM recurring_clients WHERE client_id = ?::uuid", clientId);
+    }
+    Metrics.since("recurring.apply", t0);
+  }
+
+  /** Posted outflow with a date and a merchant. */
+  private static boolean counts(Image im) {
+    return im != null && !im.pending() && im.post() != null && im.amountCents() > 0
+        && im.merchantNorm() != null && !im.merchantNorm().isEmpty();
+  }
+
+  private static void add(Map<String, List<Series>> state, String merchant, int day, int cents, String category) {
+    List<Series> list = state.computeIfAbsent(merchant, k -> new ArrayList<>(2));
+    Series best = null;
+    int bestD = Integer.MAX_VALUE;
+    for (Series s : list) {
+      int d = s.distance(cents, TOL_PCT, TOL_CENTS);
+      if (d >= 0 && d < bestD) { best = s; bestD = d; }
+    }
+    if (best == null) list.add(best = new Series(merchant));
+    best.add(day, cents, category);
+  }
+
+  /** Take one charge back out of the series it most likely went into (window day and amount). */
+  private static void remove(Map<String, List<Series>> state, String merchant, int day, int cents) {
+    List<Series> list = state.get(merchant);
+    if (list == null) return;
+    Series best = null;
+    int bestD = Integer.MAX_VALUE;
+    for (Series s : list) {
+      int d = s.distance(cents, TOL_PCT, TOL_CENTS);
+      if (d < 0 || s.occurrences == 0) continue;
+      if (s.hasDay(day)) d -= Integer.MAX_VALUE / 2;   // a series holding the day beats a closer amount
+      if (d < bestD) { best = s; bestD = d; }
+    }
+    if (best != null) best.remove(day);
+  }
+
+  // ---------- state ----------
+
+  private static final String COLS = """
+      id, merchant_norm, category, amount_cents, avg_cents, occurrences, first_seen, last_seen,
+      recent_days, cadence, confidence""";
+
+  private static Map<String, List<Series>> load(Connection c, UUID clientId, List<String> merchants) throws Exception {
+    Map<String, List<Series>> out = new HashMap<>();
+    Array arr = c.createArrayOf("text", merchants.toArray());
+    try {
+      many(c, "SELECT " + COLS + " FROM recurring_series WHERE client_id = ?::uuid AND merchant_norm = ANY(?)",
+          rs -> out.computeIfAbsent(rs.getString(2), k -> new ArrayList<>(2)).add(series(rs)), clientId, arr);
+    } finally {
+      arr.free();
+    }
+    return out;
+  }
+
+  private static Series series(ResultSet rs) throws SQLException {
+    Series s = new Series(rs.getString(2));
+    s.id = rs.getLong(1);
+    s.category = rs.getString(3);
+    s.amountCents = rs.getInt(4);
+    s.avgCents = rs.getInt(5);
+    s.occurrences = rs.getInt(6);
+    s.firstDay = (int) rs.getObject(7, LocalDate.class).toEpochDay();
+    s.lastDay = (int) rs.getObject(8, LocalDate.class).toEpochDay();
+    Integer[] days = (Integer[]) rs.getArray(9).getArray();
+    int[] d = new int[days.length];
+    for (int i = 0; i < d.length; i++) d[i] = days[i];
+    s.load(d);
+    s.cadence = Series.Cadence.parse(rs.getString(10));
+    s.confidence = rs.getDouble(11);
+    return s;
+  }
+
+  /** Write back the series add()/remove() touched: one JDBC batch each of updates, inserts and deletes. */
+  private static void save(Connection c, UUID clientId, Map<String, List<Series>> state) throws Exception {
+    try (PreparedStatement upd = c.prepareStatement("""
+           UPDATE recurring_series
+              SET category = ?, amount_cents = ?, avg_cents = ?, occurrences = ?, first_seen = ?, last_seen = ?,
+                  recent_days = ?, cadence = ?, confidence = ?, next_expected = ?, updated_at = NOW()
+            WHERE id = ?
+           """);
+         PreparedStatement ins = c.prepareStatement("""
+           INSERT INTO recurring_series (category, amount_cents, avg_cents, occurrences, first_seen, last_seen,
+                                         recent_days, cadence, confidence, next_expected, client_id, merchant_norm)
+           VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+           """);
+         PreparedStatement del = c.prepareStatement("DELETE FROM recurring_series WHERE id = ?")) {
+      int nUpd = 0, nIns = 0, nDel = 0;
+      for (List<Series> list : state.values()) {
+        for (Series s : list) {
+          if (!s.dirty) continue;
+          if (s.occurrences == 0) {   // every charge taken back out
+            if (s.id != 0) {
+              del.setLong(1, s.id);
+              del.addBatch();
+              nDel++;
+            }
+            continue;
+          }
+          PreparedStatement ps = s.id == 0 ? ins : upd;
+          ps.setString(1, s.category);
+          ps.setInt(2, s.amountCents);
+          ps.setInt(3, (int) Math.round(s.avgCents));
+          ps.setInt(4, s.occurrences);
+          ps.setObject(5, LocalDate.ofEpochDay(s.firstDay));
+          ps.setObject(6, LocalDate.ofEpochDay(s.lastDay));
+          ps.setArray(7, c.createArrayOf("int", boxed(s.recentDays())));
+          if (s.cadence == null) ps.setNull(8, Types.VARCHAR); else ps.setString(8, s.cadence.name().toLowerCase());
+          ps.setDouble(9, s.confidence);
+          ps.setObject(10, s.nextExpected());
+          if (s.id == 0) {
+            ps.setObject(11, clientId);
+            ps.setString(12, s.merchant);
+            nIns++;
+          } else {
+            ps.setLong(11, s.id);
+            nUpd++;
+          }
+          ps.addBatch();
+        }
+      }
+      if (nUpd > 0) upd.executeBatch();
+      if (nIns > 0) ins.executeBatch();
+      if (nDel > 0) del.executeBatch();
+      Metrics.sample("recurring.series.written", nUpd + nIns + nDel);
+    }
+  }
+
+  private static Integer[] boxed(int[] a) {
+    Integer[] out = new Integer[a.length];
+    for (int i = 0; i < a.length; i++) out[i] = a[i];
+    return out;
+  }
+
+  /** Recompute clientId's series from its full history in one streaming pass. */
+  public static int rebuild(UUID clientId) throws Exception {
+    long t0 = System.nanoTime();
+    int written = withTx(c -> {
+      one(c, "SELECT pg_advisory_xact_lock(hashtext('recurring:' || ?))", rs -> 1, clientId.toString());
+      exec(c, "DELETE FROM recurring_series WHERE client_id = ?::uuid", clientId);
+      Map<String, List<Series>> state = new HashMap<>();
+      try (PreparedStatement ps = c.prepareStatement("""
+            SELECT merchant_norm, post_date, amount_cents, category
+              FROM transactions
+             WHERE client_id = ?::uuid
+               AND post_date IS NOT NULL
+               AND lower(COALESCE(status, '')) <> 'pending'
+               AND amount_cents > 0
+               AND COALESCE(merchant_norm, '') <> ''
+             ORDER BY post_date, id
+            """)) {
+        ps.setFetchSize(5_000);
+        ps.setObject(1, clientId);
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            add(state, rs.getString(1), (int) rs.getObject(2, LocalDate.class).toEpochDay(), rs.getInt(3),
+                rs.getString(4));
+          }
+        }
+      }
+      save(c, clientId, state);
+      exec(c, """
+        INSERT INTO recurring_clients (client_id, built_at) VALUES (?::uuid, NOW())
+        ON CONFLICT (client_id) DO UPDATE SET built_at = NOW()
+        """, clientId);
+      int n = 0;
+      for (List<Series> l : state.values()) n += l.size();
+      return n;
+    });
+    Metrics.since("recurring.rebuild", t0);
+    return written;
+  }
+
+  // ---------- reads ----------
+
+  /** Detected subscriptions for clientId (building state on first use); all = include lapsed ones. */
+  public static Summary list(UUID clientId, boolean all) throws Exception {
+    boolean built = withConn(c -> {
+      return one(c, "SELECT 1 FROM recurring_clients WHERE client_id = ?::uuid", rs -> 1, clientId) != null;
+    });
+    if (!built) rebuild(clientId);
+
+    LocalDate today = LocalDate.now();
+    String horizon = today.plusDays(UPCOMING_DAYS).toString();
+    List<Subscription> subs = withConn(c -> {
+      return many(c, "SELECT " + COLS + " FROM recurring_series" +
+          " WHERE client_id = ?::uuid AND cadence IS NOT NULL AND confidence >= ?",
+          rs -> subscription(series(rs), today), clientId, MIN_CONFIDENCE);
+    });
+    List<Subscription> shown = new ArrayList<>(subs.size());
+    List<Subscription> upcoming = new ArrayList<>();
+    long monthly = 0;
+    for (Subscription s : subs) {
+      boolean lapsed = "lapsed".equals(s.status());
+      if (!lapsed) {
+        monthly += s.monthlyCents();
+        if (s.nextExpected().compareTo(horizon) <= 0) upcoming.add(s);   // ISO dates sort as strings
+      }
+      if (all || !lapsed) shown.add(s);
+    }
+    shown.sort(Comparator.comparingInt(Subscription::monthlyCents).reversed());
+    upcoming.sort(Comparator.comparing(Subscription::nextExpected));
+    return new Summary(shown.size(), monthly, shown, upcoming);
+  }
+
+  /** status: active, late (past due, within a quarter period of grace) or lapsed. */
+  private static Subscription subscription(Series s, LocalDate today) {
+    LocalDate next = s.nextExpected();
+    long overdue = ChronoUnit.DAYS.between(next, today);
+    long grace = Math.max(3, Math.round(s.cadence.days / 4));
+    String status = overdue <= 0 ? "active" : overdue <= grace ? "late" : "lapsed";
+    int avg = (int) Math.round(s.avgCents);
+    return new Subscription(s.id, s.merchant, s.category, s.cadence.name().toLowerCase(),
+        Math.round(s.confidence * 100) / 100.0, s.amountCents, avg,
+        (int) Math.round(avg * 30.44 / s.cadence.days), s.occurrences,
+        LocalDate.ofEpochDay(s.firstDay).toString(), s.lastSeen().toString(), next.toString(), status);
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0 || !"rebuild".equals(args[0])) {
+      System.err.println("usage: RecurringDetector rebuild [client_id]");
+      return;
+    }
+    List<UUID> clients = args.length > 1 ? List.of(UUID.fromString(args[1]))
+        : withConn(c -> { return many(c, "SELECT client_id FROM client", rs -> rs.getObject(1, UUID.class)); });
+    for (UUID cid : clients) System.out.println(cid + " series=" + rebuild(cid));
+  }
+}
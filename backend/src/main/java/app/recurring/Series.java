@@ -0,0 +1,166 @@
+package app.recurring;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * One run of similar charges at one merchant (a row of recurring_series), in constant space: counts,
+ * the latest amount, an EWMA of the amount, and the last WINDOW charge dates, sorted. The cadence is
+ * re-derived from that window on every add(), so charges may arrive in any order (Plaid's initial
+ * sync, CSV backfills); one older than the whole window only bumps the counters.
+ */
+final class Series {
+
+  static final int WINDOW = 8;
+  static final double AMOUNT_ALPHA = 0.3;
+
+  /** Nominal period and the gap range (days, inclusive) that counts as on schedule. */
+  enum Cadence {
+    WEEKLY(7, 6, 8, 3),
+    BIWEEKLY(14, 12, 16, 2),
+    MONTHLY(30.44, 26, 35, 2),
+    QUARTERLY(91.31, 84, 98, 2),
+    ANNUAL(365.25, 350, 380, 1);
+
+    final double days;
+    final int minGap, maxGap;
+    final int minGaps;   // on-schedule gaps needed before the series counts as recurring
+
+    Cadence(double days, int minGap, int maxGap, int minGaps) {
+      this.days = days;
+      this.minGap = minGap;
+      this.maxGap = maxGap;
+      this.minGaps = minGaps;
+    }
+
+    boolean fits(int gap) { return gap >= minGap && gap <= maxGap; }
+
+    /** Calendar-aware next date: monthly bills keep their day of month. */
+    LocalDate after(LocalDate d) {
+      return switch (this) {
+        case WEEKLY    -> d.plusWeeks(1);
+        case BIWEEKLY  -> d.plusWeeks(2);
+        case MONTHLY   -> d.plusMonths(1);
+        case QUARTERLY -> d.plusMonths(3);
+        case ANNUAL    -> d.plusYears(1);
+      };
+    }
+
+    static Cadence of(int gap) {
+      for (Cadence c : values()) if (c.fits(gap)) return c;
+      return null;
+    }
+
+    static Cadence parse(String s) {
+      return s == null ? null : valueOf(s.toUpperCase(java.util.Locale.ROOT));
+    }
+  }
+
+  long id;                 // 0 until inserted
+  final String merchant;
+  String category;
+  int amountCents;         // latest charge
+  double avgCents;
+  int occurrences;
+  int firstDay, lastDay;   // epoch days
+  int[] recent = new int[WINDOW];
+  int n;
+  Cadence cadence;
+  double confidence;
+  boolean dirty;
+
+  Series(String merchant) {
+    this.merchant = merchant;
+  }
+
+  /** Close enough in amount to be the same subscription (price changes and FX drift included). */
+  int distance(int cents, double tolPct, int tolCents) {
+    int d = Math.abs(cents - amountCents);
+    return d <= Math.max(tolCents, Math.abs(amountCents) * tolPct) ? d : -1;
+  }
+
+  void add(int day, int cents, String category) {
+    if (occurrences == 0) {
+      firstDay = lastDay = day;
+      amountCents = cents;
+      avgCents = cents;
+      this.category = category;
+    } else {
+      avgCents += (cents - avgCents) * AMOUNT_ALPHA;
+      if (day < firstDay) firstDay = day;
+      if (day >= lastDay) {
+        lastDay = day;
+        amountCents = cents;
+        this.category = category;
+      }
+    }
+    occurrences++;
+    dirty = true;
+
+    int pos = Arrays.binarySearch(recent, 0, n, day);
+    if (pos >= 0) return;               // second charge on a known day: no new gap
+    pos = -pos - 1;
+    if (n < WINDOW) {
+      System.arraycopy(recent, pos, recent, pos + 1, n - pos);
+      recent[pos] = day;
+      n++;
+    } else if (pos > 0) {               // full: drop the oldest
+      System.arraycopy(recent, 1, recent, 0, pos - 1);
+      recent[pos - 1] = day;
+    } else {
+      return;                           // older than the whole window
+    }
+    classify();
+  }
+
+  /**
+   * Take back one charge on day (deleted, or edited away). The window loses the day and the counters
+   * drop; the EWMA and the latest amount stay as they were, since they can't be unwound exactly.
+   */
+  void remove(int day) {
+    occurrences--;
+    dirty = true;
+    int pos = Arrays.binarySearch(recent, 0, n, day);
+    if (pos >= 0) {
+      System.arraycopy(recent, pos + 1, recent, pos, n - pos - 1);
+      n--;
+      classify();
+    }
+    if (n > 0) {
+      if (day == lastDay) lastDay = recent[n - 1];
+      if (day == firstDay && occurrences <= n) firstDay = recent[0];
+    }
+  }
+
+  boolean hasDay(int day) { return Arrays.binarySearch(recent, 0, n, day) >= 0; }
+
+  /** Cadence = the one the median gap falls in, kept only if enough gaps agree with it. */
+  void classify() {
+    cadence = null;
+    confidence = 0;
+    int gaps = n - 1;
+    if (gaps < 1) return;
+    int[] g = new int[gaps];
+    for (int i = 0; i < gaps; i++) g[i] = recent[i + 1] - recent[i];
+    int[] sorted = g.clone();
+    Arrays.sort(sorted);
+    Cadence c = Cadence.of(sorted[gaps / 2]);
+    if (c == null) return;
+    int fit = 0;
+    for (int x : g) if (c.fits(x)) fit++;
+    if (fit < c.minGaps) return;
+    cadence = c;
+    confidence = (double) fit / gaps;
+  }
+
+  LocalDate lastSeen() { return LocalDate.ofEpochDay(lastDay); }
+
+  LocalDate nextExpected() { return cadence == null ? null : cadence.after(lastSeen()); }
+
+  int[] recentDays() { return Arrays.copyOf(recent, n); }
+
+  void load(int[] days) {
+    n = Math.min(days.length, WINDOW);
+    System.arraycopy(days, days.length - n, recent, 0, n);
+  }
+}
@@ -45,7 +45,18 @@ export function exchangePublicToken(
   });
 }
 
-export function syncTransactions(clientId: string): Promise<{ upserted: number }> {
+export type ItemSyncResult = {
+  itemId: string;
+  status: "ok" | "in_progress" | "rate_limited" | "plaid_error" | "no_token" | "timeout" | "error";
+  added: number;
+  modified: number;
+  removed: number;
+  failures: number;
+  error: string | null;
+  elapsedMs: number;
+};
+
+export function syncTransactions(clientId: string): Promise<{ upserted: number; items: ItemSyncResult[] }> {
   // Backend: POST /api/plaid/transactions/sync { clientId }
   return apiPost('/api/plaid/transactions/sync', { clientId });
 }
@@ -60,4 +71,165 @@ export function upsertBudgetItem(clientId: string, item: { category: string; mon
 export function deleteBudgetItem(clientId: string, category: string) {
   const qs = new URLSearchParams({ client_id: clientId, category }).toString();
   return apiDelete(`/v1/budgets?${qs}`);
-}
\ No newline at end of file
+}
+export type InsightBucket = { key: string | null; name?: string; cents: number; count: number };
+export type InsightPoint = { date: string; cents: number; count: number };
+export type Insights = {
+  from: string;
+  to: string;
+  total_cents: number;
+  tx_count: number;
+  by_category: InsightBucket[];
+  by_merchant: InsightBucket[];
+  by_account: InsightBucket[];
+  by_day: InsightPoint[];
+  by_week: InsightPoint[];
+  by_month: InsightPoint[];
+  snapshot: { rows: number; age_ms: number };
+};
+
+export function getInsights(clientId: string, range?: { from?: string; to?: string; top?: number }): Promise<Insights> {
+  const qs = new URLSearchParams({ client_id: clientId });
+  if (range?.from) qs.set('from', range.from);
+  if (range?.to) qs.set('to', range.to);
+  if (range?.top) qs.set('top', String(range.top));
+  return apiGet(`/v1/insights?${qs.toString()}`);
+}
+
+export type ImportReport = {
+  rowsRead: number;
+  imported: number;
+  duplicates: number;
+  rejected: number;
+  batches: number;
+  elapsedMs: number;
+  rowsPerSec: number;
+  errors: { line: number; error: string }[];
+};
+
+export async function importTransactionsCsv(clientId: string, csv: Blob | string, accountId?: number): Promise<ImportReport> {
+  const qs = new URLSearchParams({ client_id: clientId });
+  if (accountId != null) qs.set('account_id', String(accountId));
+  const res = await fetch(`${API_BASE}/v1/transactions/import?${qs.toString()}`, {
+    method: 'POST',
+    headers: { 'Content-Type': 'text/csv' },
+    body: csv
+  });
+  if (!res.ok) throw new Error(`POST /v1/transactions/import failed: ${res.status}`);
+  return res.json();
+}
+
+export type ExportHandle = {
+  format: 'csv' | 'txc';
+  rows: number;
+  bytes: number;
+  location: string;
+  url: string | null;
+  elapsedMs: number;
+};
+
+export async function exportTransactions(clientId: string, format: 'csv' | 'txc' = 'csv'): Promise<ExportHandle> {
+  const qs = new URLSearchParams({ client_id: clientId, format });
+  const res = await fetch(`${API_BASE}/v1/transactions/export?${qs.toString()}`, { method: 'POST' });
+  if (!res.ok) throw new Error(`POST /v1/transactions/export failed: ${res.status}`);
+  return res.json();
+}
+
+export type Subscription = {
+  id: number;
+  merchant: string;
+  category: string | null;
+  cadence: 'weekly' | 'biweekly' | 'monthly' | 'quarterly' | 'annual';
+  confidence: number;
+  amountCents: number;
+  avgCents: number;
+  monthlyCents: number;
+  occurrences: number;
+  firstSeen: string;
+  lastSeen: string;
+  nextExpected: string;
+  status: 'active' | 'late' | 'lapsed';
+};
+
+export type RecurringSummary = {
+  count: number;
+  monthlyTotalCents: number;
+  subscriptions: Subscription[];
+  upcoming: Subscription[];
+};
+
+export function getRecurring(clientId: string, all = false): Promise<RecurringSummary> {
+  const qs = new URLSearchParams({ client_id: clientId });
+  if (all) qs.set('all', 'true');
+  return apiGet(`/v1/recurring?${qs.toString()}`);
+}
+
+export type Anomaly = {
+  id: number;
+  kind: 'large_charge' | 'new_merchant' | 'category_spike';
+  plaidTxId: string | null;
+  postDate: string;
+  merchant: string;
+  category: string;
+  amountCents: number;
+  score: number;            // deviations above the client's usual spend
+  detail: string;
+  createdAt: string;
+};
+
+export function getAnomalies(clientId: string, days = 30): Promise<{ anomalies: Anomaly[] }> {
+  const qs = new URLSearchParams({ client_id: clientId, days: String(days) });
+  return apiGet(`/v1/anomalies?${qs.toString()}`);
+}
+
+export type CategoryRule = {
+  id: number;
+  clientId: string | null;   // null = global rule
+  match: 'word' | 'prefix' | 'exact' | 'substring';
+  pattern: string;
+  accountId: number | null;
+  minCents: number | null;
+  maxCents: number | null;
+  category: string;
+  priority: number;
+};
+
+export type RecategorizeReport = {
+  clients: number;
+  finished: number;
+  scanned: number;
+  changed: number;
+  batches: number;
+  pending: number;
+  elapsedMs: number;
+  rowsPerSec: number;
+};
+
+export type CategoryRuleInput = {
+  match?: CategoryRule['match'];
+  pattern?: string;
+  account_id?: number;
+  min_cents?: number;
+  max_cents?: number;
+  category: string;
+  priority?: number;
+};
+
+export function getCategoryRules(clientId: string): Promise<CategoryRule[]> {
+  return apiGet(`/v1/category-rules?client_id=${encodeURIComponent(clientId)}`);
+}
+
+export function addCategoryRule(
+  clientId: string,
+  rule: CategoryRuleInput
+): Promise<{ rule: CategoryRule; recategorize: RecategorizeReport }> {
+  return apiPost('/v1/category-rules', { client_id: clientId, ...rule });
+}
+
+export function deleteCategoryRule(
+  clientId: string,
+  ruleId: number
+): Promise<{ deleted: number; recategorize: RecategorizeReport }> {
+  const qs = new URLSearchParams({ client_id: clientId }).toString();
+  return apiDelete(`/v1/category-rules/${ruleId}?${qs}`);
+}
@@ -9,6 +9,12 @@ resource "aws_lambda_function" "api" {
   filename         = var.lambda_zip_path
   source_code_hash = filebase64sha256(var.lambda_zip_path)
 
+  # SnapStart snapshots the process after init (incl. app.Startup priming) on each published version
+  publish = true
+  snap_start {
+    apply_on = "PublishedVersions"
+  }
+
   environment {
     variables = {
       jdbc_url        = var.jdbc_url
@@ -20,10 +26,20 @@ resource "aws_lambda_function" "api" {
       plaid_secret     = var.plaid_secret
       plaid_env        = var.plaid_env           
       plaid_webhook_url = var.plaid_webhook_url
+
+      export_location          = "s3://${aws_s3_bucket.exports.id}/exports"
+      export_upload_timeout_ms = "25000"  # S3 PUT of an export; keep under the function timeout above
     }
   }
 }
 
+# SnapStart only applies to versions, so API Gateway invokes this alias rather than $LATEST
+resource "aws_lambda_alias" "api_live" {
+  name             = "live"
+  function_name    = aws_lambda_function.api.function_name
+  function_version = aws_lambda_function.api.version
+}
+
 resource "aws_apigatewayv2_api" "api" {
   name          = "${var.project_name}-http"
   protocol_type = "HTTP"
@@ -37,7 +53,7 @@ resource "aws_apigatewayv2_api" "api" {
 resource "aws_apigatewayv2_integration" "lambda_integ" {
   api_id                 = aws_apigatewayv2_api.api.id
   integration_type       = "AWS_PROXY"
-  integration_uri        = aws_lambda_function.api.arn
+  integration_uri        = aws_lambda_alias.api_live.arn
   payload_format_version = "2.0"
 }
 
@@ -71,10 +87,59 @@ resource "aws_apigatewayv2_route" "get_transactions" {
   target    = "integrations/${aws_apigatewayv2_integration.lambda_integ.id}"
 }
 
+resource "aws_apigatewayv2_route" "import_transactions" {
+  api_id    = aws_apigatewayv2_api.api.id
+  route_key = "POST /v1/transactions/import"
+  target    = "integrations/${aws_apigatewayv2_integration.lambda_integ.id}"
+}
+
+resource "aws_apigatewayv2_route" "export_transactions" {
+  api_id    = aws_apigatewayv2_api.api.id
+  route_key = "POST /v1/transactions/export"
+  target    = "integrations/${aws_apigatewayv2_integration.lambda_integ.id}"
+}
+
+resource "aws_apigatewayv2_route" "get_insights" {
+  api_id    = aws_apigatewayv2_api.api.id
+  route_key = "GET /v1/insights"
+  target    = "integrations/${aws_apigatewayv2_integration.lambda_integ.id}"
+}
+
+resource "aws_apigatewayv2_route" "get_recurring" {
+  api_id    = aws_apigatewayv2_api.api.id
+  route_key = "GET /v1/recurring"
+  target    = "integrations/${aws_apigatewayv2_integration.lambda_integ.id}"
+}
+
+resource "aws_apigatewayv2_route" "get_anomalies" {
+  api_id    = aws_apigatewayv2_api.api.id
+  route_key = "GET /v1/anomalies"
+  target    = "integrations/${aws_apigatewayv2_integration.lambda_integ.id}"
+}
+
+resource "aws_apigatewayv2_route" "list_category_rules" {
+  api_id    = aws_apigatewayv2_api.api.id
+  route_key = "GET /v1/category-rules"
+  target    = "integrations/${aws_apigatewayv2_integration.lambda_integ.id}"
+}
+
+resource "aws_apigatewayv2_route" "add_category_rule" {
+  api_id    = aws_apigatewayv2_api.api.id
+  route_key = "POST /v1/category-rules"
+  target    = "integrations/${aws_apigatewayv2_integration.lambda_integ.id}"
+}
+
+resource "aws_apigatewayv2_route" "delete_category_rule" {
+  api_id    = aws_apigatewayv2_api.api.id
+  route_key = "DELETE /v1/category-rules/{ruleId}"
+  target    = "integrations/${aws_apigatewayv2_integration.lambda_integ.id}"
+}
+
 resource "aws_lambda_permission" "allow_apigw" {
   statement_id  = "AllowAPIGatewayInvoke"
   action        = "lambda:InvokeFunction"
   function_name = aws_lambda_function.api.function_name
+  qualifier     = aws_lambda_alias.api_live.name
   principal     = "apigateway.amazonaws.com"
   source_arn    = "${aws_apigatewayv2_api.api.execution_arn}/*/*"
 }
@@ -0,0 +1,44 @@
+# Reapplies category rules to history after they change (see backend/db/006_category_rules.sql).
+# The rules API does small histories inline; this drains whatever is still queued.
+resource "aws_lambda_function" "recategorize" {
+  function_name = "${var.project_name}-recategorize"
+  role          = aws_iam_role.lambda_exec.arn
+  handler       = "app.categories.RecategorizeJob::handleRequest"
+  runtime       = "java17"
+  memory_size   = 512
+  timeout       = 900
+
+  # clients are leased, so overlap is safe; one at a time keeps the DB load predictable
+  reserved_concurrent_executions = 1
+
+  filename         = var.lambda_zip_path
+  source_code_hash = filebase64sha256(var.lambda_zip_path)
+
+  environment {
+    variables = {
+      jdbc_url = var.jdbc_url
+      db_user  = var.db_user
+      db_pass  = var.db_pass
+
+      recategorize_batch_rows = "5000"
+    }
+  }
+}
+
+resource "aws_cloudwatch_event_rule" "recategorize" {
+  name                = "${var.project_name}-recategorize"
+  schedule_expression = "rate(5 minutes)"
+}
+
+resource "aws_cloudwatch_event_target" "recategorize" {
+  rule = aws_cloudwatch_event_rule.recategorize.name
+  arn  = aws_lambda_function.recategorize.arn
+}
+
+resource "aws_lambda_permission" "allow_events_recategorize" {
+  statement_id  = "AllowEventBridgeInvoke"
+  action        = "lambda:InvokeFunction"
+  function_name = aws_lambda_function.recategorize.function_name
+  principal     = "events.amazonaws.com"
+  source_arn    = aws_cloudwatch_event_rule.recategorize.arn
+}
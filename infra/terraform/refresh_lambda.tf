@@ -0,0 +1,49 @@
+# Fleet-wide background /transactions/sync (see backend/db/004_refresh_runs.sql)
+resource "aws_lambda_function" "fleet_refresh" {
+  function_name = "${var.project_name}-fleet-refresh"
+  role          = aws_iam_role.lambda_exec.arn
+  handler       = "app.plaid.FleetRefreshJob::handleRequest"
+  runtime       = "java17"
+  memory_size   = 512
+  timeout       = 900
+
+  # overlapping invocations would only compete for the same Plaid rate budget
+  reserved_concurrent_executions = 1
+
+  filename         = var.lambda_zip_path
+  source_code_hash = filebase64sha256(var.lambda_zip_path)
+
+  environment {
+    variables = {
+      jdbc_url = var.jdbc_url
+      db_user  = var.db_user
+      db_pass  = var.db_pass
+
+      plaid_client_id = var.plaid_client_id
+      plaid_secret    = var.plaid_secret
+      plaid_env       = var.plaid_env
+
+      db_pool_max         = "6"
+      refresh_concurrency = "4"
+      refresh_plaid_rps   = "10"
+    }
+  }
+}
+
+resource "aws_cloudwatch_event_rule" "fleet_refresh" {
+  name                = "${var.project_name}-fleet-refresh"
+  schedule_expression = "rate(30 minutes)"
+}
+
+resource "aws_cloudwatch_event_target" "fleet_refresh" {
+  rule = aws_cloudwatch_event_rule.fleet_refresh.name
+  arn  = aws_lambda_function.fleet_refresh.arn
+}
+
+resource "aws_lambda_permission" "allow_events_fleet_refresh" {
+  statement_id  = "AllowEventBridgeInvoke"
+  action        = "lambda:InvokeFunction"
+  function_name = aws_lambda_function.fleet_refresh.function_name
+  principal     = "events.amazonaws.com"
+  source_arn    = aws_cloudwatch_event_rule.fleet_refresh.arn
+}
@@ -0,0 +1,43 @@
+# Private bucket for transaction exports; the API hands out short-lived presigned GET URLs
+resource "aws_s3_bucket" "exports" {
+  bucket = "${var.project_name}-exports-${random_id.rand.hex}"
+}
+
+resource "aws_s3_bucket_public_access_block" "exports" {
+  bucket                  = aws_s3_bucket.exports.id
+  block_public_acls       = true
+  ignore_public_acls      = true
+  block_public_policy     = true
+  restrict_public_buckets = true
+}
+
+# Exports are one-off downloads; don't keep them around
+resource "aws_s3_bucket_lifecycle_configuration" "exports" {
+  bucket = aws_s3_bucket.exports.id
+
+  rule {
+    id     = "expire-exports"
+    status = "Enabled"
+    filter {}
+    expiration {
+      days = 1
+    }
+  }
+}
+
+resource "aws_iam_role_policy" "lambda_exports" {
+  name = "${var.project_name}-exports"
+  role = aws_iam_role.lambda_exec.id
+
+  policy = jsonencode({
+    Version = "2012-10-17"
+    Statement = [
+      {
+        Sid      = "TransactionExports"
+        Effect   = "Allow"
+        Action   = ["s3:PutObject", "s3:GetObject"]
+        Resource = "${aws_s3_bucket.exports.arn}/exports/*"
+      }
+    ]
+  })
+}
@@ -0,0 +1,45 @@
+# Drains webhook_events queued by POST /webhooks/plaid (see backend/db/002_webhook_events.sql)
+resource "aws_lambda_function" "webhook_worker" {
+  function_name = "${var.project_name}-webhook-worker"
+  role          = aws_iam_role.lambda_exec.arn
+  handler       = "app.plaid.WebhookDrainWorker::handleRequest"
+  runtime       = "java17"
+  memory_size   = 512
+  timeout       = 300
+
+  filename         = var.lambda_zip_path
+  source_code_hash = filebase64sha256(var.lambda_zip_path)
+
+  environment {
+    variables = {
+      jdbc_url = var.jdbc_url
+      db_user  = var.db_user
+      db_pass  = var.db_pass
+
+      plaid_client_id = var.plaid_client_id
+      plaid_secret    = var.plaid_secret
+      plaid_env       = var.plaid_env
+
+      db_pool_max                = "6"
+      webhook_worker_concurrency = "4"
+    }
+  }
+}
+
+resource "aws_cloudwatch_event_rule" "webhook_drain" {
+  name                = "${var.project_name}-webhook-drain"
+  schedule_expression = "rate(1 minute)"
+}
+
+resource "aws_cloudwatch_event_target" "webhook_drain" {
+  rule = aws_cloudwatch_event_rule.webhook_drain.name
+  arn  = aws_lambda_function.webhook_worker.arn
+}
+
+resource "aws_lambda_permission" "allow_events_webhook_drain" {
+  statement_id  = "AllowEventBridgeInvoke"
+  action        = "lambda:InvokeFunction"
+  function_name = aws_lambda_function.webhook_worker.function_name
+  principal     = "events.amazonaws.com"
+  source_arn    = aws_cloudwatch_event_rule.webhook_drain.arn
+}